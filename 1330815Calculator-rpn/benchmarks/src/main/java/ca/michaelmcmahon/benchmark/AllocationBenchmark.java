@@ -0,0 +1,72 @@
+package ca.michaelmcmahon.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationContext;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Compares what evaluating a currency expression allocates with BigDecimal and with
+ * fixed point longs on a reused evaluation context. Run it with the gc profiler, the
+ * default of the BenchmarkRunner: gc.alloc.rate.norm of evaluateFixedPoint must be 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark
+{
+	private CompiledExpression compiled;
+	private BigDecimal[] decimalRow;
+	private long[] unscaledRow;
+	private EvaluationContext context;
+
+	@Setup
+	public void setUp() throws InfixQueueIllegalStateException
+	{
+		compiled = new ExpressionEvaluator().compile("( price * qty + fee ) / 3 - price * qty / 3", "price", "qty", "fee");
+		decimalRow = new BigDecimal[] {new BigDecimal("19.99"), new BigDecimal(3), new BigDecimal("1.25")};
+		unscaledRow = new long[] {1999, 300, 125};
+		context = new EvaluationContext();
+	}
+
+	@Benchmark
+	public BigDecimal evaluatePrecise() throws InfixQueueIllegalStateException
+	{
+		return compiled.evaluate(EvaluationMode.PRECISE, decimalRow);
+	}
+
+	@Benchmark
+	public BigDecimal evaluateFixedPointMode() throws InfixQueueIllegalStateException
+	{
+		return compiled.evaluate(EvaluationMode.FIXED_POINT, decimalRow);
+	}
+
+	@Benchmark
+	public long evaluateFixedPoint()
+	{
+		compiled.evaluateFixedPoint(unscaledRow, context);
+		return context.getUnscaledResult();
+	}
+}
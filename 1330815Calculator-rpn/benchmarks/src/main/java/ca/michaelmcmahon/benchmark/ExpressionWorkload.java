@@ -0,0 +1,97 @@
+package ca.michaelmcmahon.benchmark;
+
+import java.util.Random;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Builds the expressions measured by the benchmarks. An expression has a given amount
+ * of operators spread over a given amount of nested parentheses, with either integer
+ * or decimal operands and either a mix of every operator or mostly divisions.
+ *
+ * The same parameters always give the same expression. A group in parentheses is
+ * always on the left of its operator so that no expression divides by zero.
+ */
+public final class ExpressionWorkload
+{
+	/**
+	 * The kind of numbers in an expression.
+	 */
+	public enum Operands
+	{
+		INTEGER,
+		DECIMAL
+	}
+
+	/**
+	 * The operators used by an expression.
+	 */
+	public enum Mix
+	{
+		/**
+		 * Every operator as often as the others.
+		 */
+		MIXED,
+
+		/**
+		 * Three divisions out of four operators.
+		 */
+		DIVISION_HEAVY
+	}
+
+	private static final String[] MIXED_OPERATORS = {"+", "-", "*", "/"};
+	private static final String[] DIVISION_OPERATORS = {"/", "+", "/", "/"};
+
+	private ExpressionWorkload()
+	{
+	}
+
+	/**
+	 * Builds an expression with its items separated by spaces.
+	 *
+	 * @param length - the amount of operators.
+	 * @param depth - how deep the parentheses are nested.
+	 * @param operands - the kind of numbers.
+	 * @param mix - the operators used.
+	 * @return the expression.
+	 */
+	public static String build(int length, int depth, Operands operands, Mix mix)
+	{
+		if(length < 1 || depth < 0 || depth >= length)
+			throw new IllegalArgumentException("An expression needs at least one operator for each level of parentheses");
+
+		Random random = new Random(31L * length + depth);
+		String[] operators = mix == Mix.MIXED ? MIXED_OPERATORS : DIVISION_OPERATORS;
+		int levelLength = length / (depth + 1);
+
+		// the innermost group gets what is left over after the other levels.
+		StringBuilder expression = new StringBuilder();
+		appendOperand(expression, random, operands);
+		appendChain(expression, random, operands, operators, length - levelLength * depth);
+		for (int level = 0; level < depth; level++)
+		{
+			expression.insert(0, "( ").append(" )");
+			appendChain(expression, random, operands, operators, levelLength);
+		}
+		return expression.toString();
+	}
+
+	private static void appendChain(StringBuilder expression, Random random, Operands operands, String[] operators, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			expression.append(' ').append(operators[random.nextInt(operators.length)]).append(' ');
+			appendOperand(expression, random, operands);
+		}
+	}
+
+	private static void appendOperand(StringBuilder expression, Random random, Operands operands)
+	{
+		// never zero, so a division is never by zero.
+		expression.append(1 + random.nextInt(9));
+		if(operands == Operands.DECIMAL)
+			expression.append('.').append(1 + random.nextInt(99));
+	}
+}
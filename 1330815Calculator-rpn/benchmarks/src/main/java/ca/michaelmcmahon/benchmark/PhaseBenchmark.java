@@ -0,0 +1,142 @@
+package ca.michaelmcmahon.benchmark;
+
+import java.math.BigDecimal;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.michaelmcmahon.BytecodeCompiler;
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.Evaluator;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.ExpressionParser;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Measures each phase of evaluating an expression on its own: splitting the text into
+ * a queue, converting the queue or the text to reverse polish notation and evaluating
+ * the converted expression, along with the whole path through the Expression parser.
+ *
+ * Throughput is reported in operations per microsecond and latency as sampled
+ * percentiles, the BenchmarkRunner adds the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PhaseBenchmark
+{
+	@Param({"8", "64", "512"})
+	public int length;
+
+	@Param({"0", "4"})
+	public int depth;
+
+	@Param({"INTEGER", "DECIMAL"})
+	public ExpressionWorkload.Operands operands;
+
+	@Param({"MIXED", "DIVISION_HEAVY"})
+	public ExpressionWorkload.Mix mix;
+
+	private final ExpressionEvaluator preciseEvaluator = new ExpressionEvaluator(EvaluationMode.PRECISE);
+	private String text;
+	private Queue<String> infixQueue;
+	private CompiledExpression compiled;
+	private Evaluator generated;
+
+	@Setup
+	public void setUp() throws InfixQueueIllegalStateException
+	{
+		text = ExpressionWorkload.build(length, depth, operands, mix);
+		infixQueue = parse();
+		compiled = preciseEvaluator.compile(infixQueue);
+		generated = BytecodeCompiler.compile(compiled);
+	}
+
+	/**
+	 * Splits the text into the queue of items the Expression parser expects.
+	 */
+	@Benchmark
+	public Queue<String> parse()
+	{
+		Queue<String> queue = new LinkedList<String>();
+		for (String item : text.split(" "))
+		{
+			queue.add(item);
+		}
+		return queue;
+	}
+
+	/**
+	 * Validates and converts a queue that was already split.
+	 */
+	@Benchmark
+	public CompiledExpression convertQueue() throws InfixQueueIllegalStateException
+	{
+		return preciseEvaluator.compile(infixQueue);
+	}
+
+	/**
+	 * Reads, validates and converts the text without splitting it.
+	 */
+	@Benchmark
+	public CompiledExpression convertText() throws InfixQueueIllegalStateException
+	{
+		return preciseEvaluator.compile(text);
+	}
+
+	/**
+	 * Evaluates the converted expression with BigDecimal.
+	 */
+	@Benchmark
+	public BigDecimal evaluatePrecise() throws InfixQueueIllegalStateException
+	{
+		return compiled.evaluate(EvaluationMode.PRECISE);
+	}
+
+	/**
+	 * Evaluates the converted expression with longs where it can.
+	 */
+	@Benchmark
+	public BigDecimal evaluateFast() throws InfixQueueIllegalStateException
+	{
+		return compiled.evaluate(EvaluationMode.FAST);
+	}
+
+	/**
+	 * Evaluates the converted expression with generated bytecode.
+	 */
+	@Benchmark
+	public BigDecimal evaluateGenerated() throws InfixQueueIllegalStateException
+	{
+		return generated.evaluate(null);
+	}
+
+	/**
+	 * Every phase, the way the calculator was first used.
+	 */
+	@Benchmark
+	public BigDecimal endToEnd() throws InfixQueueIllegalStateException
+	{
+		return new ExpressionParser(parse()).getCalculatedExpression();
+	}
+}
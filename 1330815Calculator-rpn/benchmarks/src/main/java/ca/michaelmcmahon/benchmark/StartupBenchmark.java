@@ -0,0 +1,102 @@
+package ca.michaelmcmahon.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Measures the time from launching the calculator jar in batch mode to reading its
+ * first answer: plain, with the class data sharing archive written by the startup
+ * profile, and with the archive plus the options that suit a short run, the serial
+ * collector and only the first compiler tier. Build the jar with mvn package -Pstartup
+ * in the parent directory first, or point -Dcalculator.jar and -Dcalculator.jsa at
+ * another jar and archive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark
+{
+	@Param({"plain", "cds", "cds-tuned"})
+	private String launch;
+
+	private List<String> command;
+	private Path input;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		File jar = new File(System.getProperty("calculator.jar", "../target/1330815Calculator-rpn-0.0.1-SNAPSHOT.jar"));
+		File archive = new File(System.getProperty("calculator.jsa", "../target/calculator.jsa"));
+		if(!jar.isFile() || (!launch.equals("plain") && !archive.isFile()))
+			throw new IllegalStateException("Build the calculator with mvn package -Pstartup first");
+
+		input = Files.createTempFile("startup", ".txt");
+		Files.write(input, Arrays.asList("( 7 + 1 ) * 3 - 4 / 3", "max(3, sqrt(16)) * 1.5"), StandardCharsets.US_ASCII);
+
+		command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		if(!launch.equals("plain"))
+			command.add("-XX:SharedArchiveFile=" + archive.getPath());
+		if(launch.equals("cds-tuned"))
+		{
+			command.add("-XX:TieredStopAtLevel=1");
+			command.add("-XX:+UseSerialGC");
+		}
+		command.add("-jar");
+		command.add(jar.getPath());
+		command.add("--batch");
+		command.add(input.toString());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(input);
+	}
+
+	@Benchmark
+	public String firstResult() throws IOException, InterruptedException
+	{
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		try (BufferedReader answers = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII)))
+		{
+			String first = answers.readLine();
+			if(!"22.67".equals(first))
+				throw new IllegalStateException("The calculator answered " + first);
+			return first;
+		}
+		finally
+		{
+			process.waitFor();
+		}
+	}
+}
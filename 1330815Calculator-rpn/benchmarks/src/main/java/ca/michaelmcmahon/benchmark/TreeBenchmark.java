@@ -0,0 +1,83 @@
+package ca.michaelmcmahon.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.ExpressionTree;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Compares evaluating a long sum leaning to the left, x + x + ... + x, on one thread
+ * and as an expression tree on a fork join pool of each size. The tree balances the
+ * sum before cutting it, so it must be faster with more threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark
+{
+	@Param({"1000000"})
+	public int terms;
+
+	@Param({"1", "2", "4"})
+	public int threads;
+
+	private final BigDecimal[] row = {new BigDecimal("0.25")};
+	private CompiledExpression compiled;
+	private ExpressionTree tree;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setUp() throws InfixQueueIllegalStateException
+	{
+		StringBuilder expression = new StringBuilder(terms * 4).append('x');
+		for (int i = 1; i < terms; i++)
+		{
+			expression.append(" + x");
+		}
+		compiled = new ExpressionEvaluator().compile(expression, "x");
+		tree = new ExpressionTree(compiled);
+		pool = new ForkJoinPool(threads);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public BigDecimal evaluateSequential() throws InfixQueueIllegalStateException
+	{
+		return compiled.evaluate(row);
+	}
+
+	@Benchmark
+	public BigDecimal evaluateTree() throws InfixQueueIllegalStateException
+	{
+		return tree.evaluate(row, pool);
+	}
+}
@@ -0,0 +1,310 @@
+package ca.michaelmcmahon;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Evaluates a file that holds one expression per line and writes one answer per line,
+ * in the same order. The file is memory mapped one window at a time and every expression
+ * is tokenized straight from the mapped bytes, so the file is never copied onto the heap.
+ *
+ * Each window is cut into chunks of whole lines that are evaluated by a pool of worker
+ * threads. Only a few chunks are waiting to be written at any time, so the heap that is
+ * used does not depend on the size of the file.
+ *
+ * An answer is written as a plain number, an expression that cannot be evaluated is
+ * written as ERROR followed by its error code, its position in the line and its message,
+ * even when a function given by the caller throws an unchecked exception.
+ * The expressions are ASCII text, a carriage return before a line feed is ignored.
+ */
+public final class BatchEvaluator
+{
+	/**
+	 * The amount of the file that is mapped at a time.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+	/**
+	 * The amount of the file that is handed to a worker at a time.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 256 << 10;
+
+	// chunks each worker can have evaluated before the oldest one is written.
+	private static final int PENDING_CHUNKS_PER_THREAD = 2;
+
+	private final ExpressionEvaluator evaluator;
+	private final int threads;
+	private final int windowSize;
+	private final int chunkSize;
+
+	/***
+	 * Construct a batch evaluator with the default window and chunk sizes.
+	 *
+	 * @param evaluator - evaluates each expression.
+	 * @param threads - the amount of worker threads.
+	 */
+	public BatchEvaluator(ExpressionEvaluator evaluator, int threads)
+	{
+		this(evaluator, threads, DEFAULT_WINDOW_SIZE, DEFAULT_CHUNK_SIZE);
+	}
+
+	/***
+	 * Construct a batch evaluator.
+	 *
+	 * @param evaluator - evaluates each expression.
+	 * @param threads - the amount of worker threads.
+	 * @param windowSize - the amount of the file mapped at a time, no line can be longer.
+	 * @param chunkSize - the amount of the file handed to a worker at a time.
+	 */
+	public BatchEvaluator(ExpressionEvaluator evaluator, int threads, int windowSize, int chunkSize)
+	{
+		if(evaluator == null)
+			throw new IllegalArgumentException("The evaluator cannot be null");
+		if(threads < 1)
+			throw new IllegalArgumentException("There must be at least one thread");
+		if(windowSize < 1 || chunkSize < 1)
+			throw new IllegalArgumentException("The window and chunk sizes must be at least 1");
+
+		this.evaluator = evaluator;
+		this.threads = threads;
+		this.windowSize = windowSize;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Evaluates every line of a file and writes the answers to another file,
+	 * which is replaced if it exists.
+	 *
+	 * @param input - the file of expressions.
+	 * @param output - the file of answers.
+	 * @return the amount of lines evaluated.
+	 * @throws IOException - if a file cannot be read or written, or a line is longer than the window.
+	 */
+	public long evaluate(Path input, Path output) throws IOException
+	{
+		try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			return evaluate(input, out);
+		}
+	}
+
+	/**
+	 * Evaluates every line of a file and writes the answers to a channel.
+	 *
+	 * @param input - the file of expressions.
+	 * @param output - receives the answers, it is not closed.
+	 * @return the amount of lines evaluated.
+	 * @throws IOException - if the file cannot be read, the channel cannot be written,
+	 * or a line is longer than the window.
+	 */
+	public long evaluate(Path input, WritableByteChannel output) throws IOException
+	{
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+		long lines = 0;
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ))
+		{
+			long size = in.size();
+			long position = 0;
+			while(position < size)
+			{
+				int length = (int) Math.min(windowSize, size - position);
+				MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+				// a window ends after its last whole line, unless it is the end of the file.
+				int end = length;
+				if(position + length < size)
+				{
+					end = lastLineEnd(window, length);
+					if(end == 0)
+						throw new IOException("The line at byte " + position + " is longer than " + windowSize + " bytes");
+				}
+
+				int start = 0;
+				while(start < end)
+				{
+					int chunkEnd = lineEnd(window, Math.min(start + chunkSize, end) - 1, end);
+					pending.add(workers.submit(new ChunkTask(window.duplicate(), start, chunkEnd)));
+					while(pending.size() >= threads * PENDING_CHUNKS_PER_THREAD)
+					{
+						lines += write(pending.poll(), output);
+					}
+					start = chunkEnd;
+				}
+				position += end;
+			}
+
+			while(!pending.isEmpty())
+			{
+				lines += write(pending.poll(), output);
+			}
+			return lines;
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for a chunk and writes its answers.
+	 *
+	 * @return the amount of lines of the chunk.
+	 */
+	private static int write(Future<Chunk> future, WritableByteChannel output) throws IOException
+	{
+		Chunk chunk;
+		try
+		{
+			chunk = future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("The batch was interrupted");
+		}
+		catch (ExecutionException e)
+		{
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+
+		ByteBuffer answers = ByteBuffer.wrap(chunk.answers);
+		while(answers.hasRemaining())
+		{
+			output.write(answers);
+		}
+		return chunk.lines;
+	}
+
+	/**
+	 * Gives back the offset after the last line feed of a window.
+	 *
+	 * @return the offset, or 0 if the window has no line feed.
+	 */
+	private static int lastLineEnd(ByteBuffer window, int length)
+	{
+		for (int i = length - 1; i >= 0; i--)
+		{
+			if(window.get(i) == '\n')
+				return i + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Gives back the offset after the first line feed found from an offset,
+	 * or the end if there is none.
+	 */
+	private static int lineEnd(ByteBuffer window, int from, int end)
+	{
+		for (int i = from; i < end; i++)
+		{
+			if(window.get(i) == '\n')
+				return i + 1;
+		}
+		return end;
+	}
+
+	/**
+	 * The answers of a chunk of lines.
+	 */
+	private static final class Chunk
+	{
+		private final byte[] answers;
+		private final int lines;
+
+		Chunk(byte[] answers, int lines)
+		{
+			this.answers = answers;
+			this.lines = lines;
+		}
+	}
+
+	/**
+	 * Evaluates the lines between two offsets of a window.
+	 */
+	private final class ChunkTask implements Callable<Chunk>
+	{
+		private final ByteBuffer window;
+		private final int start;
+		private final int end;
+
+		ChunkTask(ByteBuffer window, int start, int end)
+		{
+			this.window = window;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Chunk call()
+		{
+			StringBuilder answers = new StringBuilder();
+			int lines = 0;
+			int lineStart = start;
+			while(lineStart < end)
+			{
+				// the limit of the previous line is lifted before the next one is looked for.
+				window.clear();
+				int next = lineEnd(window, lineStart, end);
+				int lineEnd = next;
+				if(lineEnd > lineStart && window.get(lineEnd - 1) == '\n')
+					lineEnd--;
+				if(lineEnd > lineStart && window.get(lineEnd - 1) == '\r')
+					lineEnd--;
+
+				window.position(lineStart);
+				window.limit(lineEnd);
+				try
+				{
+					BigDecimal answer = evaluator.evaluate(window);
+					answers.append(answer.toPlainString());
+				}
+				catch (InfixQueueIllegalStateException e)
+				{
+					error(answers, e);
+				}
+				catch (RuntimeException e)
+				{
+					// a function given by the caller failed, the other lines are still answered.
+					error(answers, ExpressionEvaluator.unchecked(e));
+				}
+				answers.append('\n');
+				lines++;
+				lineStart = next;
+			}
+			return new Chunk(answers.toString().getBytes(StandardCharsets.UTF_8), lines);
+		}
+
+		/**
+		 * Writes the error of a line on a single line, a function given by the
+		 * caller can put a line feed in its message.
+		 */
+		private void error(StringBuilder answers, InfixQueueIllegalStateException e)
+		{
+			answers.append("ERROR ").append(e.getErrorCode()).append(' ').append(e.getPosition()).append(' ')
+					.append(String.valueOf(e.getMessage()).replace('\r', ' ').replace('\n', ' '));
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * The answers to many expressions evaluated at once. Every expression has a slot at
+ * the same index it had when it was passed in, the slot holds either its answer or
+ * the exception that explains why it could not be evaluated. An unchecked exception
+ * thrown while evaluating is the cause of an INVALID_EXPRESSION error.
+ */
+public final class BulkResult
+{
+	private final BigDecimal[] results;
+	private final InfixQueueIllegalStateException[] errors;
+
+	/***
+	 * Construct empty slots for a number of expressions.
+	 *
+	 * @param size - the number of expressions.
+	 */
+	BulkResult(int size)
+	{
+		results = new BigDecimal[size];
+		errors = new InfixQueueIllegalStateException[size];
+	}
+
+	void setResult(int index, BigDecimal result)
+	{
+		results[index] = result;
+	}
+
+	void setError(int index, InfixQueueIllegalStateException error)
+	{
+		errors[index] = error;
+	}
+
+	/**
+	 * Gives back the number of expressions.
+	 * @return the size.
+	 */
+	public int size()
+	{
+		return results.length;
+	}
+
+	/**
+	 * Determines if an expression was evaluated.
+	 *
+	 * @param index - the index of the expression.
+	 * @return true if the expression has an answer.
+	 */
+	public boolean isSuccess(int index)
+	{
+		return errors[index] == null;
+	}
+
+	/**
+	 * Gives back the answer to an expression.
+	 *
+	 * @param index - the index of the expression.
+	 * @return the answer, or null if the expression could not be evaluated.
+	 */
+	public BigDecimal getResult(int index)
+	{
+		return results[index];
+	}
+
+	/**
+	 * Gives back why an expression could not be evaluated.
+	 *
+	 * @param index - the index of the expression.
+	 * @return the exception, or null if the expression was evaluated.
+	 */
+	public InfixQueueIllegalStateException getError(int index)
+	{
+		return errors[index];
+	}
+
+	/**
+	 * Gives back how many expressions could not be evaluated.
+	 * @return the error count.
+	 */
+	public int getErrorCount()
+	{
+		int count = 0;
+		for (InfixQueueIllegalStateException error : errors)
+		{
+			if(error != null)
+				count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,552 @@
+package ca.michaelmcmahon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Turns a compiled expression into a class of its own that implements Evaluator.
+ * The generated evaluate method is straight-line code: the operands are kept on
+ * the JVM operand stack and every operator is a direct call to BigDecimal, so there
+ * is no interpreter loop left for the JIT compiler to go through.
+ *
+ * Each class is defined by its own class loader so it can be unloaded, and the
+ * evaluators are cached by the text of the expression, its variables and the
+ * functions it calls. The cache holds at most MAX_CACHED_EVALUATORS, the least
+ * recently used one is dropped first and its class is unloaded once no caller
+ * holds the evaluator anymore.
+ * Expressions too large to fit in a single JVM method are evaluated by the
+ * compiled expression itself. Generated evaluators follow the default precision
+ * policy.
+ */
+public final class BytecodeCompiler
+{
+	private static final String PACKAGE = "ca/michaelmcmahon/";
+	private static final String BIG_DECIMAL = "java/math/BigDecimal";
+	private static final String BIG_DECIMAL_DESCRIPTOR = "L" + BIG_DECIMAL + ";";
+	private static final String ROW_DESCRIPTOR = "[" + BIG_DECIMAL_DESCRIPTOR;
+	private static final String FUNCTION = PACKAGE + "MathFunction";
+	private static final String FUNCTION_DESCRIPTOR = "L" + FUNCTION + ";";
+	private static final String FUNCTIONS_DESCRIPTOR = "[" + FUNCTION_DESCRIPTOR;
+	private static final String BINARY_DESCRIPTOR = "(" + BIG_DECIMAL_DESCRIPTOR + ")" + BIG_DECIMAL_DESCRIPTOR;
+	private static final int MAX_CODE_LENGTH = 65535;
+
+	/**
+	 * The most generated evaluators kept in the cache.
+	 */
+	public static final int MAX_CACHED_EVALUATORS = 256;
+
+	private static final Map<List<Object>, Evaluator> CACHE = new LinkedHashMap<List<Object>, Evaluator>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, Evaluator> eldest)
+		{
+			return size() > MAX_CACHED_EVALUATORS;
+		}
+	};
+	private static final AtomicInteger CLASS_COUNT = new AtomicInteger();
+
+	private BytecodeCompiler()
+	{
+	}
+
+	/**
+	 * Gives back an evaluator made of generated bytecode for the expression.
+	 * The same evaluator is given back for every expression with the same
+	 * text, variables and functions.
+	 *
+	 * @param expression - the compiled expression.
+	 * @return the evaluator.
+	 */
+	public static Evaluator compile(CompiledExpression expression)
+	{
+		List<Object> key = new ArrayList<Object>();
+		key.add(expression.toString());
+		key.add(Arrays.asList(expression.getVariables()));
+		key.addAll(Arrays.asList(expression.getFunctions()));
+		synchronized (CACHE)
+		{
+			Evaluator evaluator = CACHE.get(key);
+			if(evaluator != null)
+				return evaluator;
+		}
+
+		// generated outside of the lock, two threads may generate the same class once each.
+		Evaluator evaluator = generate(expression);
+		synchronized (CACHE)
+		{
+			Evaluator cached = CACHE.get(key);
+			if(cached != null)
+				return cached;
+			CACHE.put(key, evaluator);
+		}
+		return evaluator;
+	}
+
+	/**
+	 * Makes sure a row contains exactly one value for each variable.
+	 * Called by the generated classes, which can only use public methods.
+	 *
+	 * @param row - the value of each variable.
+	 * @param variableCount - the amount of variables of the expression.
+	 */
+	public static void checkRow(BigDecimal[] row, int variableCount)
+	{
+		if(row.length != variableCount)
+			throw new IllegalArgumentException("The expression has " + variableCount + " variables but the row has " + row.length + " values");
+		for (BigDecimal value : row)
+		{
+			if(value == null)
+				throw new IllegalArgumentException("The value of a variable cannot be null");
+		}
+	}
+
+	/**
+	 * Divides the two operands the same way the Expression parser does.
+	 * Called by the generated classes, which can only use public methods.
+	 *
+	 * @param left - the dividend.
+	 * @param right - the divisor.
+	 * @return the quotient.
+	 * @throws InfixQueueIllegalStateException - if the divisor is zero.
+	 */
+	public static BigDecimal divide(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		return Operator.divide(left, right);
+	}
+
+	/**
+	 * Gives back the remainder of dividing the two operands the same way the
+	 * Expression parser does. Called by the generated classes.
+	 *
+	 * @param left - the dividend.
+	 * @param right - the divisor.
+	 * @return the remainder.
+	 * @throws InfixQueueIllegalStateException - if the divisor is zero.
+	 */
+	public static BigDecimal remainder(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		return PrecisionPolicy.DEFAULT.remainder(left, right);
+	}
+
+	/**
+	 * Raises a number to an exponent the same way the Expression parser does.
+	 * Called by the generated classes.
+	 *
+	 * @param base - the number.
+	 * @param exponent - the exponent.
+	 * @return the power.
+	 * @throws InfixQueueIllegalStateException - if the exponent is not valid.
+	 */
+	public static BigDecimal power(BigDecimal base, BigDecimal exponent) throws InfixQueueIllegalStateException
+	{
+		return PrecisionPolicy.DEFAULT.power(base, exponent);
+	}
+
+	/**
+	 * Calls a function with the default precision policy.
+	 * Called by the generated classes.
+	 *
+	 * @param function - the function.
+	 * @param arguments - its arguments.
+	 * @return the answer of the function.
+	 * @throws InfixQueueIllegalStateException - if the arguments are not valid for the function.
+	 */
+	public static BigDecimal call(MathFunction function, BigDecimal[] arguments) throws InfixQueueIllegalStateException
+	{
+		return function.apply(arguments, PrecisionPolicy.DEFAULT);
+	}
+
+	/**
+	 * Generates, loads and instantiates the class of an expression.
+	 * @param expression - the compiled expression.
+	 * @return the evaluator, or the expression itself if it is too large.
+	 */
+	private static Evaluator generate(CompiledExpression expression)
+	{
+		String className = PACKAGE + "GeneratedEvaluator$" + CLASS_COUNT.incrementAndGet();
+		List<BigDecimal> constants = new ArrayList<BigDecimal>();
+		byte[] classFile = writeClass(className, expression, constants);
+		if(classFile == null)
+			return expression;
+
+		GeneratedClassLoader loader = new GeneratedClassLoader(BytecodeCompiler.class.getClassLoader());
+		Class<?> generated = loader.define(className.replace('/', '.'), classFile);
+		try
+		{
+			BigDecimal[] constantArray = constants.toArray(new BigDecimal[constants.size()]);
+			return (Evaluator) generated.getConstructor(BigDecimal[].class, MathFunction[].class).newInstance(constantArray,
+					expression.getFunctions().clone());
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException("The generated evaluator could not be created", e);
+		}
+	}
+
+	/**
+	 * Writes the class file of an expression.
+	 *
+	 * @param className - the internal name of the class.
+	 * @param expression - the compiled expression.
+	 * @param constants - receives the numbers the class expects in its constructor.
+	 * @return the class file, or null if the expression does not fit in a method.
+	 */
+	private static byte[] writeClass(String className, CompiledExpression expression, List<BigDecimal> constants)
+	{
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.classRef(className);
+		int superClass = pool.classRef("java/lang/Object");
+		int evaluatorInterface = pool.classRef(PACKAGE + "Evaluator");
+		int constantsField = pool.fieldRef(className, "constants", ROW_DESCRIPTOR);
+		int functionsField = pool.fieldRef(className, "functions", FUNCTIONS_DESCRIPTOR);
+		int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+		int checkRow = pool.methodRef(PACKAGE + "BytecodeCompiler", "checkRow", "(" + ROW_DESCRIPTOR + "I)V");
+		int add = pool.methodRef(BIG_DECIMAL, "add", BINARY_DESCRIPTOR);
+		int subtract = pool.methodRef(BIG_DECIMAL, "subtract", BINARY_DESCRIPTOR);
+		int multiply = pool.methodRef(BIG_DECIMAL, "multiply", BINARY_DESCRIPTOR);
+		int divide = pool.methodRef(PACKAGE + "BytecodeCompiler", "divide", "(" + BIG_DECIMAL_DESCRIPTOR + BIG_DECIMAL_DESCRIPTOR + ")" + BIG_DECIMAL_DESCRIPTOR);
+		int remainder = pool.methodRef(PACKAGE + "BytecodeCompiler", "remainder", "(" + BIG_DECIMAL_DESCRIPTOR + BIG_DECIMAL_DESCRIPTOR + ")" + BIG_DECIMAL_DESCRIPTOR);
+		int power = pool.methodRef(PACKAGE + "BytecodeCompiler", "power", "(" + BIG_DECIMAL_DESCRIPTOR + BIG_DECIMAL_DESCRIPTOR + ")" + BIG_DECIMAL_DESCRIPTOR);
+		int negate = pool.methodRef(BIG_DECIMAL, "negate", "()" + BIG_DECIMAL_DESCRIPTOR);
+		int call = pool.methodRef(PACKAGE + "BytecodeCompiler", "call", "(" + FUNCTION_DESCRIPTOR + ROW_DESCRIPTOR + ")" + BIG_DECIMAL_DESCRIPTOR);
+		int bigDecimalClass = pool.classRef(BIG_DECIMAL);
+		int stripTrailingZeros = pool.methodRef(BIG_DECIMAL, "stripTrailingZeros", "()" + BIG_DECIMAL_DESCRIPTOR);
+		// the arguments of a call are kept in the locals after the temporaries.
+		int argumentLocals = 2 + expression.getTemporaryCount();
+		int maxArity = 0;
+
+		// constructor: this.constants = constants; this.functions = functions;
+		CodeBuffer init = new CodeBuffer();
+		init.write(0x2a);                     // aload_0
+		init.write(0xb7, objectInit);         // invokespecial Object.<init>
+		init.write(0x2a);                     // aload_0
+		init.write(0x2b);                     // aload_1
+		init.write(0xb5, constantsField);     // putfield constants
+		init.write(0x2a);                     // aload_0
+		init.write(0x2c);                     // aload_2
+		init.write(0xb5, functionsField);     // putfield functions
+		init.write(0xb1);                     // return
+
+		// evaluate: straight-line code over the operand stack.
+		CodeBuffer evaluate = new CodeBuffer();
+		evaluate.write(0x2b);                 // aload_1
+		evaluate.pushInt(expression.getVariableCount());
+		evaluate.write(0xb8, checkRow);       // invokestatic checkRow
+		for (int i = 0; i < expression.getLength() && evaluate.size() <= MAX_CODE_LENGTH; i++)
+		{
+			switch (expression.getOpcode(i))
+			{
+			case CompiledExpression.PUSH:
+				evaluate.write(0x2a);         // aload_0
+				evaluate.write(0xb4, constantsField);
+				evaluate.pushInt(constants.size());
+				evaluate.write(0x32);         // aaload
+				constants.add(expression.getOperand(i));
+				break;
+			case CompiledExpression.LOAD:
+				evaluate.write(0x2b);         // aload_1
+				evaluate.pushInt(expression.getSlot(i));
+				evaluate.write(0x32);         // aaload
+				break;
+			case CompiledExpression.ADD:
+				evaluate.write(0xb6, add);
+				break;
+			case CompiledExpression.SUBTRACT:
+				evaluate.write(0xb6, subtract);
+				break;
+			case CompiledExpression.MULTIPLY:
+				evaluate.write(0xb6, multiply);
+				break;
+			case CompiledExpression.DIVIDE:
+				evaluate.write(0xb8, divide);
+				break;
+			case CompiledExpression.MODULO:
+				evaluate.write(0xb8, remainder);
+				break;
+			case CompiledExpression.POWER:
+				evaluate.write(0xb8, power);
+				break;
+			case CompiledExpression.NEGATE:
+				evaluate.write(0xb6, negate);
+				break;
+			case CompiledExpression.CALL:
+				// the arguments are moved from the operand stack into a new array.
+				int arity = expression.getArity(i);
+				maxArity = Math.max(maxArity, arity);
+				for (int argument = arity - 1; argument >= 0; argument--)
+				{
+					evaluate.writeWide(0x3a, argumentLocals + argument); // astore
+				}
+				evaluate.write(0x2a);         // aload_0
+				evaluate.write(0xb4, functionsField);
+				evaluate.pushInt(expression.getSlot(i));
+				evaluate.write(0x32);         // aaload
+				evaluate.pushInt(arity);
+				evaluate.write(0xbd, bigDecimalClass); // anewarray
+				for (int argument = 0; argument < arity; argument++)
+				{
+					evaluate.write(0x59);     // dup
+					evaluate.pushInt(argument);
+					evaluate.writeWide(0x19, argumentLocals + argument); // aload
+					evaluate.write(0x53);     // aastore
+				}
+				evaluate.write(0xb8, call);
+				break;
+			case CompiledExpression.STORE:
+				// the temporaries are the locals after this and the row.
+				evaluate.write(0x59);         // dup
+				evaluate.writeWide(0x3a, 2 + expression.getSlot(i)); // astore
+				break;
+			case CompiledExpression.RECALL:
+				evaluate.writeWide(0x19, 2 + expression.getSlot(i)); // aload
+				break;
+			}
+		}
+		evaluate.write(0xb6, stripTrailingZeros);
+		evaluate.write(0xb0);                 // areturn
+
+		if(evaluate.size() > MAX_CODE_LENGTH || constants.size() > Short.MAX_VALUE || expression.getVariableCount() > Short.MAX_VALUE
+				|| argumentLocals + maxArity > Short.MAX_VALUE || expression.getFunctions().length > Short.MAX_VALUE)
+			return null;
+
+		int codeName = pool.utf8("Code");
+		int initName = pool.utf8("<init>");
+		int initDescriptor = pool.utf8("(" + ROW_DESCRIPTOR + FUNCTIONS_DESCRIPTOR + ")V");
+		int evaluateName = pool.utf8("evaluate");
+		int evaluateDescriptor = pool.utf8("(" + ROW_DESCRIPTOR + ")" + BIG_DECIMAL_DESCRIPTOR);
+		int fieldName = pool.utf8("constants");
+		int fieldDescriptor = pool.utf8(ROW_DESCRIPTOR);
+		int functionsName = pool.utf8("functions");
+		int functionsDescriptor = pool.utf8(FUNCTIONS_DESCRIPTOR);
+
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);                // minor version
+			out.writeShort(52);               // major version, Java 8
+			pool.writeTo(out);
+			out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(evaluatorInterface);
+
+			out.writeShort(2);
+			out.writeShort(0x0002 | 0x0010);  // private final
+			out.writeShort(fieldName);
+			out.writeShort(fieldDescriptor);
+			out.writeShort(0);
+			out.writeShort(0x0002 | 0x0010);  // private final
+			out.writeShort(functionsName);
+			out.writeShort(functionsDescriptor);
+			out.writeShort(0);
+
+			out.writeShort(2);
+			writeMethod(out, initName, initDescriptor, codeName, init, 2, 3);
+			// four extra entries for a function, an array, an index and a value on top of the operands.
+			writeMethod(out, evaluateName, evaluateDescriptor, codeName, evaluate, expression.getMaxStackDepth() + 4,
+					argumentLocals + maxArity);
+			out.writeShort(0);
+			out.flush();
+			return bytes.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes a public method with its Code attribute.
+	 */
+	private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+			CodeBuffer code, int maxStack, int maxLocals) throws IOException
+	{
+		out.writeShort(0x0001);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + code.size());
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.size());
+		code.writeTo(out);
+		out.writeShort(0);                    // exception table
+		out.writeShort(0);                    // attributes
+	}
+
+	/**
+	 * The constant pool of the class being written, every entry
+	 * is only added once.
+	 */
+	private static final class ConstantPool
+	{
+		private final Map<String, Integer> entries = new HashMap<String, Integer>();
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private int count = 1;
+
+		int utf8(String value)
+		{
+			Integer index = entries.get("U" + value);
+			if(index != null)
+				return index;
+			try
+			{
+				out.writeByte(1);
+				out.writeUTF(value);
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			return add("U" + value);
+		}
+
+		int classRef(String internalName)
+		{
+			Integer index = entries.get("C" + internalName);
+			if(index != null)
+				return index;
+			int name = utf8(internalName);
+			write(7, name);
+			return add("C" + internalName);
+		}
+
+		int fieldRef(String owner, String name, String descriptor)
+		{
+			return memberRef(9, owner, name, descriptor);
+		}
+
+		int methodRef(String owner, String name, String descriptor)
+		{
+			return memberRef(10, owner, name, descriptor);
+		}
+
+		private int memberRef(int tag, String owner, String name, String descriptor)
+		{
+			String key = tag + owner + "." + name + descriptor;
+			Integer index = entries.get(key);
+			if(index != null)
+				return index;
+			int ownerClass = classRef(owner);
+			int nameAndType = nameAndType(name, descriptor);
+			write(tag, ownerClass, nameAndType);
+			return add(key);
+		}
+
+		private int nameAndType(String name, String descriptor)
+		{
+			String key = "N" + name + descriptor;
+			Integer index = entries.get(key);
+			if(index != null)
+				return index;
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			write(12, nameIndex, descriptorIndex);
+			return add(key);
+		}
+
+		private void write(int tag, int... indices)
+		{
+			try
+			{
+				out.writeByte(tag);
+				for (int index : indices)
+				{
+					out.writeShort(index);
+				}
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private int add(String key)
+		{
+			entries.put(key, count);
+			return count++;
+		}
+
+		void writeTo(DataOutputStream target) throws IOException
+		{
+			out.flush();
+			target.writeShort(count);
+			bytes.writeTo(target);
+		}
+	}
+
+	/**
+	 * The bytecode of a method being written.
+	 */
+	private static final class CodeBuffer extends ByteArrayOutputStream
+	{
+		void write(int opcode, int index)
+		{
+			write(opcode);
+			write(index >> 8);
+			write(index);
+		}
+
+		/**
+		 * Writes an instruction on a local variable with a two byte index.
+		 */
+		void writeWide(int opcode, int index)
+		{
+			write(0xc4);                      // wide
+			write(opcode, index);
+		}
+
+		void pushInt(int value)
+		{
+			if(value <= 5)
+			{
+				write(0x03 + value);          // iconst_<n>
+			}
+			else if(value <= Byte.MAX_VALUE)
+			{
+				write(0x10);                  // bipush
+				write(value);
+			}
+			else
+			{
+				write(0x11, value);           // sipush
+			}
+		}
+	}
+
+	/**
+	 * Defines a single generated class.
+	 */
+	private static final class GeneratedClassLoader extends ClassLoader
+	{
+		GeneratedClassLoader(ClassLoader parent)
+		{
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] classFile)
+		{
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+}
@@ -0,0 +1,1203 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * An expression that has already been validated and converted into reverse polish
+ * notation by the Expression parser. The operands are parsed once when the expression
+ * is compiled and the operators are stored as opcodes, so the expression can be
+ * evaluated as many times as needed without being tokenized or validated again.
+ *
+ * Variables are resolved to slot indices when the expression is compiled, their
+ * values are given as a row when the expression is evaluated.
+ *
+ * An optimized expression can also keep the value of a subexpression that is used
+ * more than once in a temporary slot, STORE copies the top of the stack into a slot
+ * and RECALL pushes it back.
+ *
+ * Functions are kept in a table of their own, CALL calls the function of its slot with
+ * the arguments on top of the stack. Expressions that call functions are only evaluated
+ * with BigDecimal and doubles.
+ *
+ * A compiled expression is immutable and can be shared between threads.
+ */
+public final class CompiledExpression implements Evaluator
+{
+	static final byte PUSH = 0;
+	static final byte LOAD = 1;
+	static final byte ADD = 2;
+	static final byte SUBTRACT = 3;
+	static final byte MULTIPLY = 4;
+	static final byte DIVIDE = 5;
+	static final byte STORE = 6;
+	static final byte RECALL = 7;
+	static final byte NEGATE = 8;
+	static final byte POWER = 9;
+	static final byte MODULO = 10;
+	static final byte CALL = 11;
+	static final int OPCODE_COUNT = 12;
+
+	private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+	private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+	private static final BigDecimal[] NO_VALUES = new BigDecimal[0];
+	private static final int BATCH_BLOCK_SIZE = 1024;
+	// the scale of a quotient with the default precision policy.
+	private static final int QUOTIENT_SCALE = 2;
+	// the most decimal places a fixed point value can have.
+	private static final int MAX_FIXED_SCALE = 9;
+	private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+			100000000L, 1000000000L};
+
+	private final byte[] opcodes;
+	private final BigDecimal[] operands;
+	private final long[] longOperands;
+	private final int[] slots;
+	private final String[] variables;
+	private final String[] functionNames;
+	private final MathFunction[] functions;
+	private final boolean wholeNumbers;
+	private final int fixedScale;
+	private final long[] fixedOperands;
+	private final int maxStackDepth;
+	private final int temporaryCount;
+
+	/***
+	 * Construct a compiled expression from a valid postfix list of tokens.
+	 *
+	 * @param postfix - the expression in reverse polish notation.
+	 * @param variables - the names of the variables, in slot order.
+	 *
+	 * @throws InfixQueueIllegalStateException - if the postfix queue does not leave exactly one result.
+	 */
+	CompiledExpression(List<Token> postfix, String[] variables) throws InfixQueueIllegalStateException
+	{
+		int length = postfix.size();
+		opcodes = new byte[length];
+		operands = new BigDecimal[length];
+		longOperands = new long[length];
+		slots = new int[length];
+		this.variables = variables.clone();
+		boolean onlyWholeNumbers = true;
+		List<String> names = new ArrayList<String>();
+		List<MathFunction> called = new ArrayList<MathFunction>();
+
+		int i = 0;
+		int depth = 0;
+		int maxDepth = 0;
+		for (Token token : postfix)
+		{
+			switch (token.getType())
+			{
+			case NUMBER:
+				opcodes[i] = PUSH;
+				operands[i] = token.getValue();
+				if(isLong(operands[i]))
+					longOperands[i] = operands[i].longValueExact();
+				else
+					onlyWholeNumbers = false;
+				depth++;
+				break;
+			case VARIABLE:
+				opcodes[i] = LOAD;
+				slots[i] = token.getSlot();
+				depth++;
+				break;
+			case FUNCTION:
+				int index = names.indexOf(token.getText());
+				if(index < 0)
+				{
+					index = names.size();
+					names.add(token.getText());
+					called.add(token.getFunction());
+				}
+				if(depth < token.getFunction().getArity())
+					throw new InfixQueueIllegalStateException(ErrorCode.WRONG_ARGUMENT_COUNT, -1);
+				opcodes[i] = CALL;
+				slots[i] = index;
+				depth -= token.getFunction().getArity() - 1;
+				onlyWholeNumbers = false;
+				break;
+			default:
+				if(depth < token.getOperator().getArity())
+					throw new InfixQueueIllegalStateException(ErrorCode.INVALID_EXPRESSION, "an operator must have a number on each side of it.", -1);
+				opcodes[i] = token.getOperator().getOpcode();
+				depth -= token.getOperator().getArity() - 1;
+				break;
+			}
+			maxDepth = Math.max(maxDepth, depth);
+			i++;
+		}
+
+		if(depth != 1)
+			throw new InfixQueueIllegalStateException(ErrorCode.EMPTY_EXPRESSION, -1);
+
+		maxStackDepth = maxDepth;
+		wholeNumbers = onlyWholeNumbers;
+		temporaryCount = 0;
+		functionNames = names.toArray(new String[names.size()]);
+		functions = called.toArray(new MathFunction[called.size()]);
+		fixedScale = fixedScale(opcodes, operands);
+		fixedOperands = fixedOperands(opcodes, operands, fixedScale);
+	}
+
+	/***
+	 * Construct a compiled expression from a program that is already valid,
+	 * used by the optimizer.
+	 *
+	 * @param opcodes - the instructions.
+	 * @param operands - the number pushed by each PUSH instruction.
+	 * @param slots - the slot of each LOAD, STORE, RECALL and CALL instruction.
+	 * @param variables - the names of the variables, in slot order.
+	 * @param functionNames - the names of the functions, in slot order.
+	 * @param functions - the functions called by CALL, in slot order.
+	 * @param temporaryCount - the amount of temporary slots used by STORE and RECALL.
+	 */
+	CompiledExpression(byte[] opcodes, BigDecimal[] operands, int[] slots, String[] variables, String[] functionNames,
+			MathFunction[] functions, int temporaryCount)
+	{
+		this.opcodes = opcodes;
+		this.operands = operands;
+		this.slots = slots;
+		this.variables = variables.clone();
+		this.functionNames = functionNames;
+		this.functions = functions;
+		this.temporaryCount = temporaryCount;
+		longOperands = new long[opcodes.length];
+		boolean onlyWholeNumbers = true;
+
+		int depth = 0;
+		int maxDepth = 0;
+		for (int i = 0; i < opcodes.length; i++)
+		{
+			switch (opcodes[i])
+			{
+			case PUSH:
+				if(isLong(operands[i]))
+					longOperands[i] = operands[i].longValueExact();
+				else
+					onlyWholeNumbers = false;
+				depth++;
+				break;
+			case LOAD:
+			case RECALL:
+				depth++;
+				break;
+			case STORE:
+				break;
+			case CALL:
+				onlyWholeNumbers = false;
+				depth -= getArity(i) - 1;
+				break;
+			default:
+				depth -= getArity(i) - 1;
+				break;
+			}
+			maxDepth = Math.max(maxDepth, depth);
+		}
+
+		maxStackDepth = maxDepth;
+		wholeNumbers = onlyWholeNumbers;
+		fixedScale = fixedScale(opcodes, operands);
+		fixedOperands = fixedOperands(opcodes, operands, fixedScale);
+	}
+
+	/**
+	 * Gives back a simpler expression that gives the same answers: constant
+	 * subexpressions are computed once, operations that do nothing such as
+	 * adding zero or multiplying by one are removed and a subexpression that
+	 * appears more than once is computed once.
+	 *
+	 * @return the optimized expression.
+	 */
+	public CompiledExpression optimize()
+	{
+		return optimize(PrecisionPolicy.DEFAULT);
+	}
+
+	/**
+	 * Gives back a simpler expression that gives the same answers when it is
+	 * evaluated with the precision policy passed in. Constants are computed
+	 * following the policy, and operations that do nothing are only removed
+	 * if the policy does not round them.
+	 *
+	 * @param policy - the policy the expression will be evaluated with.
+	 * @return the optimized expression.
+	 */
+	public CompiledExpression optimize(PrecisionPolicy policy)
+	{
+		if(policy == null)
+			throw new IllegalArgumentException("The precision policy cannot be null");
+		return ExpressionOptimizer.optimize(this, policy);
+	}
+
+	/**
+	 * Determines if the number has no fractional part
+	 * and fits in a long.
+	 * @param number
+	 * @return true if it can be used on a long stack.
+	 */
+	private static boolean isLong(BigDecimal number)
+	{
+		if(number.signum() == 0)
+			return true;
+		if(number.scale() > 0 && number.stripTrailingZeros().scale() > 0)
+			return false;
+		return number.compareTo(LONG_MIN) >= 0 && number.compareTo(LONG_MAX) <= 0;
+	}
+
+	/**
+	 * Gives back the scale every value of the expression is kept at when it
+	 * is evaluated with fixed point longs: the most decimal places of its
+	 * numbers, and at least the decimal places of a quotient.
+	 *
+	 * @param opcodes - the instructions.
+	 * @param operands - the number pushed by each PUSH instruction.
+	 * @return the scale, or -1 if a number has too many decimal places or a function is called.
+	 */
+	private static int fixedScale(byte[] opcodes, BigDecimal[] operands)
+	{
+		int scale = QUOTIENT_SCALE;
+		for (int i = 0; i < opcodes.length; i++)
+		{
+			if(opcodes[i] == CALL)
+				return -1;
+			if(opcodes[i] == PUSH && operands[i].scale() > scale)
+				scale = Math.max(scale, operands[i].stripTrailingZeros().scale());
+		}
+		return scale <= MAX_FIXED_SCALE ? scale : -1;
+	}
+
+	/**
+	 * Gives back the unscaled value of each number at the fixed scale.
+	 *
+	 * @param opcodes - the instructions.
+	 * @param operands - the number pushed by each PUSH instruction.
+	 * @param scale - the fixed scale, or -1 if there is none.
+	 * @return the unscaled values, or null if a number does not fit in a long.
+	 */
+	private static long[] fixedOperands(byte[] opcodes, BigDecimal[] operands, int scale)
+	{
+		if(scale < 0)
+			return null;
+		long[] unscaled = new long[opcodes.length];
+		for (int i = 0; i < opcodes.length; i++)
+		{
+			if(opcodes[i] == PUSH)
+			{
+				Long value = toFixed(operands[i], scale);
+				if(value == null)
+					return null;
+				unscaled[i] = value;
+			}
+		}
+		return unscaled;
+	}
+
+	/**
+	 * Gives back the unscaled value of a number at a scale.
+	 *
+	 * @param number - the number.
+	 * @param scale - the scale.
+	 * @return the unscaled value, or null if the number has more decimal places
+	 * or does not fit in a long.
+	 */
+	private static Long toFixed(BigDecimal number, int scale)
+	{
+		try
+		{
+			return number.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+		}
+		catch (ArithmeticException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Gives back the largest amount of operands that are
+	 * on the stack at the same time during evaluation.
+	 * @return the maximum stack depth.
+	 */
+	public int getMaxStackDepth()
+	{
+		return maxStackDepth;
+	}
+
+	/**
+	 * Gives back the amount of instructions of the program.
+	 * @return the length of the program.
+	 */
+	public int getLength()
+	{
+		return opcodes.length;
+	}
+
+	/**
+	 * Gives back how many times an operator is applied
+	 * each time the expression is evaluated.
+	 * @param operator - the operator.
+	 * @return the amount of instructions of the operator.
+	 */
+	public int getOperationCount(Operator operator)
+	{
+		return count(operator.getOpcode());
+	}
+
+	/**
+	 * Gives back how many functions are called each
+	 * time the expression is evaluated.
+	 * @return the amount of function calls.
+	 */
+	public int getCallCount()
+	{
+		return count(CALL);
+	}
+
+	private int count(byte opcode)
+	{
+		int count = 0;
+		for (byte instruction : opcodes)
+		{
+			if(instruction == opcode)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Gives back the opcode of an instruction.
+	 * @param index - the index of the instruction.
+	 * @return the opcode.
+	 */
+	byte getOpcode(int index)
+	{
+		return opcodes[index];
+	}
+
+	/**
+	 * Gives back the number pushed by a PUSH instruction.
+	 * @param index - the index of the instruction.
+	 * @return the number.
+	 */
+	BigDecimal getOperand(int index)
+	{
+		return operands[index];
+	}
+
+	/**
+	 * Gives back the slot of the variable loaded by a LOAD instruction.
+	 * @param index - the index of the instruction.
+	 * @return the slot.
+	 */
+	int getSlot(int index)
+	{
+		return slots[index];
+	}
+
+	/**
+	 * Gives back the amount of operands an instruction takes off the stack
+	 * to put its result back.
+	 * @param index - the index of the instruction.
+	 * @return the arity of the operator or the function, 0 for the other instructions.
+	 */
+	int getArity(int index)
+	{
+		switch (opcodes[index])
+		{
+		case PUSH:
+		case LOAD:
+		case STORE:
+		case RECALL:
+			return 0;
+		case CALL:
+			return functions[slots[index]].getArity();
+		default:
+			return Operator.fromOpcode(opcodes[index]).getArity();
+		}
+	}
+
+	/**
+	 * Gives back the functions called by CALL, in slot order.
+	 * @return the functions, the array must not be changed.
+	 */
+	MathFunction[] getFunctions()
+	{
+		return functions;
+	}
+
+	/**
+	 * Gives back the names of the functions called by CALL, in slot order.
+	 * @return the names, the array must not be changed.
+	 */
+	String[] getFunctionNames()
+	{
+		return functionNames;
+	}
+
+	/**
+	 * Gives back the amount of temporary slots used by STORE and RECALL.
+	 * @return the amount of temporary slots.
+	 */
+	int getTemporaryCount()
+	{
+		return temporaryCount;
+	}
+
+	/**
+	 * Gives back the names of the variables of the expression,
+	 * the index of a name is the index of its value in a row.
+	 * @return the variable names.
+	 */
+	public String[] getVariables()
+	{
+		return variables.clone();
+	}
+
+	/**
+	 * Gives back the amount of values a row must contain.
+	 * @return the amount of variables.
+	 */
+	public int getVariableCount()
+	{
+		return variables.length;
+	}
+
+	/**
+	 * Makes sure a row contains exactly one value for each variable.
+	 * @param length - the length of the row.
+	 */
+	private void checkRowLength(int length)
+	{
+		if(length != variables.length)
+			throw new IllegalArgumentException("The expression has " + variables.length + " variables but the row has " + length + " values");
+	}
+
+	/**
+	 * Evaluates an expression that has no variables.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate() throws InfixQueueIllegalStateException
+	{
+		return evaluate(NO_VALUES);
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables.
+	 * @param row - the value of each variable, in slot order.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	@Override
+	public BigDecimal evaluate(BigDecimal[] row) throws InfixQueueIllegalStateException
+	{
+		return evaluate(row, PrecisionPolicy.DEFAULT);
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables
+	 * following a precision policy.
+	 * @param row - the value of each variable, in slot order.
+	 * @param policy - how precise the answer is.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate(BigDecimal[] row, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+	{
+		checkRow(row);
+		if(policy == null)
+			throw new IllegalArgumentException("The precision policy cannot be null");
+		return evaluateRange(row, 0, opcodes.length - 1, policy).stripTrailingZeros();
+	}
+
+	/**
+	 * Makes sure a row contains exactly one value for each variable
+	 * and that none of the values are null.
+	 * @param row - the value of each variable, in slot order.
+	 */
+	void checkRow(BigDecimal[] row)
+	{
+		checkRowLength(row.length);
+		for (BigDecimal value : row)
+		{
+			if(value == null)
+				throw new IllegalArgumentException("The value of a variable cannot be null");
+		}
+	}
+
+	/**
+	 * Evaluates the instructions between two indices, both included. The
+	 * instructions must be a whole subexpression: they leave exactly one
+	 * number on the stack.
+	 *
+	 * @param row - the value of each variable, in slot order.
+	 * @param from - the index of the first instruction.
+	 * @param to - the index of the last instruction.
+	 * @param policy - how precise the value is.
+	 * @return - the value of the subexpression, its trailing zeros are kept.
+	 * @throws InfixQueueIllegalStateException - if the subexpression divides by zero.
+	 */
+	BigDecimal evaluateRange(BigDecimal[] row, int from, int to, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+	{
+		EvaluationContext context = EvaluationContext.current();
+		context.enterDecimal();
+		try
+		{
+			BigDecimal[] stack = context.decimalStack(maxStackDepth);
+			BigDecimal[] temporaries = context.decimalTemporaries(temporaryCount);
+			int top = -1;
+
+			for (int i = from; i <= to; i++)
+			{
+				switch (opcodes[i])
+				{
+				case PUSH:
+					stack[++top] = operands[i];
+					break;
+				case LOAD:
+					stack[++top] = row[slots[i]];
+					break;
+				case STORE:
+					temporaries[slots[i]] = stack[top];
+					break;
+				case RECALL:
+					stack[++top] = temporaries[slots[i]];
+					break;
+				case ADD:
+					top--;
+					stack[top] = policy.add(stack[top], stack[top + 1]);
+					break;
+				case SUBTRACT:
+					top--;
+					stack[top] = policy.subtract(stack[top], stack[top + 1]);
+					break;
+				case MULTIPLY:
+					top--;
+					stack[top] = policy.multiply(stack[top], stack[top + 1]);
+					break;
+				case DIVIDE:
+					top--;
+					stack[top] = policy.divide(stack[top], stack[top + 1]);
+					break;
+				default:
+					top = apply(i, stack, top, policy);
+					break;
+				}
+			}
+			return stack[0];
+		}
+		finally
+		{
+			context.exitDecimal();
+		}
+	}
+
+	/**
+	 * Applies the operator or the function of an instruction to the operands
+	 * on top of a stack, the result replaces them.
+	 *
+	 * @param index - the index of the instruction.
+	 * @param stack - the stack.
+	 * @param top - the index of the top of the stack.
+	 * @param policy - how precise the result is.
+	 * @return - the index of the top of the stack, where the result is.
+	 * @throws InfixQueueIllegalStateException - if the operands are not valid for the operation.
+	 */
+	int apply(int index, BigDecimal[] stack, int top, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+	{
+		if(opcodes[index] == CALL)
+		{
+			// the function is given a copy of its arguments, the stack is not handed to
+			// code that could keep it or change it.
+			MathFunction function = functions[slots[index]];
+			int first = top - function.getArity() + 1;
+			stack[first] = function.apply(Arrays.copyOfRange(stack, first, top + 1), policy);
+			return first;
+		}
+
+		Operator operator = Operator.fromOpcode(opcodes[index]);
+		if(operator.getArity() == 1)
+		{
+			stack[top] = operator.apply(stack[top], policy);
+			return top;
+		}
+		stack[top - 1] = operator.apply(stack[top - 1], stack[top], policy);
+		return top - 1;
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables.
+	 * Each double is used as the decimal number it prints as.
+	 * @param row - the value of each variable, in slot order.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate(double[] row) throws InfixQueueIllegalStateException
+	{
+		return evaluate(EvaluationMode.PRECISE, row);
+	}
+
+	/**
+	 * Evaluates an expression that has no variables using the mode passed in.
+	 * @param mode - how the expression is evaluated.
+	 * @return - the answer, it is the same whatever the mode.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate(EvaluationMode mode) throws InfixQueueIllegalStateException
+	{
+		return evaluate(mode, NO_VALUES);
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables using the mode passed in.
+	 * @param mode - how the expression is evaluated.
+	 * @param row - the value of each variable, in slot order.
+	 * @return - the answer, it is the same whatever the mode.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate(EvaluationMode mode, BigDecimal[] row) throws InfixQueueIllegalStateException
+	{
+		return evaluate(mode, row, PrecisionPolicy.DEFAULT);
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables using the mode
+	 * passed in and following a precision policy. Only a policy with an unlimited
+	 * math context can be evaluated on a long stack, whole numbers are exact so
+	 * the division scale does not change them.
+	 * @param mode - how the expression is evaluated.
+	 * @param row - the value of each variable, in slot order.
+	 * @param policy - how precise the answer is.
+	 * @return - the answer, it is the same whatever the mode.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate(EvaluationMode mode, BigDecimal[] row, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+	{
+		checkRowLength(row.length);
+		EvaluationContext context = EvaluationContext.current();
+		if(mode == EvaluationMode.FIXED_POINT && fixedOperands != null && PrecisionPolicy.DEFAULT.equals(policy))
+		{
+			long[] values = context.values(row.length);
+			boolean fixedValues = true;
+			for (int i = 0; i < row.length && fixedValues; i++)
+			{
+				Long value = row[i] == null ? null : toFixed(row[i], fixedScale);
+				fixedValues = value != null;
+				if(fixedValues)
+					values[i] = value;
+			}
+			if(fixedValues)
+			{
+				long[] stack = context.stack(maxStackDepth);
+				if(evaluateFixed(stack, context.temporaries(temporaryCount), values))
+					return BigDecimal.valueOf(stack[0], fixedScale).stripTrailingZeros();
+			}
+		}
+		else if(mode == EvaluationMode.FAST && wholeNumbers && policy != null && !policy.isLimited())
+		{
+			long[] values = context.values(row.length);
+			boolean wholeValues = true;
+			for (int i = 0; i < row.length && wholeValues; i++)
+			{
+				wholeValues = row[i] != null && isLong(row[i]);
+				if(wholeValues)
+					values[i] = row[i].longValueExact();
+			}
+			if(wholeValues)
+			{
+				long[] stack = context.stack(maxStackDepth);
+				if(evaluateLong(stack, context.temporaries(temporaryCount), values))
+					return BigDecimal.valueOf(stack[0]).stripTrailingZeros();
+			}
+		}
+		return evaluate(row, policy);
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables using the mode passed in.
+	 * Each double is used as the decimal number it prints as.
+	 * @param mode - how the expression is evaluated.
+	 * @param row - the value of each variable, in slot order.
+	 * @return - the answer, it is the same whatever the mode.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate(EvaluationMode mode, double[] row) throws InfixQueueIllegalStateException
+	{
+		checkRowLength(row.length);
+		EvaluationContext context = EvaluationContext.current();
+		if(mode == EvaluationMode.FAST && wholeNumbers)
+		{
+			long[] values = context.values(row.length);
+			boolean wholeValues = true;
+			for (int i = 0; i < row.length && wholeValues; i++)
+			{
+				values[i] = (long) row[i];
+				// values outside of the long range are clamped and will not compare equal.
+				wholeValues = values[i] == row[i] && values[i] != Long.MAX_VALUE && values[i] != Long.MIN_VALUE;
+			}
+			if(wholeValues)
+			{
+				long[] stack = context.stack(maxStackDepth);
+				if(evaluateLong(stack, context.temporaries(temporaryCount), values))
+					return BigDecimal.valueOf(stack[0]).stripTrailingZeros();
+			}
+		}
+
+		BigDecimal[] values = new BigDecimal[row.length];
+		for (int i = 0; i < row.length; i++)
+		{
+			values[i] = BigDecimal.valueOf(row[i]);
+		}
+		if(mode == EvaluationMode.FIXED_POINT)
+			return evaluate(mode, values);
+		return evaluate(values);
+	}
+
+	/**
+	 * Gives back the amount of decimal places every value has when the
+	 * expression is evaluated with fixed point longs.
+	 * @return the fixed scale, or -1 if the expression cannot be evaluated with fixed point longs.
+	 */
+	public int getFixedScale()
+	{
+		return fixedOperands == null ? -1 : fixedScale;
+	}
+
+	/**
+	 * Evaluates the expression with fixed point longs, without allocating
+	 * anything once the context has grown to the size of the expression.
+	 * The answer is kept in the context.
+	 *
+	 * When false is given back the answer cannot be computed this way, because
+	 * an operation overflowed, a product had more decimal places than the fixed
+	 * scale or the expression divides by zero, and the expression has to be
+	 * evaluated with BigDecimal instead.
+	 *
+	 * @param row - the value of each variable without its decimal point, at the fixed scale.
+	 * @param context - the scratch space of the evaluation.
+	 * @return true if the answer is in the context.
+	 */
+	public boolean evaluateFixedPoint(long[] row, EvaluationContext context)
+	{
+		checkRowLength(row.length);
+		if(fixedOperands == null)
+			return false;
+
+		long[] stack = context.stack(maxStackDepth);
+		if(!evaluateFixed(stack, context.temporaries(temporaryCount), row))
+			return false;
+		context.setResult(stack[0], fixedScale);
+		return true;
+	}
+
+	/**
+	 * Evaluates the expression for every row of a table given as one column
+	 * per variable. The program is run one operator at a time over a whole
+	 * block of rows, so each operator is a simple loop over arrays that the
+	 * JIT compiler can vectorize.
+	 * 
+	 * The arithmetic is done with doubles, so the answers can differ from the
+	 * BigDecimal ones in the last digits. Divisions are still rounded half up
+	 * to two decimal places and a division by zero gives NaN for that row.
+	 * 
+	 * @param columns - the values of each variable, in slot order.
+	 * @param results - receives the answer of each row, it must be as long as the columns.
+	 */
+	public void evaluateBatch(double[][] columns, double[] results)
+	{
+		checkRowLength(columns.length);
+		int rows = results.length;
+		for (double[] column : columns)
+		{
+			if(column.length != rows)
+				throw new IllegalArgumentException("Every column must have " + rows + " values");
+		}
+
+		double[][] stack = new double[maxStackDepth][Math.min(rows, BATCH_BLOCK_SIZE)];
+		double[][] temporaries = new double[temporaryCount][Math.min(rows, BATCH_BLOCK_SIZE)];
+		for (int start = 0; start < rows; start += BATCH_BLOCK_SIZE)
+		{
+			int length = Math.min(BATCH_BLOCK_SIZE, rows - start);
+			evaluateBlock(columns, start, length, stack, temporaries);
+			System.arraycopy(stack[0], 0, results, start, length);
+		}
+	}
+
+	/**
+	 * Evaluates one block of rows, the answers are left in the
+	 * first array of the stack.
+	 * 
+	 * @param columns - the values of each variable, in slot order.
+	 * @param start - the first row of the block.
+	 * @param length - the amount of rows in the block.
+	 * @param stack - one array per stack entry.
+	 * @param temporaries - one array per temporary slot.
+	 */
+	private void evaluateBlock(double[][] columns, int start, int length, double[][] stack, double[][] temporaries)
+	{
+		int top = -1;
+		for (int i = 0; i < opcodes.length; i++)
+		{
+			double[] left;
+			double[] right;
+			switch (opcodes[i])
+			{
+			case PUSH:
+				Arrays.fill(stack[++top], 0, length, operands[i].doubleValue());
+				break;
+			case LOAD:
+				System.arraycopy(columns[slots[i]], start, stack[++top], 0, length);
+				break;
+			case STORE:
+				System.arraycopy(stack[top], 0, temporaries[slots[i]], 0, length);
+				break;
+			case RECALL:
+				System.arraycopy(temporaries[slots[i]], 0, stack[++top], 0, length);
+				break;
+			case ADD:
+				right = stack[top--];
+				left = stack[top];
+				for (int j = 0; j < length; j++)
+				{
+					left[j] = left[j] + right[j];
+				}
+				break;
+			case SUBTRACT:
+				right = stack[top--];
+				left = stack[top];
+				for (int j = 0; j < length; j++)
+				{
+					left[j] = left[j] - right[j];
+				}
+				break;
+			case MULTIPLY:
+				right = stack[top--];
+				left = stack[top];
+				for (int j = 0; j < length; j++)
+				{
+					left[j] = left[j] * right[j];
+				}
+				break;
+			case DIVIDE:
+				right = stack[top--];
+				left = stack[top];
+				for (int j = 0; j < length; j++)
+				{
+					double quotient = left[j] / right[j];
+					double rounded = Math.floor(Math.abs(quotient) * 100 + 0.5) / 100;
+					left[j] = right[j] == 0 ? Double.NaN : Math.copySign(rounded, quotient);
+				}
+				break;
+			case MODULO:
+				right = stack[top--];
+				left = stack[top];
+				for (int j = 0; j < length; j++)
+				{
+					left[j] = right[j] == 0 ? Double.NaN : left[j] % right[j];
+				}
+				break;
+			case POWER:
+				right = stack[top--];
+				left = stack[top];
+				for (int j = 0; j < length; j++)
+				{
+					boolean whole = right[j] == Math.rint(right[j]) && Math.abs(right[j]) <= PrecisionPolicy.MAX_EXPONENT;
+					left[j] = whole && !(left[j] == 0 && right[j] < 0) ? Math.pow(left[j], right[j]) : Double.NaN;
+				}
+				break;
+			case NEGATE:
+				left = stack[top];
+				for (int j = 0; j < length; j++)
+				{
+					left[j] = -left[j];
+				}
+				break;
+			case CALL:
+				top = callBlock(i, length, stack, top);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Calls the function of an instruction for every row of a block, one row
+	 * at a time with BigDecimal. A call that fails gives NaN for that row.
+	 *
+	 * @param index - the index of the instruction.
+	 * @param length - the amount of rows in the block.
+	 * @param stack - one array per stack entry.
+	 * @param top - the index of the top of the stack.
+	 * @return - the index of the top of the stack, where the results are.
+	 */
+	private int callBlock(int index, int length, double[][] stack, int top)
+	{
+		MathFunction function = functions[slots[index]];
+		int first = top - function.getArity() + 1;
+		BigDecimal[] arguments = new BigDecimal[function.getArity()];
+		for (int j = 0; j < length; j++)
+		{
+			double result;
+			try
+			{
+				for (int k = 0; k < arguments.length; k++)
+				{
+					arguments[k] = BigDecimal.valueOf(stack[first + k][j]);
+				}
+				result = function.apply(arguments, PrecisionPolicy.DEFAULT).doubleValue();
+			}
+			catch (InfixQueueIllegalStateException | NumberFormatException e)
+			{
+				// NumberFormatException is thrown for an argument that is NaN or infinite.
+				result = Double.NaN;
+			}
+			stack[first][j] = result;
+		}
+		return first;
+	}
+
+	/**
+	 * Evaluates the expression on a long stack, the answer is left
+	 * at the bottom of the stack.
+	 *
+	 * @param stack - the stack, at least as big as the maximum stack depth.
+	 * @param temporaries - the temporary slots, at least as many as the expression uses.
+	 * @param row - the value of each variable, in slot order.
+	 * @return false if an operation overflowed or a division was not exact,
+	 * in that case the expression has to be evaluated with BigDecimal.
+	 */
+	private boolean evaluateLong(long[] stack, long[] temporaries, long[] row)
+	{
+		int top = -1;
+		try
+		{
+			for (int i = 0; i < opcodes.length; i++)
+			{
+				switch (opcodes[i])
+				{
+				case PUSH:
+					stack[++top] = longOperands[i];
+					break;
+				case LOAD:
+					stack[++top] = row[slots[i]];
+					break;
+				case STORE:
+					temporaries[slots[i]] = stack[top];
+					break;
+				case RECALL:
+					stack[++top] = temporaries[slots[i]];
+					break;
+				case ADD:
+					top--;
+					stack[top] = Math.addExact(stack[top], stack[top + 1]);
+					break;
+				case SUBTRACT:
+					top--;
+					stack[top] = Math.subtractExact(stack[top], stack[top + 1]);
+					break;
+				case MULTIPLY:
+					top--;
+					stack[top] = Math.multiplyExact(stack[top], stack[top + 1]);
+					break;
+				case DIVIDE:
+					top--;
+					long dividend = stack[top];
+					long divisor = stack[top + 1];
+					// division by zero is reported by the BigDecimal evaluation.
+					if(divisor == 0 || dividend % divisor != 0 || (dividend == Long.MIN_VALUE && divisor == -1))
+						return false;
+					stack[top] = dividend / divisor;
+					break;
+				case MODULO:
+					top--;
+					if(stack[top + 1] == 0)
+						return false;
+					stack[top] = stack[top] % stack[top + 1];
+					break;
+				case NEGATE:
+					stack[top] = Math.negateExact(stack[top]);
+					break;
+				case POWER:
+					top--;
+					// a negative exponent gives a fraction.
+					if(stack[top + 1] < 0 || stack[top + 1] > PrecisionPolicy.MAX_EXPONENT)
+						return false;
+					stack[top] = power(stack[top], (int) stack[top + 1], 1);
+					break;
+				default:
+					return false;
+				}
+			}
+		}
+		catch (ArithmeticException e)
+		{
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluates the expression on a stack of fixed point longs, every value
+	 * is kept unscaled at the fixed scale. The answer is left at the bottom
+	 * of the stack.
+	 *
+	 * A product is only kept if it is exact at the fixed scale and a quotient
+	 * is rounded half up to two decimal places, the same as with BigDecimal.
+	 *
+	 * @param stack - the stack, at least as big as the maximum stack depth.
+	 * @param temporaries - the temporary slots, at least as many as the expression uses.
+	 * @param row - the unscaled value of each variable, in slot order.
+	 * @return false if an operation overflowed, a product had too many decimal
+	 * places or the divisor was zero, in that case the expression has to be
+	 * evaluated with BigDecimal.
+	 */
+	private boolean evaluateFixed(long[] stack, long[] temporaries, long[] row)
+	{
+		int top = -1;
+		long unit = POWERS_OF_TEN[fixedScale];
+		long quotientUnit = POWERS_OF_TEN[fixedScale - QUOTIENT_SCALE];
+		try
+		{
+			for (int i = 0; i < opcodes.length; i++)
+			{
+				switch (opcodes[i])
+				{
+				case PUSH:
+					stack[++top] = fixedOperands[i];
+					break;
+				case LOAD:
+					stack[++top] = row[slots[i]];
+					break;
+				case STORE:
+					temporaries[slots[i]] = stack[top];
+					break;
+				case RECALL:
+					stack[++top] = temporaries[slots[i]];
+					break;
+				case ADD:
+					top--;
+					stack[top] = Math.addExact(stack[top], stack[top + 1]);
+					break;
+				case SUBTRACT:
+					top--;
+					stack[top] = Math.subtractExact(stack[top], stack[top + 1]);
+					break;
+				case MULTIPLY:
+					top--;
+					long product = Math.multiplyExact(stack[top], stack[top + 1]);
+					if(product % unit != 0)
+						return false;
+					stack[top] = product / unit;
+					break;
+				case DIVIDE:
+					top--;
+					// both operands have the same scale, so the quotient of the unscaled values is the quotient.
+					long dividend = stack[top];
+					long divisor = stack[top + 1];
+					// division by zero is reported by the BigDecimal evaluation.
+					if(divisor == 0 || dividend == Long.MIN_VALUE || divisor == Long.MIN_VALUE)
+						return false;
+					long numerator = Math.multiplyExact(Math.abs(dividend), POWERS_OF_TEN[QUOTIENT_SCALE]);
+					long denominator = Math.abs(divisor);
+					long quotient = numerator / denominator;
+					long remainder = numerator % denominator;
+					if(remainder >= denominator - remainder)
+						quotient++;
+					if((dividend < 0) != (divisor < 0))
+						quotient = -quotient;
+					stack[top] = Math.multiplyExact(quotient, quotientUnit);
+					break;
+				case MODULO:
+					top--;
+					// both operands have the same scale, and so does their remainder.
+					if(stack[top + 1] == 0)
+						return false;
+					stack[top] = stack[top] % stack[top + 1];
+					break;
+				case NEGATE:
+					stack[top] = Math.negateExact(stack[top]);
+					break;
+				case POWER:
+					top--;
+					long exponent = stack[top + 1];
+					if(exponent < 0 || exponent % unit != 0 || exponent / unit > PrecisionPolicy.MAX_EXPONENT)
+						return false;
+					stack[top] = power(stack[top], (int) (exponent / unit), unit);
+					break;
+				default:
+					return false;
+				}
+			}
+		}
+		catch (ArithmeticException e)
+		{
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Raises a fixed point long to a whole exponent, each product is kept
+	 * at the scale of the unit passed in.
+	 *
+	 * @param base - the unscaled number.
+	 * @param exponent - the exponent, not negative.
+	 * @param unit - one at the scale, 1 for whole numbers.
+	 * @return the unscaled power.
+	 * @throws ArithmeticException - if a product overflows or has too many decimal places.
+	 */
+	private static long power(long base, int exponent, long unit)
+	{
+		long result = unit;
+		for (int i = 0; i < exponent && result != 0; i++)
+		{
+			long product = Math.multiplyExact(result, base);
+			if(product % unit != 0)
+				throw new ArithmeticException("The power has more decimal places than the scale");
+			result = product / unit;
+			// powers of zero, one and minus one do not need every multiplication.
+			if(base == unit || base == 0)
+				break;
+			if(base == -unit && (exponent - i - 1) % 2 == 0)
+				break;
+		}
+		return result;
+	}
+
+	/**
+	 * Gives back the expression in reverse polish notation
+	 * with each item separated by a space. A STORE is written
+	 * as $slot= and a RECALL as $slot, a CALL by the name of
+	 * its function.
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < opcodes.length; i++)
+		{
+			if(i > 0)
+				builder.append(' ');
+			if(opcodes[i] == PUSH)
+				builder.append(operands[i].toPlainString());
+			else if(opcodes[i] == LOAD)
+				builder.append(variables[slots[i]]);
+			else if(opcodes[i] == STORE)
+				builder.append('$').append(slots[i]).append('=');
+			else if(opcodes[i] == RECALL)
+				builder.append('$').append(slots[i]);
+			else if(opcodes[i] == CALL)
+				builder.append(functionNames[slots[i]]);
+			else
+				builder.append(Operator.fromOpcode(opcodes[i]).getSymbol());
+		}
+		return builder.toString();
+	}
+}
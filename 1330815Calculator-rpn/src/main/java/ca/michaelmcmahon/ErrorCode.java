@@ -0,0 +1,52 @@
+package ca.michaelmcmahon;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * What is wrong with an expression. Every InfixQueueIllegalStateException carries
+ * one of these codes so a caller can react to a kind of error without reading the
+ * message.
+ */
+public enum ErrorCode
+{
+	INVALID_EXPRESSION("the expression is not valid."),
+	EMPTY_EXPRESSION("the expression must contain at least one number."),
+	INVALID_CHARACTER("the character cannot be part of an expression."),
+	INVALID_NUMBER("A number must consist of charecters consisting of [0,9] and must contain at most one"
+			+ " decimal place that cannot be in the front or at the back of a number."),
+	UNDECLARED_VARIABLE("the variable is not declared."),
+	LEADING_OPERATOR("the first item in the queue cannot be an operator"),
+	TRAILING_OPERATOR("the last item in the queue cannot be an operator"),
+	CONSECUTIVE_OPERATORS("there can not be two operators one after the other."),
+	CONSECUTIVE_OPERANDS("there must be an operator between two numbers."),
+	OPERAND_BEFORE_PARENTHESIS("there cannot be a number before an opening parenthesis."),
+	OPERATOR_AFTER_PARENTHESIS("there cannot be an operator after a opening parenthesis."),
+	OPERATOR_BEFORE_PARENTHESIS("there cannot be a operator before a closing parenthesis."),
+	OPERAND_AFTER_PARENTHESIS("there cannot be a number after a closing parenthesis."),
+	EMPTY_PARENTHESES("there must be an expression between two parentheses."),
+	UNMATCHED_CLOSING_PARENTHESIS("there cannot be a closing parenthesis without an opening parenthesis."),
+	UNCLOSED_PARENTHESIS("there cannot be an opening parenthesis without a closing parenthesis."),
+	MISSING_FUNCTION_PARENTHESIS("a function must be followed by an opening parenthesis."),
+	MISPLACED_COMMA("a comma can only separate the arguments of a function."),
+	WRONG_ARGUMENT_COUNT("the function is not given the amount of arguments it takes."),
+	INVALID_OPERAND("the operand is outside of what the operation accepts."),
+	DIVISION_BY_ZERO("you cannot divide by zero");
+
+	private final String message;
+
+	private ErrorCode(String message)
+	{
+		this.message = message;
+	}
+
+	/**
+	 * Gives back the message of an exception with this code.
+	 * @return the message.
+	 */
+	public String getMessage()
+	{
+		return message;
+	}
+}
@@ -0,0 +1,190 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * The scratch space of an evaluation: the stacks and temporary slots a compiled
+ * expression works on. A context keeps its arrays between evaluations and only grows
+ * them when an expression needs more room, so once every expression has been seen
+ * evaluating on primitive values does not allocate anything.
+ *
+ * A context must only be used by one thread at a time. Each thread has its own context
+ * given back by current(), which is the one compiled expressions use when no context
+ * is passed in. Arrays longer than a thousand entries are not kept, so that one very
+ * large expression does not stay in memory for the life of the thread.
+ *
+ * A function called by an expression can evaluate another expression on the same
+ * thread. The BigDecimal arrays are only given to the outermost of these evaluations,
+ * the ones started inside it get new arrays so the stack of the caller is not changed.
+ */
+public final class EvaluationContext
+{
+	private static final int MAX_KEPT_LENGTH = 1024;
+	private static final long[] NO_LONGS = new long[0];
+	private static final BigDecimal[] NO_VALUES = new BigDecimal[0];
+
+	private static final ThreadLocal<EvaluationContext> CURRENT = new ThreadLocal<EvaluationContext>()
+	{
+		@Override
+		protected EvaluationContext initialValue()
+		{
+			return new EvaluationContext();
+		}
+	};
+
+	private long[] values = NO_LONGS;
+	private long[] stack = NO_LONGS;
+	private long[] temporaries = NO_LONGS;
+	private BigDecimal[] decimalStack = NO_VALUES;
+	private BigDecimal[] decimalTemporaries = NO_VALUES;
+	private int decimalDepth;
+	private long unscaledResult;
+	private int resultScale;
+
+	/**
+	 * Gives back the context of the current thread.
+	 * @return the context.
+	 */
+	public static EvaluationContext current()
+	{
+		return CURRENT.get();
+	}
+
+	/**
+	 * Gives back an array for the primitive values of a row.
+	 * @param length - the least length of the array.
+	 * @return the array, its content is not cleared.
+	 */
+	long[] values(int length)
+	{
+		if(values.length >= length)
+			return values;
+		long[] array = new long[length];
+		if(length <= MAX_KEPT_LENGTH)
+			values = array;
+		return array;
+	}
+
+	/**
+	 * Gives back an array for a primitive stack.
+	 * @param length - the least length of the array.
+	 * @return the array, its content is not cleared.
+	 */
+	long[] stack(int length)
+	{
+		if(stack.length >= length)
+			return stack;
+		long[] array = new long[length];
+		if(length <= MAX_KEPT_LENGTH)
+			stack = array;
+		return array;
+	}
+
+	/**
+	 * Gives back an array for primitive temporary slots.
+	 * @param length - the least length of the array.
+	 * @return the array, its content is not cleared.
+	 */
+	long[] temporaries(int length)
+	{
+		if(temporaries.length >= length)
+			return temporaries;
+		long[] array = new long[length];
+		if(length <= MAX_KEPT_LENGTH)
+			temporaries = array;
+		return array;
+	}
+
+	/**
+	 * Starts an evaluation on BigDecimal values, it must be ended by
+	 * exitDecimal() once its stack and temporary slots are not used anymore.
+	 */
+	void enterDecimal()
+	{
+		decimalDepth++;
+	}
+
+	/**
+	 * Ends an evaluation on BigDecimal values.
+	 */
+	void exitDecimal()
+	{
+		decimalDepth--;
+	}
+
+	/**
+	 * Gives back an array for a BigDecimal stack, a new one if an
+	 * evaluation that started before this one is still running.
+	 * @param length - the least length of the array.
+	 * @return the array, its content is not cleared.
+	 */
+	BigDecimal[] decimalStack(int length)
+	{
+		if(decimalDepth > 1)
+			return new BigDecimal[length];
+		if(decimalStack.length >= length)
+			return decimalStack;
+		BigDecimal[] array = new BigDecimal[length];
+		if(length <= MAX_KEPT_LENGTH)
+			decimalStack = array;
+		return array;
+	}
+
+	/**
+	 * Gives back an array for BigDecimal temporary slots, a new one if an
+	 * evaluation that started before this one is still running.
+	 * @param length - the least length of the array.
+	 * @return the array, its content is not cleared.
+	 */
+	BigDecimal[] decimalTemporaries(int length)
+	{
+		if(decimalDepth > 1)
+			return new BigDecimal[length];
+		if(decimalTemporaries.length >= length)
+			return decimalTemporaries;
+		BigDecimal[] array = new BigDecimal[length];
+		if(length <= MAX_KEPT_LENGTH)
+			decimalTemporaries = array;
+		return array;
+	}
+
+	void setResult(long unscaledResult, int resultScale)
+	{
+		this.unscaledResult = unscaledResult;
+		this.resultScale = resultScale;
+	}
+
+	/**
+	 * Gives back the answer of the last fixed point evaluation without
+	 * its decimal point.
+	 * @return the unscaled answer.
+	 */
+	public long getUnscaledResult()
+	{
+		return unscaledResult;
+	}
+
+	/**
+	 * Gives back the amount of decimal places of the answer of the
+	 * last fixed point evaluation.
+	 * @return the scale of the answer.
+	 */
+	public int getResultScale()
+	{
+		return resultScale;
+	}
+
+	/**
+	 * Gives back the answer of the last fixed point evaluation as
+	 * a BigDecimal, the same one the precise evaluation gives.
+	 * @return the answer.
+	 */
+	public BigDecimal getResult()
+	{
+		return BigDecimal.valueOf(unscaledResult, resultScale).stripTrailingZeros();
+	}
+}
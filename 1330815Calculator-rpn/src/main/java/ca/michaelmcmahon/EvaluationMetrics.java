@@ -0,0 +1,94 @@
+package ca.michaelmcmahon;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Receives what an ExpressionEvaluator or an ExpressionParser measures while it works:
+ * how long each phase takes, the expressions it compiles and the errors it finds.
+ *
+ * Nothing is measured when the metrics are not enabled, not even the time, so NONE,
+ * the default, costs nothing. An implementation can be called from many threads at once.
+ */
+public interface EvaluationMetrics
+{
+	/**
+	 * The phases an expression goes through.
+	 */
+	enum Phase
+	{
+		/**
+		 * Compiling an expression written as text. The text is converted to reverse
+		 * polish notation while it is read, so reading and converting are one phase.
+		 */
+		COMPILE_TEXT,
+
+		/**
+		 * Compiling an expression already split into a queue.
+		 */
+		COMPILE_QUEUE,
+
+		/**
+		 * Evaluating a compiled expression.
+		 */
+		EVALUATE
+	}
+
+	/**
+	 * Metrics that are never enabled and drop everything.
+	 */
+	EvaluationMetrics NONE = new EvaluationMetrics()
+	{
+		@Override
+		public boolean isEnabled()
+		{
+			return false;
+		}
+
+		@Override
+		public void recordPhase(Phase phase, long nanos)
+		{
+		}
+
+		@Override
+		public void recordExpression(CompiledExpression expression)
+		{
+		}
+
+		@Override
+		public void recordError(ErrorCode errorCode)
+		{
+		}
+	};
+
+	/**
+	 * Determines if anything should be measured, when false
+	 * none of the other methods are called.
+	 * @return true if the metrics are enabled.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Records the time taken by a phase of one expression.
+	 *
+	 * @param phase - the phase.
+	 * @param nanos - the time taken in nanoseconds.
+	 */
+	void recordPhase(Phase phase, long nanos);
+
+	/**
+	 * Records an expression that was compiled, its length, its stack
+	 * depth and its operations can be read from it.
+	 *
+	 * @param expression - the compiled expression.
+	 */
+	void recordExpression(CompiledExpression expression);
+
+	/**
+	 * Records an expression that could not be compiled or evaluated.
+	 *
+	 * @param errorCode - what is wrong with the expression.
+	 */
+	void recordError(ErrorCode errorCode);
+}
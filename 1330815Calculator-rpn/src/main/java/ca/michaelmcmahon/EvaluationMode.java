@@ -0,0 +1,34 @@
+package ca.michaelmcmahon;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * The ways a compiled expression can be evaluated.
+ */
+public enum EvaluationMode
+{
+	/**
+	 * Every operation is done with BigDecimal.
+	 */
+	PRECISE,
+
+	/**
+	 * Expressions made only of whole numbers are evaluated on a primitive
+	 * long stack. If an operation overflows or a division is not exact the
+	 * expression is evaluated again with BigDecimal, so the answer is always
+	 * the same as the PRECISE one.
+	 */
+	FAST,
+
+	/**
+	 * Every value is kept as a long holding the value without its decimal
+	 * point, all values of an expression have the same amount of decimal
+	 * places. Suited to amounts of money. If an operation overflows or a
+	 * product has more decimal places than the others, the expression is
+	 * evaluated again with BigDecimal, so the answer is always the same as
+	 * the PRECISE one. Only the default precision policy uses fixed point.
+	 */
+	FIXED_POINT
+}
@@ -0,0 +1,353 @@
+package ca.michaelmcmahon;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Evaluates expressions sent as lines of text for as long as the connection stays open,
+ * so the cost of starting the virtual machine is paid once. Every request is a line made
+ * of an id, a space and the expression, the response is the same id, a space and the
+ * answer, or ERROR followed by the error code, the position and the message.
+ *
+ * A client does not have to wait for a response before sending the next request. The
+ * requests that have already arrived are evaluated together on worker threads, and the
+ * responses are written as soon as they are ready, so they can come back in a different
+ * order than the requests. Compiled expressions are kept in a cache shared by every
+ * connection and are evaluated with the mode and the precision policy of the evaluator
+ * of the cache. Virtual threads are used as workers when the runtime has them.
+ *
+ * A request cannot ask for a result of more than MAX_DIGITS digits or be longer than
+ * MAX_REQUEST_LENGTH characters, and at most MAX_CONNECTIONS clients are served at once,
+ * the others wait to be accepted. A request that fails for any reason is answered with
+ * an ERROR line, whose message never holds a line feed.
+ */
+public final class EvaluationServer implements Closeable
+{
+	/**
+	 * The most requests evaluated together by one worker.
+	 */
+	public static final int MAX_BATCH_SIZE = 256;
+
+	/**
+	 * The most digits the result of an operation can have, unless the
+	 * precision policy of the cache allows fewer.
+	 */
+	public static final int MAX_DIGITS = 1000;
+
+	/**
+	 * The most characters a request can have, without its line feed.
+	 */
+	public static final int MAX_REQUEST_LENGTH = 1 << 20;
+
+	/**
+	 * The most clients served at once over a socket.
+	 */
+	public static final int MAX_CONNECTIONS = 64;
+
+	// batches of a connection that can wait for a worker before reading stops.
+	private static final int MAX_PENDING_BATCHES = 64;
+
+	private static final BigDecimal[] NO_VALUES = new BigDecimal[0];
+
+	private final ExpressionCache cache;
+	private final PrecisionPolicy policy;
+	private final ExecutorService workers;
+	private final Semaphore connections = new Semaphore(MAX_CONNECTIONS);
+
+	/***
+	 * Construct an evaluation server with its own cache of compiled expressions.
+	 */
+	public EvaluationServer()
+	{
+		this(new ExpressionCache(10000));
+	}
+
+	/***
+	 * Construct an evaluation server.
+	 *
+	 * @param cache - keeps the compiled expressions between requests.
+	 */
+	public EvaluationServer(ExpressionCache cache)
+	{
+		if(cache == null)
+			throw new IllegalArgumentException("The cache cannot be null");
+		this.cache = cache;
+		PrecisionPolicy cachePolicy = cache.getEvaluator().getPrecisionPolicy();
+		this.policy = cachePolicy.getMaxDigits() > 0 && cachePolicy.getMaxDigits() <= MAX_DIGITS ? cachePolicy
+				: cachePolicy.withMaxDigits(MAX_DIGITS);
+		this.workers = newWorkers();
+	}
+
+	/**
+	 * Answers the requests read from a stream until it ends. Every response
+	 * has been written when this returns, the streams are not closed.
+	 *
+	 * @param in - the requests.
+	 * @param out - the responses.
+	 * @throws IOException - if the streams cannot be read or written.
+	 */
+	public void serve(InputStream in, OutputStream out) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		Semaphore pending = new Semaphore(MAX_PENDING_BATCHES);
+		try
+		{
+			List<String> batch = new ArrayList<String>();
+			StringBuilder line = new StringBuilder();
+			while(readLine(reader, line))
+			{
+				if(line.length() > 0)
+					batch.add(line.toString());
+				// a batch is handed over once the requests that have arrived are read.
+				if(batch.size() >= MAX_BATCH_SIZE || (!batch.isEmpty() && !reader.ready()))
+				{
+					pending.acquire();
+					workers.execute(new BatchTask(batch, writer, pending));
+					batch = new ArrayList<String>();
+				}
+			}
+			if(!batch.isEmpty())
+			{
+				pending.acquire();
+				workers.execute(new BatchTask(batch, writer, pending));
+			}
+			pending.acquire(MAX_PENDING_BATCHES);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("The server was interrupted");
+		}
+		synchronized(writer)
+		{
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Accepts connections until the socket is closed, each connection is served
+	 * on its own thread. Once MAX_CONNECTIONS clients are connected the next one
+	 * is only accepted when one of them leaves.
+	 *
+	 * @param socket - the socket the clients connect to.
+	 * @throws IOException - if the socket fails while it is open.
+	 */
+	public void serve(final ServerSocket socket) throws IOException
+	{
+		while(!socket.isClosed())
+		{
+			final Socket connection;
+			try
+			{
+				connections.acquire();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("The server was interrupted");
+			}
+			try
+			{
+				connection = socket.accept();
+			}
+			catch(IOException e)
+			{
+				connections.release();
+				if(socket.isClosed())
+					return;
+				throw e;
+			}
+
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						connection.setTcpNoDelay(true);
+						serve(connection.getInputStream(), connection.getOutputStream());
+					}
+					catch(IOException e)
+					{
+						// the client went away, there is no one left to answer.
+					}
+					finally
+					{
+						try
+						{
+							connection.close();
+						}
+						catch(IOException e)
+						{
+							// already closed.
+						}
+						connections.release();
+					}
+				}
+			}, "evaluation-connection-" + connection.getPort());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	@Override
+	public void close()
+	{
+		workers.shutdown();
+	}
+
+	/**
+	 * Reads a line without its line feed or carriage return. Only the first
+	 * MAX_REQUEST_LENGTH + 1 characters of a longer line are kept, the rest is
+	 * read and dropped so that a client cannot fill the memory with one line.
+	 *
+	 * @param reader - the requests.
+	 * @param line - where the line is put.
+	 * @return false if the stream ended before a line was read.
+	 * @throws IOException - if the stream cannot be read.
+	 */
+	private static boolean readLine(BufferedReader reader, StringBuilder line) throws IOException
+	{
+		line.setLength(0);
+		int read = reader.read();
+		if(read < 0)
+			return false;
+		while(read >= 0 && read != '\n')
+		{
+			if(line.length() <= MAX_REQUEST_LENGTH)
+				line.append((char) read);
+			read = reader.read();
+		}
+		if(line.length() > 0 && line.charAt(line.length() - 1) == '\r')
+			line.setLength(line.length() - 1);
+		return true;
+	}
+
+	/**
+	 * Gives back the response to a request.
+	 *
+	 * @param request - the id, a space and the expression.
+	 * @return the response, without a line feed.
+	 */
+	private String respond(String request)
+	{
+		int space = request.indexOf(' ');
+		String id = space < 0 ? request : request.substring(0, space);
+		String expression = space < 0 ? "" : request.substring(space + 1);
+		if(request.length() > MAX_REQUEST_LENGTH)
+			return id + " ERROR " + ErrorCode.INVALID_EXPRESSION + " -1 the request is longer than " + MAX_REQUEST_LENGTH
+					+ " characters.";
+		try
+		{
+			BigDecimal answer = cache.get(expression).evaluate(cache.getEvaluator().getEvaluationMode(), NO_VALUES, policy);
+			return id + ' ' + answer.toPlainString();
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			// a function given by the caller can put a line feed in its message.
+			return id + " ERROR " + e.getErrorCode() + ' ' + e.getPosition() + ' ' + String.valueOf(e.getMessage()).replace('\r', ' ')
+					.replace('\n', ' ');
+		}
+		catch(RuntimeException e)
+		{
+			// a function given by the caller failed, the other requests of the batch are still answered
+			// and what failed inside the server is not told to the client.
+			return id + " ERROR " + ErrorCode.INVALID_EXPRESSION + " -1 the expression could not be evaluated.";
+		}
+	}
+
+	/**
+	 * Gives back an executor with a virtual thread per task when the runtime
+	 * has virtual threads, or a thread per processor otherwise.
+	 */
+	private static ExecutorService newWorkers()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable task)
+				{
+					Thread thread = new Thread(task, "evaluation-worker");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Evaluates a batch of requests and writes their responses together.
+	 */
+	private final class BatchTask implements Runnable
+	{
+		private final List<String> requests;
+		private final Writer writer;
+		private final Semaphore pending;
+
+		BatchTask(List<String> requests, Writer writer, Semaphore pending)
+		{
+			this.requests = requests;
+			this.writer = writer;
+			this.pending = pending;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				StringBuilder responses = new StringBuilder();
+				for (String request : requests)
+				{
+					responses.append(respond(request)).append('\n');
+				}
+				synchronized(writer)
+				{
+					writer.write(responses.toString());
+					writer.flush();
+				}
+			}
+			catch(IOException e)
+			{
+				// the client went away, the reading side finds out on its own.
+			}
+			finally
+			{
+				pending.release();
+			}
+		}
+	}
+}
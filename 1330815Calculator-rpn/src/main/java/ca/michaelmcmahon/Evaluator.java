@@ -0,0 +1,22 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Something that can give the answer of a compiled mathematical expression
+ * for the values of its variables.
+ */
+public interface Evaluator
+{
+	/**
+	 * Evaluates the expression with the values of its variables.
+	 * @param row - the value of each variable, in slot order.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	BigDecimal evaluate(BigDecimal[] row) throws InfixQueueIllegalStateException;
+}
@@ -0,0 +1,338 @@
+package ca.michaelmcmahon;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * A thread-safe cache of compiled expressions keyed by the text of the expression.
+ * An expression that is already in the cache is not read, validated or converted
+ * again. The cache never holds more than its maximum size, when it is full an entry
+ * is evicted following the eviction policy. Expressions are compiled by the evaluator
+ * of the cache, so they can call the functions of its registry, and should be evaluated
+ * with its precision policy.
+ *
+ * The entries are spread over independently locked segments so that threads looking
+ * up different expressions rarely wait for each other, each segment keeps its own
+ * recency order.
+ */
+public final class ExpressionCache
+{
+	/**
+	 * How the cache chooses which expression to keep when it is full.
+	 */
+	public enum EvictionPolicy
+	{
+		/**
+		 * The least recently used expression is evicted.
+		 */
+		LRU,
+
+		/**
+		 * The least recently used expression is evicted only if the new expression
+		 * has been requested more often recently, otherwise the new expression is
+		 * not cached. This keeps a few popular expressions from being pushed out by
+		 * many expressions that are only seen once.
+		 */
+		TINY_LFU
+	}
+
+	private static final int MAX_SEGMENTS = 16;
+
+	private final ExpressionEvaluator evaluator;
+	private final Segment[] segments;
+	private final EvictionPolicy evictionPolicy;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/***
+	 * Construct a new Expression cache that evicts the least
+	 * recently used expression.
+	 *
+	 * @param maximumSize - the most expressions the cache can hold.
+	 */
+	public ExpressionCache(int maximumSize)
+	{
+		this(maximumSize, EvictionPolicy.LRU);
+	}
+
+	/***
+	 * Construct a new Expression cache.
+	 *
+	 * @param maximumSize - the most expressions the cache can hold.
+	 * @param evictionPolicy - how expressions are chosen for eviction.
+	 */
+	public ExpressionCache(int maximumSize, EvictionPolicy evictionPolicy)
+	{
+		this(maximumSize, evictionPolicy, new ExpressionEvaluator());
+	}
+
+	/***
+	 * Construct a new Expression cache that compiles with an evaluator of the caller.
+	 *
+	 * @param maximumSize - the most expressions the cache can hold.
+	 * @param evictionPolicy - how expressions are chosen for eviction.
+	 * @param evaluator - compiles the expressions, with its functions and its metrics.
+	 */
+	public ExpressionCache(int maximumSize, EvictionPolicy evictionPolicy, ExpressionEvaluator evaluator)
+	{
+		if(maximumSize < 1)
+			throw new IllegalArgumentException("The maximum size must be at least 1");
+		if(evictionPolicy == null)
+			throw new IllegalArgumentException("The eviction policy cannot be null");
+		if(evaluator == null)
+			throw new IllegalArgumentException("The evaluator cannot be null");
+
+		this.evaluator = evaluator;
+		this.evictionPolicy = evictionPolicy;
+		int segmentCount = Math.min(MAX_SEGMENTS, maximumSize);
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			int capacity = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+			segments[i] = new Segment(capacity, evictionPolicy == EvictionPolicy.TINY_LFU);
+		}
+	}
+
+	/**
+	 * Gives back the compiled form of an expression, compiling it only if it
+	 * is not already in the cache.
+	 *
+	 * @param expression - the mathematical expression.
+	 * @param variableNames - the names of the variables, in slot order.
+	 * @return the compiled expression.
+	 * @throws InfixQueueIllegalStateException - if the expression is not in a valid form.
+	 */
+	public CompiledExpression get(String expression, String... variableNames) throws InfixQueueIllegalStateException
+	{
+		if(expression == null)
+			throw new IllegalArgumentException("The expression cannot be null");
+
+		String key = variableNames.length == 0 ? expression : expression + '\u0000' + Arrays.toString(variableNames);
+		Segment segment = segments[(spread(key.hashCode()) & Integer.MAX_VALUE) % segments.length];
+
+		CompiledExpression compiled = segment.get(key);
+		if(compiled != null)
+		{
+			hitCount.increment();
+			return compiled;
+		}
+
+		missCount.increment();
+		// compiled outside of the lock, two threads may compile the same expression once each.
+		compiled = evaluator.compile(expression, variableNames);
+		return segment.put(key, compiled);
+	}
+
+	private static int spread(int hash)
+	{
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Gives back the evaluator that compiles the expressions of the cache.
+	 * @return the evaluator.
+	 */
+	public ExpressionEvaluator getEvaluator()
+	{
+		return evaluator;
+	}
+
+	/**
+	 * Gives back the eviction policy of the cache.
+	 * @return the eviction policy.
+	 */
+	public EvictionPolicy getEvictionPolicy()
+	{
+		return evictionPolicy;
+	}
+
+	/**
+	 * Gives back how many lookups found their expression in the cache.
+	 * @return the hit count.
+	 */
+	public long getHitCount()
+	{
+		return hitCount.sum();
+	}
+
+	/**
+	 * Gives back how many lookups had to compile their expression.
+	 * @return the miss count.
+	 */
+	public long getMissCount()
+	{
+		return missCount.sum();
+	}
+
+	/**
+	 * Gives back how many expressions were removed to make room for others.
+	 * @return the eviction count.
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.sum();
+	}
+
+	/**
+	 * Gives back the amount of expressions in the cache.
+	 * @return the size.
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Segment segment : segments)
+		{
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Removes every expression from the cache, the counters are kept.
+	 */
+	public void clear()
+	{
+		for (Segment segment : segments)
+		{
+			segment.clear();
+		}
+	}
+
+	/**
+	 * A part of the cache with its own lock and recency order.
+	 */
+	private final class Segment
+	{
+		private final LinkedHashMap<String, CompiledExpression> entries;
+		private final FrequencySketch sketch;
+		private final int capacity;
+
+		Segment(int capacity, boolean admission)
+		{
+			this.capacity = capacity;
+			this.entries = new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true);
+			this.sketch = admission ? new FrequencySketch(capacity) : null;
+		}
+
+		synchronized CompiledExpression get(String key)
+		{
+			if(sketch != null)
+				sketch.increment(key);
+			return entries.get(key);
+		}
+
+		/**
+		 * Adds an expression, evicting the least recently used one if the
+		 * segment is full.
+		 * @return the expression that is cached for the key, or the one passed
+		 * in if it was not admitted.
+		 */
+		synchronized CompiledExpression put(String key, CompiledExpression compiled)
+		{
+			CompiledExpression existing = entries.get(key);
+			if(existing != null)
+				return existing;
+
+			if(entries.size() >= capacity)
+			{
+				Iterator<Map.Entry<String, CompiledExpression>> eldest = entries.entrySet().iterator();
+				String victim = eldest.next().getKey();
+				if(sketch != null && sketch.frequency(key) <= sketch.frequency(victim))
+					return compiled;
+				eldest.remove();
+				evictionCount.increment();
+			}
+			entries.put(key, compiled);
+			return compiled;
+		}
+
+		synchronized int size()
+		{
+			return entries.size();
+		}
+
+		synchronized void clear()
+		{
+			entries.clear();
+		}
+	}
+
+	/**
+	 * A count-min sketch that estimates how often each key was requested
+	 * recently. The counts are halved periodically so that old popularity
+	 * fades away.
+	 */
+	private static final class FrequencySketch
+	{
+		private static final int DEPTH = 4;
+		private static final int MAX_COUNT = 15;
+		private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+		private final int[] counts;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int capacity)
+		{
+			int width = Integer.highestOneBit(Math.max(8, capacity * 2) - 1) << 1;
+			counts = new int[width * DEPTH];
+			mask = width - 1;
+			sampleSize = Math.max(10 * capacity, 100);
+		}
+
+		private int index(int row, int hash)
+		{
+			int h = (hash ^ SEEDS[row]) * SEEDS[row];
+			h ^= h >>> 15;
+			return row * (mask + 1) + (h & mask);
+		}
+
+		void increment(String key)
+		{
+			int hash = spread(key.hashCode());
+			boolean added = false;
+			for (int row = 0; row < DEPTH; row++)
+			{
+				int i = index(row, hash);
+				if(counts[i] < MAX_COUNT)
+				{
+					counts[i]++;
+					added = true;
+				}
+			}
+			if(added && ++additions >= sampleSize)
+				reset();
+		}
+
+		int frequency(String key)
+		{
+			int hash = spread(key.hashCode());
+			int frequency = MAX_COUNT;
+			for (int row = 0; row < DEPTH; row++)
+			{
+				frequency = Math.min(frequency, counts[index(row, hash)]);
+			}
+			return frequency;
+		}
+
+		private void reset()
+		{
+			for (int i = 0; i < counts.length; i++)
+			{
+				counts[i] >>>= 1;
+			}
+			additions /= 2;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+package ca.michaelmcmahon;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Writes compiled expressions in a compact binary form and reads them back without
+ * converting or validating them again, so a set of formulas compiled once can be loaded
+ * by many virtual machines as a straight read. A file is read through a memory mapping.
+ *
+ * The form starts with the magic number RPNX, the version and the amount of expressions.
+ * Each expression then holds the amount of temporary slots, the names of its variables,
+ * the name and arity of each function it calls, its constants and its instructions. An
+ * instruction is its opcode followed by the index of its constant or by its slot. Every
+ * count, index and slot is written as a variable length integer, so most take a byte.
+ *
+ * Functions are written by name and are looked up in a function registry when they are
+ * read, the registry must have a function with the same name and arity.
+ */
+public final class ExpressionCodec
+{
+	/**
+	 * The first four bytes of the binary form, RPNX.
+	 */
+	public static final int MAGIC = 0x52504E58;
+
+	/**
+	 * The version written, and the newest version that can be read.
+	 */
+	public static final byte VERSION = 1;
+
+	private ExpressionCodec()
+	{
+	}
+
+	/**
+	 * Writes expressions in binary form.
+	 *
+	 * @param expressions - the compiled expressions.
+	 * @return the binary form.
+	 */
+	public static byte[] encode(List<CompiledExpression> expressions)
+	{
+		if(expressions == null)
+			throw new IllegalArgumentException("The expressions cannot be null");
+
+		Output out = new Output();
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeVarint(expressions.size());
+		for (CompiledExpression expression : expressions)
+		{
+			encodeExpression(expression, out);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads expressions from their binary form, starting at the position of the
+	 * buffer. The position is moved to the end of the binary form.
+	 *
+	 * @param buffer - holds the binary form.
+	 * @param registry - the functions the expressions can call.
+	 * @return the compiled expressions, in the order they were written.
+	 */
+	public static List<CompiledExpression> decode(ByteBuffer buffer, FunctionRegistry registry)
+	{
+		if(buffer == null)
+			throw new IllegalArgumentException("The buffer cannot be null");
+		if(registry == null)
+			throw new IllegalArgumentException("The function registry cannot be null");
+		if(buffer.remaining() < 5 || buffer.getInt() != MAGIC)
+			throw new IllegalArgumentException("The buffer does not hold compiled expressions");
+		byte version = buffer.get();
+		if(version < 1 || version > VERSION)
+			throw new IllegalArgumentException("Version " + version + " of the binary form is not supported");
+
+		int count = readVarint(buffer);
+		List<CompiledExpression> expressions = new ArrayList<CompiledExpression>(count);
+		for (int i = 0; i < count; i++)
+		{
+			expressions.add(decodeExpression(buffer, registry));
+		}
+		return expressions;
+	}
+
+	/**
+	 * Writes expressions to a file in binary form, the file
+	 * is replaced if it exists.
+	 *
+	 * @param file - the file.
+	 * @param expressions - the compiled expressions.
+	 * @throws IOException - if the file cannot be written.
+	 */
+	public static void write(Path file, List<CompiledExpression> expressions) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(encode(expressions));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while(buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Reads expressions from a file written in binary form, the file is memory mapped.
+	 *
+	 * @param file - the file.
+	 * @param registry - the functions the expressions can call.
+	 * @return the compiled expressions, in the order they were written.
+	 * @throws IOException - if the file cannot be read.
+	 */
+	public static List<CompiledExpression> read(Path file, FunctionRegistry registry) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("The file is too big to be compiled expressions");
+			return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), registry);
+		}
+	}
+
+	private static void encodeExpression(CompiledExpression expression, Output out)
+	{
+		out.writeVarint(expression.getTemporaryCount());
+
+		String[] variables = expression.getVariables();
+		out.writeVarint(variables.length);
+		for (String variable : variables)
+		{
+			out.writeString(variable);
+		}
+
+		String[] functionNames = expression.getFunctionNames();
+		MathFunction[] functions = expression.getFunctions();
+		out.writeVarint(functions.length);
+		for (int i = 0; i < functions.length; i++)
+		{
+			out.writeString(functionNames[i]);
+			out.writeVarint(functions[i].getArity());
+		}
+
+		// a number pushed more than once is written once.
+		int length = expression.getLength();
+		Map<BigDecimal, Integer> indexes = new HashMap<BigDecimal, Integer>();
+		List<BigDecimal> constants = new ArrayList<BigDecimal>();
+		for (int i = 0; i < length; i++)
+		{
+			if(expression.getOpcode(i) == CompiledExpression.PUSH && !indexes.containsKey(expression.getOperand(i)))
+			{
+				indexes.put(expression.getOperand(i), constants.size());
+				constants.add(expression.getOperand(i));
+			}
+		}
+		out.writeVarint(constants.size());
+		for (BigDecimal constant : constants)
+		{
+			out.writeVarint((constant.scale() << 1) ^ (constant.scale() >> 31));
+			byte[] unscaled = constant.unscaledValue().toByteArray();
+			out.writeVarint(unscaled.length);
+			out.writeBytes(unscaled);
+		}
+
+		out.writeVarint(length);
+		for (int i = 0; i < length; i++)
+		{
+			byte opcode = expression.getOpcode(i);
+			out.writeByte(opcode);
+			if(opcode == CompiledExpression.PUSH)
+				out.writeVarint(indexes.get(expression.getOperand(i)));
+			else if(hasSlot(opcode))
+				out.writeVarint(expression.getSlot(i));
+		}
+	}
+
+	private static CompiledExpression decodeExpression(ByteBuffer buffer, FunctionRegistry registry)
+	{
+		int temporaryCount = readVarint(buffer);
+
+		String[] variables = new String[readVarint(buffer)];
+		for (int i = 0; i < variables.length; i++)
+		{
+			variables[i] = readString(buffer);
+		}
+
+		String[] functionNames = new String[readVarint(buffer)];
+		MathFunction[] functions = new MathFunction[functionNames.length];
+		for (int i = 0; i < functions.length; i++)
+		{
+			functionNames[i] = readString(buffer);
+			int arity = readVarint(buffer);
+			functions[i] = registry.getFunction(functionNames[i]);
+			if(functions[i] == null || functions[i].getArity() != arity)
+				throw new IllegalArgumentException("The registry has no function " + functionNames[i] + " that takes " + arity + " arguments");
+		}
+
+		BigDecimal[] constants = new BigDecimal[readVarint(buffer)];
+		for (int i = 0; i < constants.length; i++)
+		{
+			int zigzag = readVarint(buffer);
+			byte[] unscaled = new byte[readVarint(buffer)];
+			buffer.get(unscaled);
+			constants[i] = new BigDecimal(new BigInteger(unscaled), (zigzag >>> 1) ^ -(zigzag & 1));
+		}
+
+		int length = readVarint(buffer);
+		byte[] opcodes = new byte[length];
+		BigDecimal[] operands = new BigDecimal[length];
+		int[] slots = new int[length];
+		for (int i = 0; i < length; i++)
+		{
+			opcodes[i] = buffer.get();
+			if(opcodes[i] < 0 || opcodes[i] >= CompiledExpression.OPCODE_COUNT)
+				throw new IllegalArgumentException("Opcode " + opcodes[i] + " is not known");
+			if(opcodes[i] == CompiledExpression.PUSH)
+				operands[i] = constants[readVarint(buffer)];
+			else if(hasSlot(opcodes[i]))
+				slots[i] = readVarint(buffer);
+		}
+
+		return new CompiledExpression(opcodes, operands, slots, variables, functionNames, functions, temporaryCount);
+	}
+
+	private static boolean hasSlot(byte opcode)
+	{
+		return opcode == CompiledExpression.LOAD || opcode == CompiledExpression.STORE
+				|| opcode == CompiledExpression.RECALL || opcode == CompiledExpression.CALL;
+	}
+
+	/**
+	 * Reads an integer written seven bits at a time, lowest bits first,
+	 * the high bit of each byte tells if another byte follows.
+	 */
+	private static int readVarint(ByteBuffer buffer)
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("A variable length integer is too long");
+	}
+
+	private static String readString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[readVarint(buffer)];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A growing array of bytes.
+	 */
+	private static final class Output
+	{
+		private byte[] bytes = new byte[256];
+		private int count;
+
+		void writeByte(int b)
+		{
+			ensure(1);
+			bytes[count++] = (byte) b;
+		}
+
+		void writeInt(int value)
+		{
+			writeByte(value >>> 24);
+			writeByte(value >>> 16);
+			writeByte(value >>> 8);
+			writeByte(value);
+		}
+
+		void writeVarint(int value)
+		{
+			while((value & ~0x7F) != 0)
+			{
+				writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			writeByte(value);
+		}
+
+		void writeBytes(byte[] source)
+		{
+			ensure(source.length);
+			System.arraycopy(source, 0, bytes, count, source.length);
+			count += source.length;
+		}
+
+		void writeString(String text)
+		{
+			byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+			writeVarint(encoded.length);
+			writeBytes(encoded);
+		}
+
+		byte[] toByteArray()
+		{
+			return Arrays.copyOf(bytes, count);
+		}
+
+		private void ensure(int extra)
+		{
+			if(count + extra > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Evaluates mathematical expressions contained in a queue, like the Expression parser,
+ * but without keeping any state between calls. Every call converts its expression with
+ * its own scratch space and evaluates it on a stack local to the call, so a single
+ * evaluator can be shared by any number of threads without locking.
+ *
+ * Many unrelated expressions can be evaluated at once on a fork join pool, the
+ * expressions are split between the threads of the pool as they become idle.
+ */
+public final class ExpressionEvaluator
+{
+	// below this many expressions a task is not split any further.
+	private static final int MIN_SPLIT_SIZE = 16;
+
+	private static final BigDecimal[] NO_VALUES = new BigDecimal[0];
+
+	private final EvaluationMode evaluationMode;
+	private final PrecisionPolicy precisionPolicy;
+	private final FunctionRegistry functionRegistry;
+	private final EvaluationMetrics metrics;
+
+	/***
+	 * Construct a new Expression evaluator that uses
+	 * BigDecimal for every operation.
+	 */
+	public ExpressionEvaluator()
+	{
+		this(EvaluationMode.PRECISE);
+	}
+
+	/***
+	 * Construct a new Expression evaluator.
+	 *
+	 * @param evaluationMode - how expressions are evaluated.
+	 */
+	public ExpressionEvaluator(EvaluationMode evaluationMode)
+	{
+		this(evaluationMode, PrecisionPolicy.DEFAULT);
+	}
+
+	/***
+	 * Construct a new Expression evaluator.
+	 *
+	 * @param evaluationMode - how expressions are evaluated.
+	 * @param precisionPolicy - how precise the answers are.
+	 */
+	public ExpressionEvaluator(EvaluationMode evaluationMode, PrecisionPolicy precisionPolicy)
+	{
+		this(evaluationMode, precisionPolicy, FunctionRegistry.DEFAULT);
+	}
+
+	/***
+	 * Construct a new Expression evaluator.
+	 *
+	 * @param evaluationMode - how expressions are evaluated.
+	 * @param precisionPolicy - how precise the answers are.
+	 * @param functionRegistry - the functions expressions can call.
+	 */
+	public ExpressionEvaluator(EvaluationMode evaluationMode, PrecisionPolicy precisionPolicy, FunctionRegistry functionRegistry)
+	{
+		this(evaluationMode, precisionPolicy, functionRegistry, EvaluationMetrics.NONE);
+	}
+
+	/***
+	 * Construct a new Expression evaluator.
+	 *
+	 * @param evaluationMode - how expressions are evaluated.
+	 * @param precisionPolicy - how precise the answers are.
+	 * @param functionRegistry - the functions expressions can call.
+	 * @param metrics - receives the time of each phase, the expressions compiled and the errors found.
+	 */
+	public ExpressionEvaluator(EvaluationMode evaluationMode, PrecisionPolicy precisionPolicy, FunctionRegistry functionRegistry,
+			EvaluationMetrics metrics)
+	{
+		if(evaluationMode == null)
+			throw new IllegalArgumentException("The evaluation mode cannot be null");
+		if(precisionPolicy == null)
+			throw new IllegalArgumentException("The precision policy cannot be null");
+		if(functionRegistry == null)
+			throw new IllegalArgumentException("The function registry cannot be null");
+		if(metrics == null)
+			throw new IllegalArgumentException("The metrics cannot be null");
+		this.evaluationMode = evaluationMode;
+		this.precisionPolicy = precisionPolicy;
+		this.functionRegistry = functionRegistry;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Gives back how expressions are evaluated.
+	 * @return the evaluation mode.
+	 */
+	public EvaluationMode getEvaluationMode()
+	{
+		return evaluationMode;
+	}
+
+	/**
+	 * Gives back how precise the answers are.
+	 * @return the precision policy.
+	 */
+	public PrecisionPolicy getPrecisionPolicy()
+	{
+		return precisionPolicy;
+	}
+
+	/**
+	 * Gives back the functions expressions can call.
+	 * @return the function registry.
+	 */
+	public FunctionRegistry getFunctionRegistry()
+	{
+		return functionRegistry;
+	}
+
+	/**
+	 * Gives back what receives the measurements of this evaluator.
+	 * @return the metrics.
+	 */
+	public EvaluationMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Retrieves the answer to a mathematical expression.
+	 *
+	 * @param infixQueue - the mathematical expression.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the infix is not in a valid form or divides by zero.
+	 */
+	public BigDecimal evaluate(Queue<String> infixQueue) throws InfixQueueIllegalStateException
+	{
+		return evaluate(compile(infixQueue));
+	}
+
+	/**
+	 * Retrieves the answer to a mathematical expression written as text.
+	 * The items of the expression do not need to be separated by spaces.
+	 *
+	 * @param expression - the mathematical expression.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression is not in a valid form or divides by zero.
+	 */
+	public BigDecimal evaluate(CharSequence expression) throws InfixQueueIllegalStateException
+	{
+		return evaluate(compile(expression));
+	}
+
+	/**
+	 * Retrieves the answer to a mathematical expression written as ASCII bytes,
+	 * from the position to the limit of the buffer. The position of the buffer
+	 * is not changed.
+	 *
+	 * @param expression - the mathematical expression.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression is not in a valid form or divides by zero.
+	 */
+	public BigDecimal evaluate(ByteBuffer expression) throws InfixQueueIllegalStateException
+	{
+		return evaluate(compile(expression));
+	}
+
+	/**
+	 * Validates and converts a mathematical expression written as text, it is
+	 * read one character at a time without being split into a queue first.
+	 *
+	 * @param expression - the mathematical expression.
+	 * @param variableNames - the names of the variables, in slot order.
+	 * @return - the compiled expression.
+	 * @throws InfixQueueIllegalStateException - if the expression is not in a valid form,
+	 * the position of the exception is the offset of the character that is wrong.
+	 */
+	public CompiledExpression compile(CharSequence expression, String... variableNames) throws InfixQueueIllegalStateException
+	{
+		if(expression == null)
+			throw new IllegalArgumentException("The expression passed in cannot be null");
+
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		try
+		{
+			InfixConverter converter = new InfixConverter(functionRegistry, variableNames);
+			return compiled(new CompiledExpression(ExpressionTokenizer.tokenize(expression, converter), variableNames),
+					EvaluationMetrics.Phase.COMPILE_TEXT, start);
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Validates and converts a mathematical expression written as an array of characters.
+	 *
+	 * @param expression - the mathematical expression.
+	 * @param variableNames - the names of the variables, in slot order.
+	 * @return - the compiled expression.
+	 * @throws InfixQueueIllegalStateException - if the expression is not in a valid form,
+	 * the position of the exception is the offset of the character that is wrong.
+	 */
+	public CompiledExpression compile(char[] expression, String... variableNames) throws InfixQueueIllegalStateException
+	{
+		if(expression == null)
+			throw new IllegalArgumentException("The expression passed in cannot be null");
+
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		try
+		{
+			InfixConverter converter = new InfixConverter(functionRegistry, variableNames);
+			return compiled(new CompiledExpression(ExpressionTokenizer.tokenize(expression, converter), variableNames),
+					EvaluationMetrics.Phase.COMPILE_TEXT, start);
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Validates and converts a mathematical expression written as ASCII bytes,
+	 * from the position to the limit of the buffer. The position of the buffer
+	 * is not changed.
+	 *
+	 * @param expression - the mathematical expression.
+	 * @param variableNames - the names of the variables, in slot order.
+	 * @return - the compiled expression.
+	 * @throws InfixQueueIllegalStateException - if the expression is not in a valid form,
+	 * the position of the exception is the offset of the byte that is wrong from the position of the buffer.
+	 */
+	public CompiledExpression compile(ByteBuffer expression, String... variableNames) throws InfixQueueIllegalStateException
+	{
+		if(expression == null)
+			throw new IllegalArgumentException("The expression passed in cannot be null");
+
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		try
+		{
+			InfixConverter converter = new InfixConverter(functionRegistry, variableNames);
+			return compiled(new CompiledExpression(ExpressionTokenizer.tokenize(expression, converter), variableNames),
+					EvaluationMetrics.Phase.COMPILE_TEXT, start);
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Validates and converts a mathematical expression, giving back a
+	 * compiled expression that can be evaluated many times.
+	 *
+	 * @param infixQueue - the mathematical expression.
+	 * @param variableNames - the names of the variables, in slot order.
+	 * @return - the compiled expression.
+	 * @throws InfixQueueIllegalStateException - if the infix is not in a valid form.
+	 */
+	public CompiledExpression compile(Queue<String> infixQueue, String... variableNames) throws InfixQueueIllegalStateException
+	{
+		if(infixQueue == null)
+			throw new IllegalArgumentException("The infix queue passed in cannot be null");
+
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		try
+		{
+			InfixConverter converter = new InfixConverter(functionRegistry, variableNames);
+			return compiled(new CompiledExpression(converter.convert(infixQueue), variableNames),
+					EvaluationMetrics.Phase.COMPILE_QUEUE, start);
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Evaluates a compiled expression without variables, timing
+	 * it when the metrics are enabled.
+	 */
+	private BigDecimal evaluate(CompiledExpression compiled) throws InfixQueueIllegalStateException
+	{
+		if(!metrics.isEnabled())
+			return compiled.evaluate(evaluationMode, NO_VALUES, precisionPolicy);
+
+		long start = System.nanoTime();
+		try
+		{
+			return compiled.evaluate(evaluationMode, NO_VALUES, precisionPolicy);
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			metrics.recordError(e.getErrorCode());
+			throw e;
+		}
+		finally
+		{
+			metrics.recordPhase(EvaluationMetrics.Phase.EVALUATE, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Records an expression that was compiled when the metrics are enabled.
+	 *
+	 * @return the compiled expression.
+	 */
+	private CompiledExpression compiled(CompiledExpression compiled, EvaluationMetrics.Phase phase, long start)
+	{
+		if(metrics.isEnabled())
+		{
+			metrics.recordPhase(phase, System.nanoTime() - start);
+			metrics.recordExpression(compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Records an expression that could not be compiled when the metrics are enabled.
+	 *
+	 * @return the exception, to be thrown again.
+	 */
+	private InfixQueueIllegalStateException failed(InfixQueueIllegalStateException e)
+	{
+		if(metrics.isEnabled())
+			metrics.recordError(e.getErrorCode());
+		return e;
+	}
+
+	/**
+	 * Gives back the error kept for an expression whose evaluation threw an unchecked
+	 * exception, such as a function given by the caller that fails.
+	 *
+	 * @param e - the unchecked exception, kept as the cause.
+	 * @return the error.
+	 */
+	static InfixQueueIllegalStateException unchecked(RuntimeException e)
+	{
+		InfixQueueIllegalStateException error = new InfixQueueIllegalStateException(ErrorCode.INVALID_EXPRESSION,
+				"the expression could not be evaluated.", -1);
+		error.initCause(e);
+		return error;
+	}
+
+	/**
+	 * Evaluates many independent expressions on the common fork join pool.
+	 *
+	 * @param infixQueues - the mathematical expressions, none of them can be null.
+	 * @return the answer or the error of each expression, in the same order.
+	 */
+	public BulkResult evaluateAll(Collection<? extends Queue<String>> infixQueues)
+	{
+		return evaluateAll(infixQueues, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Evaluates many independent expressions on the common fork join pool.
+	 * The stream is read completely before any expression is evaluated.
+	 *
+	 * @param infixQueues - the mathematical expressions, none of them can be null.
+	 * @return the answer or the error of each expression, in encounter order.
+	 */
+	public BulkResult evaluateAll(Stream<? extends Queue<String>> infixQueues)
+	{
+		if(infixQueues == null)
+			throw new IllegalArgumentException("The infix queues passed in cannot be null");
+		return evaluateAll(infixQueues.collect(Collectors.toList()), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Evaluates many independent expressions on a fork join pool. An expression
+	 * that is not in a valid form, divides by zero or calls a function that throws
+	 * an unchecked exception does not stop the others, its exception is kept in its
+	 * slot of the result.
+	 *
+	 * @param infixQueues - the mathematical expressions, none of them can be null.
+	 * @param pool - the pool that evaluates the expressions.
+	 * @return the answer or the error of each expression, in the same order.
+	 */
+	public BulkResult evaluateAll(Collection<? extends Queue<String>> infixQueues, ForkJoinPool pool)
+	{
+		if(infixQueues == null)
+			throw new IllegalArgumentException("The infix queues passed in cannot be null");
+		if(pool == null)
+			throw new IllegalArgumentException("The pool cannot be null");
+
+		List<? extends Queue<String>> expressions = infixQueues instanceof List && infixQueues instanceof RandomAccess
+				? (List<? extends Queue<String>>) infixQueues
+				: new ArrayList<Queue<String>>(infixQueues);
+		BulkResult result = new BulkResult(expressions.size());
+		if(!expressions.isEmpty())
+			pool.invoke(new BulkTask(expressions, result, 0, expressions.size()));
+		return result;
+	}
+
+	/**
+	 * Evaluates a range of expressions. A task keeps splitting off half of its
+	 * range for as long as the other threads of the pool have little queued work
+	 * to steal, so busy pools split less and idle threads always find work.
+	 */
+	private final class BulkTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends Queue<String>> expressions;
+		private final BulkResult result;
+		private final int start;
+		private int end;
+		// the next task forked by the same parent.
+		private BulkTask next;
+
+		BulkTask(List<? extends Queue<String>> expressions, BulkResult result, int start, int end)
+		{
+			this.expressions = expressions;
+			this.result = result;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			BulkTask forked = null;
+			while(end - start > MIN_SPLIT_SIZE && getSurplusQueuedTaskCount() <= 2)
+			{
+				int middle = (start + end) >>> 1;
+				BulkTask right = new BulkTask(expressions, result, middle, end);
+				right.fork();
+				end = middle;
+				right.next = forked;
+				forked = right;
+			}
+
+			for (int i = start; i < end; i++)
+			{
+				try
+				{
+					result.setResult(i, evaluate(expressions.get(i)));
+				}
+				catch(InfixQueueIllegalStateException e)
+				{
+					result.setError(i, e);
+				}
+				catch(RuntimeException e)
+				{
+					// a function given by the caller failed, only its own expression has no answer.
+					result.setError(i, unchecked(e));
+				}
+			}
+
+			// the tasks not stolen by other threads are run here.
+			while(forked != null)
+			{
+				if(forked.tryUnfork())
+					forked.compute();
+				else
+					forked.join();
+				forked = forked.next;
+			}
+		}
+	}
+}
@@ -0,0 +1,371 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Rewrites the program of a compiled expression so that evaluating it does less work
+ * while giving the same answers.
+ *
+ * The program is read into a graph where equal subexpressions are the same node, so a
+ * subexpression used more than once is found as a node with more than one parent.
+ * While the graph is built, operators and functions whose operands are all numbers are
+ * replaced by their answer and adding or subtracting zero and multiplying by one are
+ * removed. Dividing by one is kept because it rounds to the division scale, and
+ * multiplying by zero is kept because the other operand could divide by zero.
+ *
+ * The graph is then written back as a program where a shared subexpression is computed
+ * once, stored in a temporary slot and recalled wherever else it is used.
+ */
+final class ExpressionOptimizer
+{
+	private final CompiledExpression expression;
+	private final PrecisionPolicy policy;
+
+	// the nodes of the graph, the children of a node always come before it. The
+	// children of a node are the arity entries of the children array from first.
+	private byte[] opcodes;
+	private BigDecimal[] values;
+	private int[] slots;
+	private int[] firsts;
+	private int[] arities;
+	private int nodeCount;
+	private int[] children;
+	private int childCount;
+
+	private final Map<BigDecimal, Integer> constants = new HashMap<BigDecimal, Integer>();
+	private final Map<Integer, Integer> variables = new HashMap<Integer, Integer>();
+	private final Map<Operation, Integer> operations = new HashMap<Operation, Integer>();
+
+	private ExpressionOptimizer(CompiledExpression expression, PrecisionPolicy policy)
+	{
+		this.expression = expression;
+		this.policy = policy;
+		int length = expression.getLength();
+		opcodes = new byte[length];
+		values = new BigDecimal[length];
+		slots = new int[length];
+		firsts = new int[length];
+		arities = new int[length];
+		children = new int[length];
+	}
+
+	/**
+	 * Gives back an optimized copy of an expression.
+	 *
+	 * @param expression - the compiled expression.
+	 * @param policy - the policy the expression will be evaluated with.
+	 * @return the optimized expression.
+	 */
+	static CompiledExpression optimize(CompiledExpression expression, PrecisionPolicy policy)
+	{
+		ExpressionOptimizer optimizer = new ExpressionOptimizer(expression, policy);
+		return optimizer.write(optimizer.read());
+	}
+
+	/**
+	 * Reads the program into the graph.
+	 * @return the node of the whole expression.
+	 */
+	private int read()
+	{
+		int[] stack = new int[expression.getMaxStackDepth()];
+		int[] temporaries = new int[expression.getTemporaryCount()];
+		int top = -1;
+
+		for (int i = 0; i < expression.getLength(); i++)
+		{
+			byte opcode = expression.getOpcode(i);
+			switch (opcode)
+			{
+			case CompiledExpression.PUSH:
+				stack[++top] = constant(expression.getOperand(i));
+				break;
+			case CompiledExpression.LOAD:
+				stack[++top] = variable(expression.getSlot(i));
+				break;
+			case CompiledExpression.STORE:
+				temporaries[expression.getSlot(i)] = stack[top];
+				break;
+			case CompiledExpression.RECALL:
+				stack[++top] = temporaries[expression.getSlot(i)];
+				break;
+			default:
+				top -= expression.getArity(i) - 1;
+				stack[top] = operation(i, stack, top);
+				break;
+			}
+		}
+		return stack[0];
+	}
+
+	private int constant(BigDecimal value)
+	{
+		// numbers that only differ by their trailing zeros give the same answers.
+		BigDecimal key = value.signum() == 0 ? BigDecimal.ZERO : value.stripTrailingZeros();
+		Integer node = constants.get(key);
+		if(node == null)
+		{
+			node = add(CompiledExpression.PUSH, value, 0, null, 0, 0);
+			constants.put(key, node);
+		}
+		return node;
+	}
+
+	private int variable(int slot)
+	{
+		Integer node = variables.get(slot);
+		if(node == null)
+		{
+			node = add(CompiledExpression.LOAD, null, slot, null, 0, 0);
+			variables.put(slot, node);
+		}
+		return node;
+	}
+
+	/**
+	 * Finds or adds the node of an operator or a function.
+	 *
+	 * @param index - the index of the instruction in the program.
+	 * @param stack - the nodes of the operands, from first on.
+	 * @param first - the index of the node of the first operand.
+	 * @return the node of the result.
+	 */
+	private int operation(int index, int[] stack, int first)
+	{
+		byte opcode = expression.getOpcode(index);
+		int slot = opcode == CompiledExpression.CALL ? expression.getSlot(index) : 0;
+		int arity = expression.getArity(index);
+
+		boolean constants = true;
+		for (int operand = first; operand < first + arity && constants; operand++)
+		{
+			constants = opcodes[stack[operand]] == CompiledExpression.PUSH;
+		}
+		if(constants)
+		{
+			BigDecimal[] operands = new BigDecimal[arity];
+			for (int operand = 0; operand < arity; operand++)
+			{
+				operands[operand] = values[stack[first + operand]];
+			}
+			try
+			{
+				expression.apply(index, operands, arity - 1, policy);
+				return constant(operands[0]);
+			}
+			catch (InfixQueueIllegalStateException e)
+			{
+				// a division by zero or an operand that is not valid is left for the evaluation to report.
+			}
+		}
+
+		// a rounded operation is not the same as its operand.
+		int left = stack[first];
+		int right = arity == 2 ? stack[first + 1] : -1;
+		switch (policy.isLimited() ? -1 : opcode)
+		{
+		case CompiledExpression.ADD:
+			if(isConstant(right, BigDecimal.ZERO))
+				return left;
+			if(isConstant(left, BigDecimal.ZERO))
+				return right;
+			break;
+		case CompiledExpression.SUBTRACT:
+			if(isConstant(right, BigDecimal.ZERO))
+				return left;
+			break;
+		case CompiledExpression.MULTIPLY:
+			if(isConstant(right, BigDecimal.ONE))
+				return left;
+			if(isConstant(left, BigDecimal.ONE))
+				return right;
+			break;
+		}
+
+		Operation key = new Operation(opcode, slot, Arrays.copyOfRange(stack, first, first + arity));
+		Integer node = operations.get(key);
+		if(node == null)
+		{
+			node = add(opcode, null, slot, stack, first, arity);
+			operations.put(key, node);
+		}
+		return node;
+	}
+
+	private boolean isConstant(int node, BigDecimal value)
+	{
+		return opcodes[node] == CompiledExpression.PUSH && values[node].compareTo(value) == 0;
+	}
+
+	private int add(byte opcode, BigDecimal value, int slot, int[] operands, int first, int arity)
+	{
+		if(nodeCount == opcodes.length)
+		{
+			int capacity = nodeCount * 2 + 1;
+			opcodes = Arrays.copyOf(opcodes, capacity);
+			values = Arrays.copyOf(values, capacity);
+			slots = Arrays.copyOf(slots, capacity);
+			firsts = Arrays.copyOf(firsts, capacity);
+			arities = Arrays.copyOf(arities, capacity);
+		}
+		if(childCount + arity > children.length)
+			children = Arrays.copyOf(children, Math.max(children.length * 2, childCount + arity));
+
+		opcodes[nodeCount] = opcode;
+		values[nodeCount] = value;
+		slots[nodeCount] = slot;
+		firsts[nodeCount] = childCount;
+		arities[nodeCount] = arity;
+		for (int operand = 0; operand < arity; operand++)
+		{
+			children[childCount++] = operands[first + operand];
+		}
+		return nodeCount++;
+	}
+
+	/**
+	 * Writes the graph back as a program.
+	 *
+	 * @param root - the node of the whole expression.
+	 * @return the optimized expression.
+	 */
+	private CompiledExpression write(int root)
+	{
+		// counts the parents of every node that is still used, children come first
+		// so a node is reached before its children.
+		int[] uses = new int[nodeCount];
+		boolean[] reachable = new boolean[nodeCount];
+		reachable[root] = true;
+		for (int node = root; node >= 0; node--)
+		{
+			for (int operand = 0; reachable[node] && operand < arities[node]; operand++)
+			{
+				int child = children[firsts[node] + operand];
+				reachable[child] = true;
+				uses[child]++;
+			}
+		}
+
+		Program program = new Program(expression.getLength());
+		int[] temporaries = new int[nodeCount];
+		Arrays.fill(temporaries, -1);
+		int temporaryCount = 0;
+
+		// a depth first walk without recursion, a node is written after its children.
+		int[] nodes = new int[nodeCount + 1];
+		int[] states = new int[nodeCount + 1];
+		int top = 0;
+		nodes[0] = root;
+		while(top >= 0)
+		{
+			int node = nodes[top];
+			if(temporaries[node] >= 0)
+			{
+				program.add(CompiledExpression.RECALL, null, temporaries[node]);
+				top--;
+			}
+			else if(arities[node] == 0)
+			{
+				program.add(opcodes[node], values[node], slots[node]);
+				top--;
+			}
+			else if(states[top] < arities[node])
+			{
+				int child = children[firsts[node] + states[top]];
+				states[top]++;
+				nodes[++top] = child;
+				states[top] = 0;
+			}
+			else
+			{
+				program.add(opcodes[node], null, slots[node]);
+				if(uses[node] > 1)
+				{
+					temporaries[node] = temporaryCount++;
+					program.add(CompiledExpression.STORE, null, temporaries[node]);
+				}
+				top--;
+			}
+		}
+		return program.toExpression(expression.getVariables(), expression.getFunctionNames(), expression.getFunctions(), temporaryCount);
+	}
+
+	/**
+	 * An operator or a function and its operands, the key of a node
+	 * that is not a number or a variable.
+	 */
+	private static final class Operation
+	{
+		private final byte opcode;
+		private final int slot;
+		private final int[] operands;
+
+		Operation(byte opcode, int slot, int[] operands)
+		{
+			this.opcode = opcode;
+			this.slot = slot;
+			this.operands = operands;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if(!(other instanceof Operation))
+				return false;
+			Operation operation = (Operation) other;
+			return opcode == operation.opcode && slot == operation.slot && Arrays.equals(operands, operation.operands);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (opcode * 31 + slot) * 31 + Arrays.hashCode(operands);
+		}
+	}
+
+	/**
+	 * The instructions of the optimized program.
+	 */
+	private static final class Program
+	{
+		private byte[] opcodes;
+		private BigDecimal[] operands;
+		private int[] slots;
+		private int length;
+
+		Program(int capacity)
+		{
+			opcodes = new byte[capacity];
+			operands = new BigDecimal[capacity];
+			slots = new int[capacity];
+		}
+
+		void add(byte opcode, BigDecimal operand, int slot)
+		{
+			if(length == opcodes.length)
+			{
+				int capacity = length * 2 + 1;
+				opcodes = Arrays.copyOf(opcodes, capacity);
+				operands = Arrays.copyOf(operands, capacity);
+				slots = Arrays.copyOf(slots, capacity);
+			}
+			opcodes[length] = opcode;
+			operands[length] = operand;
+			slots[length] = slot;
+			length++;
+		}
+
+		CompiledExpression toExpression(String[] variables, String[] functionNames, MathFunction[] functions, int temporaryCount)
+		{
+			return new CompiledExpression(Arrays.copyOf(opcodes, length), Arrays.copyOf(operands, length),
+					Arrays.copyOf(slots, length), variables, functionNames, functions, temporaryCount);
+		}
+	}
+}
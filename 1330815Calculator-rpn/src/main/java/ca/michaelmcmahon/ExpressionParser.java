@@ -1,49 +1,47 @@
 package ca.michaelmcmahon;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 
 /***
- * 
+ *
  * @author Michael McMahon
  * @version 1.0
- * 
+ *
  * This Class is responsible of taking a mathematical expression contained in a a queue and solves
  * the equation using the reverse polish notation. The algorithm works with both parentheses and
- * floating point numbers. 
- * 
+ * floating point numbers.
+ *
  * if the expression is not in a valid form, it will throw a InfixQueueIllegalStateException.
+ *
+ * An Expression parser remembers its expression and the last postfix queue, so it must not be
+ * shared between threads. Use an ExpressionEvaluator to evaluate expressions from many threads.
  */
-public class ExpressionParser 
+public class ExpressionParser
 {
-	private ArrayDeque<String> operandStack;
-	private ArrayDeque<String> operatorStack;
 	private Queue<String> infixQueue;
-	private Queue<String> postfixQueue;
-	private Deque<String> expressionDequeue;
-	
-	
+	private List<Token> postfix;
+	private EvaluationMode evaluationMode = EvaluationMode.PRECISE;
+	private PrecisionPolicy precisionPolicy = PrecisionPolicy.DEFAULT;
+	private FunctionRegistry functionRegistry = FunctionRegistry.DEFAULT;
+	private EvaluationMetrics metrics = EvaluationMetrics.NONE;
+
+
 	/***
 	 * Construct a new Expression parser with a  default
 	 * infix Queue.
-	 * 
+	 *
 	 * @param infixQueue - the mathematical expression.
 	 */
 	public ExpressionParser(Queue<String> infixQueue)
 	{
 		if(infixQueue == null)
 			throw new IllegalArgumentException("The infix queue passed in cannot be null");
-		
-		operandStack = new ArrayDeque<String>();
-		operatorStack = new ArrayDeque<String>();
-		postfixQueue =  new LinkedList<String>();
-		expressionDequeue =  new LinkedList<String>();
-			
+
+		postfix = new ArrayList<Token>();
 		this.infixQueue = infixQueue;
 	}
 	/***
@@ -52,339 +50,123 @@ public class ExpressionParser
 	 */
 	public ExpressionParser()
 	{
-		operandStack = new ArrayDeque<String>();
-		operatorStack = new ArrayDeque<String>();
-		postfixQueue =  new LinkedList<String>();
-		expressionDequeue =  new LinkedList<String>();
+		postfix = new ArrayList<Token>();
 	}
-	
+
 	/**
 	 * Sets the mathematical
 	 * expression Queue.
-	 * 
+	 *
 	 * @param infix - the mathematical expression
 	 */
 	public void setInfixQueue(Queue<String> infix)
 	{
-		operandStack.clear();
-		operatorStack.clear();
-		postfixQueue.clear();
-		expressionDequeue.clear();
+		postfix.clear();
 		this.infixQueue = infix;
 	}
-	
+
 	/**
-	 * Determines if the operator sent in is either
-	 * a + - / *
-	 * @param item -  the operator.
-	 * 
-	 * @return true if it a binary operator.
+	 * Sets how getCalculatedExpression evaluates the
+	 * expression, by default every operation uses BigDecimal.
+	 *
+	 * @param evaluationMode - the evaluation mode.
 	 */
-	private boolean isQueueItemAnBinaryOperator(String item)
+	public void setEvaluationMode(EvaluationMode evaluationMode)
 	{
-		boolean result = false;
-		
-		if(item.equals("+") ||
-		   item.equals("*") ||
-		   item.equals("/") ||
-		   item.equals("-"))
-		{
-			result = true;
-		}
-		
-		return result;
+		if(evaluationMode == null)
+			throw new IllegalArgumentException("The evaluation mode cannot be null");
+		this.evaluationMode = evaluationMode;
 	}
+
 	/**
-	 * Determines if the operator sent in is either
-	 * a + - / * ( )
-	 * @param item -  the operator.
-	 * 
-	 * @return true if it a binary operator or expression operator.
+	 * Gives back how getCalculatedExpression evaluates the expression.
+	 * @return the evaluation mode.
 	 */
-	private boolean isQueueItemABinaryOrExpressionOperator(String item)
+	public EvaluationMode getEvaluationMode()
 	{
-		boolean result = false;
-		
-		if(item.equals("+") ||
-		   item.equals("*") ||
-		   item.equals("/") ||
-		   item.equals("-") ||
-		   item.equals("(") ||
-		   item.equals(")"))
-		{
-			result = true;
-		}
-		
-		return result;
+		return evaluationMode;
 	}
-	
+
 	/**
-	 * Determines if the item passed is a valid 
-	 * integer number or floating point number.
-	 * @param item
-	 * @return true if it is a valid number.
+	 * Sets how precise the answer of getCalculatedExpression is, by default
+	 * divisions are rounded half up to two decimal places.
+	 *
+	 * @param precisionPolicy - the precision policy.
 	 */
-	private boolean IsQueueItemANumber(String item)
+	public void setPrecisionPolicy(PrecisionPolicy precisionPolicy)
 	{
-		boolean result = true;
-		
-		char chars[] =  item.toCharArray();
-		int charsLength = chars.length;
-		
-		if(chars[0] == '.' || chars[charsLength -1] == '.')
-			return false;
-			
-		int dotCOunt = 0 ;
-		
-		for (char c : chars) 
-		{
-			if(c == '.')
-			{
-				if(dotCOunt >= 1)
-				{
-					result = false;
-					break;
-				}
-				else
-					dotCOunt++;
-			}
-			else if(!Character.isDigit(c))
-			{
-				result = false;
-				break;
-			}
-		}
-		
-		return result;
+		if(precisionPolicy == null)
+			throw new IllegalArgumentException("The precision policy cannot be null");
+		this.precisionPolicy = precisionPolicy;
 	}
+
 	/**
-	 * Converts the internal infix mathematical expression queue into a 
-	 * postfix queue using reverse polish notation.
-	 * 
-	 * validation is done as the infix queue is parsed.
-	 * 
-	 * @throws InfixQueueIllegalStateException - if the infix is not in a valid form.
+	 * Gives back how precise the answer of getCalculatedExpression is.
+	 * @return the precision policy.
 	 */
-	private void convertInfixQueueToPostFixQueue() throws InfixQueueIllegalStateException
+	public PrecisionPolicy getPrecisionPolicy()
 	{
-				
-		String firstItme = infixQueue.peek();
-		
-		if(isQueueItemAnBinaryOperator(firstItme))
-		{
-			throw new InfixQueueIllegalStateException("the first item in the queue cannot be an operator");
-		}
-		int parenthesesCount = 0;
-		String lastItem = "";
-		
-		for (String string : infixQueue) 
-		{
-			if(string.equals("(") || string.equals(")"))
-				parenthesesCount++;
-			
-			/// checks to make sure that the current queue item is valid.
-			if(isQueueItemAnBinaryOperator(string) && isQueueItemAnBinaryOperator(lastItem))
-			{
-				throw new InfixQueueIllegalStateException("there can not be two operators one after the other.");
-			}
-			else if(string.equals("(") && (!isQueueItemAnBinaryOperator(lastItem) && !lastItem.equals("") && !lastItem.equals("(")))
-			{
-				throw new InfixQueueIllegalStateException("there cannot be a number before an opening parenthesis.");
-			}
-			else if(lastItem.equals("(") && (isQueueItemAnBinaryOperator(string) && !string.equals(")")))
-			{
-				throw new InfixQueueIllegalStateException("there cannot be an operator after a opening parenthesis.");
-			}
-			else if( (string.equals(")") && (isQueueItemAnBinaryOperator(lastItem) && !string.equals("("))))
-			{
-				throw new InfixQueueIllegalStateException("there cannot be a operator before a closing parenthesis.");
-			}
-			else if(lastItem.equals(")") && !isQueueItemAnBinaryOperator(string) && !string.equals(")"))
-			{
-				throw new InfixQueueIllegalStateException("there cannot be a number after a closing parenthesis.");
-			}
-			else if(!IsQueueItemANumber(string) && !isQueueItemABinaryOrExpressionOperator(string))
-			{
-				throw new InfixQueueIllegalStateException("A number must consist of charecters consisting of [0,9] and must contain at most one"
-						+ " decimal place that cannot be in the front or at the back of a number.");
-			}
-			
-			if(isQueueItemABinaryOrExpressionOperator(string))
-			{
-				addOperatorToOperaterStack(string);
-			}
-			else
-			{
-				postfixQueue.add(string);
-			}
-			lastItem  = string;
-		}
-		
-		if(parenthesesCount % 2 != 0)
-			throw new InfixQueueIllegalStateException("there cannot be an odd amount of parentheses.");
-		
-		if(!operatorStack.isEmpty())
-		{
-			int operatorStackLength = operatorStack.size();
-			for(int i = 0; i < operatorStackLength; i++)
-			{
-				postfixQueue.add(operatorStack.pop());
-			}
-		}
-		
+		return precisionPolicy;
 	}
+
 	/**
-	 * Gives back the postfix queue
-	 * @return
+	 * Sets the functions the expression can call, by
+	 * default min, max and sqrt.
+	 *
+	 * @param functionRegistry - the function registry.
 	 */
-	public Queue<String> getPostFixQueue()
+	public void setFunctionRegistry(FunctionRegistry functionRegistry)
 	{
-		return postfixQueue;
+		if(functionRegistry == null)
+			throw new IllegalArgumentException("The function registry cannot be null");
+		this.functionRegistry = functionRegistry;
 	}
+
 	/**
-	 * Using the reverse polish notation, the method will
-	 * add the operator to the stack if it is of a higher precedence
-	 * than what is currently on top of the stack.
-	 * 
-	 * if this is false the the top of the stack is popped off and
-	 * added to the postfix queue and the operator passed in will
-	 * be added to the top of the stack.
-	 * 
-	 * @param operator
+	 * Gives back the functions the expression can call.
+	 * @return the function registry.
 	 */
-	private void addOperatorToOperaterStack(String operator)
+	public FunctionRegistry getFunctionRegistry()
 	{
-		if(operatorStack.isEmpty())
-		{
-			operatorStack.push(operator);
-			return;
-		}
-		String currentOperator = "";
-		while(!operatorStack.isEmpty())
-		{
-			currentOperator = operatorStack.peek();
-			
-			if(currentOperator.equals("(") && (!operator.equals("(") && !operator.equals(")")))
-			{
-				operatorStack.push(operator);
-				break;
-			}
-			// if higher precedence, then just add it
-			if( (operator.equals("*") || operator.equals("/") ) && (currentOperator.equals("+") || currentOperator.equals("-")))
-			{
-				operatorStack.push(operator);
-				break;
-			}
-			// if it is the same precedence ( * /) then replace it with the one on top of the stack.
-			else if( (operator.equals("*") || operator.equals("/") ) && (currentOperator.equals("*") || currentOperator.equals("/")) )
-			{
-				postfixQueue.add(operatorStack.pop());
-			}
-			// if it is the same precedence ( + -) then replace it with the one on top of the stack.
-			else if ( (operator.equals("+") || operator.equals("-") ) && (currentOperator.equals("+") || currentOperator.equals("-")) )
-			{
-				postfixQueue.add(operatorStack.pop());
-			}
-			// it is a parentheses just add it
-			else if(operator.equals("("))
-			{
-				operatorStack.push(operator);
-				break;
-			}
-			// if we found a closing parentheses, start popping off the stack
-			else if(operator.equals(")"))
-			{
-				int i = 0;
-				while(!operatorStack.peek().equals("("))
-				{
-					i++;
-					postfixQueue.add(operatorStack.pop());
-				}
-				// pop off the opening parentheses
-				operatorStack.pop();
-				break;
-			}
-			// if its less precedence than a * / then replace it with the one on top of the stack.
-			else
-			{
-				postfixQueue.add(operatorStack.pop());
-			}
-			// if  the stack is empty then we know its ok to add the last operator in.
-			if(operatorStack.isEmpty())
-			{
-				operatorStack.push(operator);
-				break;
-			}
-		}
+		return functionRegistry;
 	}
-	
+
 	/**
-	 * Now that the expression is in a valid postfix form
-	 * the expression can be solved.
-	 * 
-	 * the first item in the operandstack will contain
-	 * the result of the expression.
-	 * 
-	 * @param postfix
-	 * @throws InfixQueueIllegalStateException
+	 * Sets what receives the time of each phase, the expressions compiled
+	 * and the errors found, by default nothing is measured.
+	 *
+	 * @param metrics - the metrics.
 	 */
-	private void solvePostFixExpression(Queue<String> postfix) throws InfixQueueIllegalStateException
+	public void setMetrics(EvaluationMetrics metrics)
 	{
-		String tmp = "";
-		for (String string : postfix) 
-		{
-			if(!isQueueItemAnBinaryOperator(string))
-			{
-				operandStack.push(string);
-			}
-			else
-			{
-				expressionDequeue.push(operandStack.pop());
-				expressionDequeue.push(string);
-				expressionDequeue.push(operandStack.pop());
-				operandStack.push(calculateSubExpression(expressionDequeue));
-				expressionDequeue.clear();
-			}
-		}
+		if(metrics == null)
+			throw new IllegalArgumentException("The metrics cannot be null");
+		this.metrics = metrics;
 	}
-	
+
 	/**
-	 * Using the deque that part of the expression can be calculated.
-	 * since the dequeue contains two operand and a operator.
-	 * 
-	 * @param expression
-	 * @return the result of the expression.
-	 * 
-	 * @throws InfixQueueIllegalStateException
+	 * Gives back what receives the measurements of this parser.
+	 * @return the metrics.
 	 */
-	private String calculateSubExpression(Deque<String> expression) throws InfixQueueIllegalStateException
-	{	
-		String result = "";
+	public EvaluationMetrics getMetrics()
+	{
+		return metrics;
+	}
 
-		BigDecimal operand1 = new BigDecimal(expression.pop());
-		String operator = expression.pop();
-		BigDecimal operand2 =  new BigDecimal(expression.pop());
-		
-		switch (operator) 
+	/**
+	 * Gives back the postfix queue
+	 * @return
+	 */
+	public Queue<String> getPostFixQueue()
+	{
+		Queue<String> postfixQueue = new LinkedList<String>();
+		for (Token token : postfix)
 		{
-		case "+":
-			result += (operand1.add(operand2));
-			break;
-		case "-":
-			result += (operand1.subtract(operand2));
-			break;
-		case "/":
-			if(operand2.doubleValue() == 0)
-				throw new InfixQueueIllegalStateException("you cannot divide by zero");
-			result += (operand1.divide(operand2,2, RoundingMode.HALF_UP));
-			break;
-		case "*":
-			result += (operand1.multiply(operand2));
-			break;
-		}	
-		return result;
+			postfixQueue.add(token.getText());
+		}
+		return postfixQueue;
 	}
-	
+
 	/**
 	 * Retrieves the answer to the mathematical expression.
 	 * @return -  the answer.
@@ -392,10 +174,62 @@ public class ExpressionParser
 	 */
 	public BigDecimal getCalculatedExpression() throws InfixQueueIllegalStateException
 	{
-		convertInfixQueueToPostFixQueue();
-		solvePostFixExpression(postfixQueue);
-		return new BigDecimal(operandStack.pop()).stripTrailingZeros();
+		CompiledExpression compiled = compile();
+		if(!metrics.isEnabled())
+			return compiled.evaluate(evaluationMode, new BigDecimal[0], precisionPolicy);
+
+		long start = System.nanoTime();
+		try
+		{
+			return compiled.evaluate(evaluationMode, new BigDecimal[0], precisionPolicy);
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			metrics.recordError(e.getErrorCode());
+			throw e;
+		}
+		finally
+		{
+			metrics.recordPhase(EvaluationMetrics.Phase.EVALUATE, System.nanoTime() - start);
+		}
 	}
-	
-	
+
+	/**
+	 * Validates and converts the mathematical expression once, giving back
+	 * a compiled expression that can be evaluated many times.
+	 *
+	 * The names passed in can be used in the expression as variables, each
+	 * name is resolved to the slot of its value in the row given when the
+	 * compiled expression is evaluated.
+	 *
+	 * @param variableNames - the names of the variables, in slot order.
+	 * @return - the compiled expression.
+	 * @throws InfixQueueIllegalStateException - if the infix is not in a valid form.
+	 */
+	public CompiledExpression compile(String... variableNames) throws InfixQueueIllegalStateException
+	{
+		InfixConverter converter = new InfixConverter(functionRegistry, variableNames);
+		if(!metrics.isEnabled())
+		{
+			postfix = converter.convert(infixQueue);
+			return new CompiledExpression(postfix, variableNames);
+		}
+
+		long start = System.nanoTime();
+		try
+		{
+			postfix = converter.convert(infixQueue);
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			metrics.recordError(e.getErrorCode());
+			throw e;
+		}
+		CompiledExpression compiled = new CompiledExpression(postfix, variableNames);
+		metrics.recordPhase(EvaluationMetrics.Phase.COMPILE_QUEUE, System.nanoTime() - start);
+		metrics.recordExpression(compiled);
+		return compiled;
+	}
+
+
 }
@@ -0,0 +1,206 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.List;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Reads a mathematical expression one character at a time and hands each item to an
+ * infix converter as soon as it is read, so the expression never has to be split into
+ * a queue of Strings first. Items do not need to be separated by spaces: operators and
+ * parentheses end the item before them.
+ *
+ * Numbers are parsed straight from the characters and variable names are matched in
+ * place, so no String is created for an item other than the name of a function. Errors
+ * report the character offset of the item that is wrong.
+ */
+final class ExpressionTokenizer
+{
+	// a long holds any number of up to 18 digits.
+	private static final int MAX_LONG_DIGITS = 18;
+
+	private ExpressionTokenizer()
+	{
+	}
+
+	/**
+	 * Reads a whole expression into the converter.
+	 *
+	 * @param source - the text of the expression.
+	 * @param converter - the converter of the expression.
+	 * @return the expression in reverse polish notation.
+	 * @throws InfixQueueIllegalStateException - if the expression is not in a valid form.
+	 */
+	static List<Token> tokenize(CharSequence source, InfixConverter converter) throws InfixQueueIllegalStateException
+	{
+		int length = source.length();
+		int i = 0;
+		while(i < length)
+		{
+			char c = source.charAt(i);
+			int start = i;
+			Token token;
+			Operator operator;
+
+			if(Character.isWhitespace(c))
+			{
+				i++;
+				continue;
+			}
+			else if(c == '(')
+			{
+				token = Token.LEFT_PARENTHESIS;
+				i++;
+			}
+			else if(c == ')')
+			{
+				token = Token.RIGHT_PARENTHESIS;
+				i++;
+			}
+			else if(c == ',')
+			{
+				token = Token.COMMA;
+				i++;
+			}
+			else if((operator = Operator.fromSymbol(c)) != null)
+			{
+				token = Token.operator(operator);
+				i++;
+			}
+			else if(isDigit(c) || c == '.')
+			{
+				while(i < length && (isDigit(source.charAt(i)) || source.charAt(i) == '.'))
+					i++;
+				token = Token.number(null, parseNumber(source, start, i));
+			}
+			else if(Character.isLetter(c) || c == '_')
+			{
+				while(i < length && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '_'))
+					i++;
+				token = converter.identifier(source, start, i);
+			}
+			else
+			{
+				throw new InfixQueueIllegalStateException(ErrorCode.INVALID_CHARACTER, "the character " + c + " cannot be part of an expression.", start);
+			}
+
+			converter.accept(token, start);
+		}
+		return converter.finish(length);
+	}
+
+	/**
+	 * Reads a whole expression from an array of characters.
+	 */
+	static List<Token> tokenize(char[] source, InfixConverter converter) throws InfixQueueIllegalStateException
+	{
+		return tokenize(CharBuffer.wrap(source), converter);
+	}
+
+	/**
+	 * Reads a whole expression from the bytes between the position and the limit
+	 * of the buffer, each byte is an ASCII character. The position of the buffer
+	 * is not changed and errors report offsets from it.
+	 */
+	static List<Token> tokenize(ByteBuffer source, InfixConverter converter) throws InfixQueueIllegalStateException
+	{
+		return tokenize(new AsciiSequence(source, source.position(), source.limit()), converter);
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Parses the number between the two offsets. A number must contain at most
+	 * one decimal place that cannot be in the front or at the back of it.
+	 *
+	 * @param source - the text of the expression.
+	 * @param start - the offset of the first character of the number.
+	 * @param end - the offset after the last character of the number.
+	 * @return the number.
+	 * @throws InfixQueueIllegalStateException - if the number is not valid.
+	 */
+	private static BigDecimal parseNumber(CharSequence source, int start, int end) throws InfixQueueIllegalStateException
+	{
+		if(source.charAt(start) == '.' || source.charAt(end - 1) == '.')
+			throw new InfixQueueIllegalStateException(ErrorCode.INVALID_NUMBER, start);
+
+		long unscaled = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean decimals = false;
+		for (int i = start; i < end; i++)
+		{
+			char c = source.charAt(i);
+			if(c == '.')
+			{
+				if(decimals)
+					throw new InfixQueueIllegalStateException(ErrorCode.INVALID_NUMBER, start);
+				decimals = true;
+				continue;
+			}
+			if(unscaled != 0 || c != '0')
+				digits++;
+			unscaled = unscaled * 10 + (c - '0');
+			if(decimals)
+				scale++;
+		}
+
+		if(digits > MAX_LONG_DIGITS)
+			return new BigDecimal(source.subSequence(start, end).toString());
+		return BigDecimal.valueOf(unscaled, scale);
+	}
+
+	/**
+	 * A view of ASCII bytes as characters.
+	 */
+	private static final class AsciiSequence implements CharSequence
+	{
+		private final ByteBuffer buffer;
+		private final int offset;
+		private final int end;
+
+		AsciiSequence(ByteBuffer buffer, int offset, int end)
+		{
+			this.buffer = buffer;
+			this.offset = offset;
+			this.end = end;
+		}
+
+		@Override
+		public int length()
+		{
+			return end - offset;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return (char) (buffer.get(offset + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int finish)
+		{
+			return new AsciiSequence(buffer, offset + start, offset + finish);
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder builder = new StringBuilder(length());
+			for (int i = offset; i < end; i++)
+			{
+				builder.append((char) (buffer.get(i) & 0xff));
+			}
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,521 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * The tree form of a compiled expression, used to evaluate a very large expression on
+ * many threads. In reverse polish notation every subexpression is a contiguous range
+ * of instructions that ends with its operator, so the tree is kept as arrays of ranges
+ * rather than as linked nodes.
+ *
+ * The expression is cut into chunks: the largest subexpressions that are not bigger
+ * than the threshold. Chunks do not depend on each other and are evaluated at the
+ * same time on a fork join pool. The operators above the chunks, the skeleton of the
+ * tree, are then applied one after the other to the answers of the chunks. An
+ * expression that is not bigger than the threshold is evaluated sequentially, and so
+ * is an optimized expression that shares subexpressions between its chunks.
+ *
+ * A chain such as a + b - c + d is a tree leaning to the left, whose only small
+ * subexpressions are its terms, so it is also kept as a balanced tree of the same
+ * terms: (a + b) + (-c + d). Additions and multiplications are exact when the policy
+ * does not round or limit the results, and then the balanced tree gives the same
+ * answer and is the one cut into chunks.
+ *
+ * An expression tree is immutable and can be shared between threads.
+ */
+public final class ExpressionTree implements Evaluator
+{
+	/**
+	 * The amount of instructions below which a subexpression
+	 * is not worth evaluating on another thread.
+	 */
+	public static final int DEFAULT_THRESHOLD = 4096;
+
+	// what is written next when the balanced expression is written back.
+	private static final int WRITE_NODE = 0;
+	private static final int WRITE_INSTRUCTION = 1;
+	private static final int WRITE_TERMS = 2;
+
+	// the kinds of chains.
+	private static final int ADDITIONS = 1;
+	private static final int MULTIPLICATIONS = 2;
+
+	private final CompiledExpression expression;
+	private final int threshold;
+	private final Chunks ordered;
+	private final Chunks balanced;
+
+	/***
+	 * Construct the tree form of an expression with the default threshold.
+	 *
+	 * @param expression - the compiled expression.
+	 */
+	public ExpressionTree(CompiledExpression expression)
+	{
+		this(expression, DEFAULT_THRESHOLD);
+	}
+
+	/***
+	 * Construct the tree form of an expression.
+	 *
+	 * @param expression - the compiled expression.
+	 * @param threshold - the most instructions a chunk evaluated by a single thread can have.
+	 */
+	public ExpressionTree(CompiledExpression expression, int threshold)
+	{
+		if(expression == null)
+			throw new IllegalArgumentException("The expression cannot be null");
+		if(threshold < 1)
+			throw new IllegalArgumentException("The threshold must be at least 1");
+
+		this.expression = expression;
+		this.threshold = threshold;
+		this.ordered = new Chunks(expression, threshold);
+		CompiledExpression rebalanced = balance(expression);
+		this.balanced = rebalanced == expression ? ordered : new Chunks(rebalanced, threshold);
+	}
+
+	/**
+	 * Gives back the expression the tree was built from.
+	 * @return the compiled expression.
+	 */
+	public CompiledExpression getExpression()
+	{
+		return expression;
+	}
+
+	/**
+	 * Gives back the most instructions a chunk can have.
+	 * @return the threshold.
+	 */
+	public int getThreshold()
+	{
+		return threshold;
+	}
+
+	/**
+	 * Gives back the amount of subexpressions that can be evaluated at the same time
+	 * with the default precision policy.
+	 * @return the amount of chunks.
+	 */
+	public int getChunkCount()
+	{
+		return chunks(PrecisionPolicy.DEFAULT).ends.length;
+	}
+
+	/**
+	 * Evaluates an expression that has no variables on the common fork join pool.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate() throws InfixQueueIllegalStateException
+	{
+		return evaluate(new BigDecimal[0], ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables on the common fork join pool.
+	 * @param row - the value of each variable, in slot order.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	@Override
+	public BigDecimal evaluate(BigDecimal[] row) throws InfixQueueIllegalStateException
+	{
+		return evaluate(row, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables on a fork join pool.
+	 * The answer is the same as the one of the compiled expression.
+	 *
+	 * @param row - the value of each variable, in slot order.
+	 * @param pool - the pool that evaluates the chunks.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate(BigDecimal[] row, ForkJoinPool pool) throws InfixQueueIllegalStateException
+	{
+		return evaluate(row, PrecisionPolicy.DEFAULT, pool);
+	}
+
+	/**
+	 * Evaluates the expression with the values of its variables on a fork join pool
+	 * following a precision policy. The answer is the same as the one of the compiled
+	 * expression with the same policy.
+	 *
+	 * @param row - the value of each variable, in slot order.
+	 * @param policy - how precise the answer is.
+	 * @param pool - the pool that evaluates the chunks.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate(BigDecimal[] row, PrecisionPolicy policy, ForkJoinPool pool) throws InfixQueueIllegalStateException
+	{
+		if(pool == null)
+			throw new IllegalArgumentException("The pool cannot be null");
+		if(policy == null)
+			throw new IllegalArgumentException("The precision policy cannot be null");
+		Chunks chunks = chunks(policy);
+		if(chunks.ends.length == 1)
+			return expression.evaluate(row, policy);
+
+		expression.checkRow(row);
+		BigDecimal[] results = new BigDecimal[chunks.ends.length];
+		AtomicReference<InfixQueueIllegalStateException> error = new AtomicReference<InfixQueueIllegalStateException>();
+		pool.invoke(new ChunkTask(chunks, row, policy, results, error, 0, chunks.ends.length));
+		if(error.get() != null)
+			throw error.get();
+
+		// the skeleton is evaluated like the rest of the expression, with each chunk
+		// replaced by its answer.
+		CompiledExpression skeleton = chunks.expression;
+		BigDecimal[] stack = new BigDecimal[skeleton.getMaxStackDepth()];
+		int top = -1;
+		int chunk = 0;
+		int i = 0;
+		while(i < skeleton.getLength())
+		{
+			if(chunk < chunks.starts.length && chunks.starts[chunk] == i)
+			{
+				stack[++top] = results[chunk];
+				i = chunks.ends[chunk] + 1;
+				chunk++;
+			}
+			else
+			{
+				top = skeleton.apply(i, stack, top, policy);
+				i++;
+			}
+		}
+		return stack[0].stripTrailingZeros();
+	}
+
+	/**
+	 * Gives back the chunks of the balanced tree when the policy keeps
+	 * additions and multiplications exact, of the expression as written otherwise.
+	 */
+	private Chunks chunks(PrecisionPolicy policy)
+	{
+		return policy.isLimited() || policy.getMaxDigits() > 0 ? ordered : balanced;
+	}
+
+	/**
+	 * Gives back an expression where every chain of additions and subtractions, or of
+	 * multiplications, of more than two terms is a balanced tree of the same terms in
+	 * the same order. A subtracted term is negated and added. The expression itself is
+	 * given back when it has no such chain or uses temporaries.
+	 *
+	 * @param expression - the compiled expression.
+	 * @return the balanced expression.
+	 */
+	static CompiledExpression balance(CompiledExpression expression)
+	{
+		int length = expression.getLength();
+		if(expression.getTemporaryCount() > 0)
+			return expression;
+
+		// the operands of every instruction, in the order they are pushed.
+		int[] firstOperands = new int[length + 1];
+		int[] operands = new int[length];
+		int[] parents = new int[length];
+		int[] roots = new int[expression.getMaxStackDepth()];
+		int top = -1;
+		int operandCount = 0;
+		for (int i = 0; i < length; i++)
+		{
+			int arity = expression.getArity(i);
+			firstOperands[i] = operandCount;
+			top -= arity;
+			for (int operand = top + 1; operand <= top + arity; operand++)
+			{
+				operands[operandCount++] = roots[operand];
+				parents[roots[operand]] = i;
+			}
+			roots[++top] = i;
+		}
+		firstOperands[length] = operandCount;
+		parents[length - 1] = -1;
+
+		// the root of a chain is an operator of a chain whose parent is of another kind,
+		// its terms are collected from the left with the sign they are added with.
+		int[] chainStarts = new int[length];
+		int[] chainEnds = new int[length];
+		int[] terms = new int[length];
+		boolean[] negated = new boolean[length];
+		int[] pending = new int[16];
+		int termCount = 0;
+		boolean changed = false;
+		Arrays.fill(chainStarts, -1);
+		for (int i = 0; i < length; i++)
+		{
+			int kind = chainKind(expression.getOpcode(i));
+			if(kind == 0 || (parents[i] >= 0 && chainKind(expression.getOpcode(parents[i])) == kind))
+				continue;
+
+			int first = termCount;
+			int waiting = 0;
+			pending[waiting++] = i << 1;
+			while(waiting > 0)
+			{
+				int entry = pending[--waiting];
+				int node = entry >>> 1;
+				boolean negative = (entry & 1) == 1;
+				if(chainKind(expression.getOpcode(node)) != kind)
+				{
+					terms[termCount] = node;
+					negated[termCount++] = negative;
+					continue;
+				}
+				if(waiting + 2 > pending.length)
+					pending = Arrays.copyOf(pending, pending.length * 2);
+				int left = operands[firstOperands[node]];
+				int right = operands[firstOperands[node] + 1];
+				boolean subtracted = expression.getOpcode(node) == CompiledExpression.SUBTRACT;
+				pending[waiting++] = right << 1 | (negative != subtracted ? 1 : 0);
+				pending[waiting++] = left << 1 | (negative ? 1 : 0);
+			}
+			if(termCount - first > 2)
+			{
+				chainStarts[i] = first;
+				chainEnds[i] = termCount;
+				changed = true;
+			}
+			else
+			{
+				termCount = first;
+			}
+		}
+		if(!changed)
+			return expression;
+
+		// writes the tree back in reverse polish notation, a chain as the halves of its terms.
+		byte[] opcodes = new byte[length * 2];
+		BigDecimal[] numbers = new BigDecimal[length * 2];
+		int[] slots = new int[length * 2];
+		int written = 0;
+		int[] work = new int[48];
+		int waiting = 0;
+		work[waiting++] = WRITE_NODE;
+		work[waiting++] = length - 1;
+		work[waiting++] = 0;
+		while(waiting > 0)
+		{
+			waiting -= 3;
+			int action = work[waiting];
+			int a = work[waiting + 1];
+			int b = work[waiting + 2];
+			if(waiting + 9 > work.length)
+				work = Arrays.copyOf(work, work.length * 2);
+			switch (action)
+			{
+			case WRITE_NODE:
+				if(chainStarts[a] >= 0)
+				{
+					work[waiting++] = WRITE_TERMS;
+					work[waiting++] = chainStarts[a];
+					work[waiting++] = chainEnds[a];
+					break;
+				}
+				work[waiting++] = WRITE_INSTRUCTION;
+				work[waiting++] = a;
+				work[waiting++] = 0;
+				for (int operand = firstOperands[a + 1] - 1; operand >= firstOperands[a]; operand--)
+				{
+					if(waiting + 3 > work.length)
+						work = Arrays.copyOf(work, work.length * 2);
+					work[waiting++] = WRITE_NODE;
+					work[waiting++] = operands[operand];
+					work[waiting++] = 0;
+				}
+				break;
+			case WRITE_INSTRUCTION:
+				opcodes[written] = a < 0 ? (byte) -(a + 1) : expression.getOpcode(a);
+				numbers[written] = a < 0 ? null : expression.getOperand(a);
+				slots[written++] = a < 0 ? 0 : expression.getSlot(a);
+				break;
+			default:
+				// the terms from a to b, written as two halves and the operator of the chain.
+				if(b - a == 1)
+				{
+					if(negated[a])
+					{
+						work[waiting++] = WRITE_INSTRUCTION;
+						work[waiting++] = -(CompiledExpression.NEGATE + 1);
+						work[waiting++] = 0;
+					}
+					work[waiting++] = WRITE_NODE;
+					work[waiting++] = terms[a];
+					work[waiting++] = 0;
+					break;
+				}
+				// the parent of a term is an operator of its chain.
+				int middle = (a + b) >>> 1;
+				boolean product = chainKind(expression.getOpcode(parents[terms[a]])) == MULTIPLICATIONS;
+				byte operator = product ? CompiledExpression.MULTIPLY : CompiledExpression.ADD;
+				work[waiting++] = WRITE_INSTRUCTION;
+				work[waiting++] = -(operator + 1);
+				work[waiting++] = 0;
+				work[waiting++] = WRITE_TERMS;
+				work[waiting++] = middle;
+				work[waiting++] = b;
+				work[waiting++] = WRITE_TERMS;
+				work[waiting++] = a;
+				work[waiting++] = middle;
+				break;
+			}
+		}
+		return new CompiledExpression(Arrays.copyOf(opcodes, written), Arrays.copyOf(numbers, written),
+				Arrays.copyOf(slots, written), expression.getVariables(), expression.getFunctionNames(), expression.getFunctions(), 0);
+	}
+
+	/**
+	 * Gives back the kind of chain an operator belongs to, 0 if it is not associative.
+	 */
+	private static int chainKind(byte opcode)
+	{
+		switch (opcode)
+		{
+		case CompiledExpression.ADD:
+		case CompiledExpression.SUBTRACT:
+			return ADDITIONS;
+		case CompiledExpression.MULTIPLY:
+			return MULTIPLICATIONS;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * The chunks of an expression: the largest subexpressions that are
+	 * not bigger than the threshold.
+	 */
+	private static final class Chunks
+	{
+		private final CompiledExpression expression;
+		private final int[] starts;
+		private final int[] ends;
+
+		Chunks(CompiledExpression expression, int threshold)
+		{
+			this.expression = expression;
+			int length = expression.getLength();
+			if(expression.getTemporaryCount() > 0)
+			{
+				starts = new int[] {0};
+				ends = new int[] {length - 1};
+				return;
+			}
+
+			int[] firsts = new int[length];
+			int[] parents = new int[length];
+			int[] roots = new int[expression.getMaxStackDepth()];
+			int top = -1;
+
+			// finds the first instruction and the parent of every subexpression.
+			for (int i = 0; i < length; i++)
+			{
+				int arity = expression.getArity(i);
+				if(arity == 0)
+				{
+					firsts[i] = i;
+					roots[++top] = i;
+				}
+				else
+				{
+					top -= arity - 1;
+					for (int operand = top; operand < top + arity; operand++)
+					{
+						parents[roots[operand]] = i;
+					}
+					firsts[i] = firsts[roots[top]];
+					roots[top] = i;
+				}
+			}
+			parents[length - 1] = -1;
+
+			// a chunk is a subexpression small enough whose parent is too big.
+			int[] chunkEnds = new int[length];
+			int chunkCount = 0;
+			for (int i = 0; i < length; i++)
+			{
+				if(i - firsts[i] < threshold && (parents[i] < 0 || parents[i] - firsts[parents[i]] >= threshold))
+					chunkEnds[chunkCount++] = i;
+			}
+
+			ends = Arrays.copyOf(chunkEnds, chunkCount);
+			starts = new int[chunkCount];
+			for (int chunk = 0; chunk < chunkCount; chunk++)
+			{
+				starts[chunk] = firsts[ends[chunk]];
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a range of chunks, splitting it in two while it
+	 * holds more instructions than the threshold.
+	 */
+	private final class ChunkTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Chunks chunks;
+		private final BigDecimal[] row;
+		private final PrecisionPolicy policy;
+		private final BigDecimal[] results;
+		private final AtomicReference<InfixQueueIllegalStateException> error;
+		private final int from;
+		private final int to;
+
+		ChunkTask(Chunks chunks, BigDecimal[] row, PrecisionPolicy policy, BigDecimal[] results,
+				AtomicReference<InfixQueueIllegalStateException> error, int from, int to)
+		{
+			this.chunks = chunks;
+			this.row = row;
+			this.policy = policy;
+			this.results = results;
+			this.error = error;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			int[] starts = chunks.starts;
+			int[] ends = chunks.ends;
+			if(to - from > 1 && ends[to - 1] - starts[from] >= threshold)
+			{
+				// splits where half of the instructions are on each side.
+				int middle = Arrays.binarySearch(starts, from, to, (starts[from] + ends[to - 1]) >>> 1);
+				if(middle < 0)
+					middle = -middle - 1;
+				middle = Math.min(Math.max(middle, from + 1), to - 1);
+				invokeAll(new ChunkTask(chunks, row, policy, results, error, from, middle),
+						new ChunkTask(chunks, row, policy, results, error, middle, to));
+				return;
+			}
+
+			for (int chunk = from; chunk < to && error.get() == null; chunk++)
+			{
+				try
+				{
+					results[chunk] = chunks.expression.evaluateRange(row, starts[chunk], ends[chunk], policy);
+				}
+				catch(InfixQueueIllegalStateException e)
+				{
+					error.compareAndSet(null, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * The functions that can be called by name in an expression. The default registry holds
+ * min, max and sqrt, and a registry with more functions is made with withFunction. A
+ * registry never changes once it is made, so it can be shared between threads, and a
+ * compiled expression keeps the functions it calls so registering a function again does
+ * not change an expression that is already compiled.
+ */
+public final class FunctionRegistry
+{
+	/**
+	 * The smaller of two numbers.
+	 */
+	public static final MathFunction MIN = new MathFunction()
+	{
+		@Override
+		public int getArity()
+		{
+			return 2;
+		}
+
+		@Override
+		public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy)
+		{
+			return arguments[0].compareTo(arguments[1]) <= 0 ? arguments[0] : arguments[1];
+		}
+	};
+
+	/**
+	 * The larger of two numbers.
+	 */
+	public static final MathFunction MAX = new MathFunction()
+	{
+		@Override
+		public int getArity()
+		{
+			return 2;
+		}
+
+		@Override
+		public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy)
+		{
+			return arguments[0].compareTo(arguments[1]) >= 0 ? arguments[0] : arguments[1];
+		}
+	};
+
+	/**
+	 * The square root of a number that is not negative, rounded like a quotient.
+	 */
+	public static final MathFunction SQRT = new MathFunction()
+	{
+		@Override
+		public int getArity()
+		{
+			return 1;
+		}
+
+		@Override
+		public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+		{
+			return squareRoot(arguments[0], policy);
+		}
+	};
+
+	/**
+	 * The registry of the functions that come with the Expression parser.
+	 */
+	public static final FunctionRegistry DEFAULT = new FunctionRegistry(new HashMap<String, MathFunction>())
+			.withFunction("min", MIN).withFunction("max", MAX).withFunction("sqrt", SQRT);
+
+	private final Map<String, MathFunction> functions;
+
+	private FunctionRegistry(Map<String, MathFunction> functions)
+	{
+		this.functions = functions;
+	}
+
+	/**
+	 * Gives back a registry with the functions of this one and one more,
+	 * a function with the same name is replaced.
+	 *
+	 * @param name - the name the function is called by, like a variable name.
+	 * @param function - the function.
+	 * @return the new registry.
+	 */
+	public FunctionRegistry withFunction(String name, MathFunction function)
+	{
+		if(!InfixConverter.isValidVariableName(name))
+			throw new IllegalArgumentException(name + " is not a valid function name");
+		if(function == null)
+			throw new IllegalArgumentException("The function cannot be null");
+		if(function.getArity() < 1)
+			throw new IllegalArgumentException("A function must take at least one argument");
+
+		Map<String, MathFunction> copy = new HashMap<String, MathFunction>(functions);
+		copy.put(name, function);
+		return new FunctionRegistry(copy);
+	}
+
+	/**
+	 * Finds a function by its name.
+	 * @param name - the name of the function.
+	 * @return the function or null if there is none with that name.
+	 */
+	public MathFunction getFunction(String name)
+	{
+		return functions.get(name);
+	}
+
+	/**
+	 * Gives back the names of every function of the registry.
+	 * @return the names.
+	 */
+	public Set<String> getNames()
+	{
+		return Collections.unmodifiableSet(functions.keySet());
+	}
+
+	/**
+	 * Computes a square root with Newton's method, then finds the largest number at the
+	 * scale of the answer whose square is not bigger than the number, and compares the
+	 * square of the number half way to the next one to round the root only once, to the
+	 * division scale of the policy or to its math context.
+	 *
+	 * @param value - the number.
+	 * @param policy - how precise the answer is.
+	 * @return the square root.
+	 * @throws InfixQueueIllegalStateException - if the number is negative.
+	 */
+	private static BigDecimal squareRoot(BigDecimal value, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+	{
+		if(value.signum() < 0)
+			throw new InfixQueueIllegalStateException(ErrorCode.INVALID_OPERAND, "the square root of " + value.toPlainString()
+					+ " is not a real number.", -1);
+		if(value.signum() == 0)
+			return policy.round(BigDecimal.ZERO.setScale(policy.getDivisionScale()));
+
+		// the root has half as many digits before the decimal point as the number.
+		int integerDigits = value.precision() - value.scale();
+		int rootDigits = (integerDigits + 1) / 2;
+		int precision = Math.max(rootDigits, 1) + policy.getDivisionScale() + 2;
+		precision = Math.max(precision, policy.getMathContext().getPrecision() + 2);
+		MathContext context = new MathContext(precision);
+
+		BigDecimal two = BigDecimal.valueOf(2);
+		BigDecimal root = BigDecimal.ONE.scaleByPowerOfTen(rootDigits);
+		BigDecimal previous = null;
+		// the guess is within a factor of ten, so this converges long before the limit.
+		for (int i = 0; i < 100 && !root.equals(previous); i++)
+		{
+			previous = root;
+			root = root.add(value.divide(root, context)).divide(two, context);
+		}
+
+		int scale = rootScale(root, policy);
+		BigDecimal floor = floor(value, root, scale);
+		// the approximation can have one digit more or less before the decimal point.
+		if(floor.signum() > 0 && rootScale(floor, policy) != scale)
+		{
+			scale = rootScale(floor, policy);
+			floor = floor(value, root, scale);
+		}
+
+		BigDecimal square = floor.multiply(floor);
+		if(square.compareTo(value) != 0)
+		{
+			// a number on the same side of half way as the root is rounded like the root.
+			BigDecimal half = floor.add(BigDecimal.valueOf(5, scale + 1));
+			int side = value.compareTo(half.multiply(half));
+			root = side == 0 ? half : floor.add(BigDecimal.valueOf(side < 0 ? 25 : 75, scale + 2));
+		}
+		else
+			root = floor;
+		return policy.round(root.setScale(scale, policy.getRoundingMode()));
+	}
+
+	/**
+	 * Gives back the scale a root is rounded to, the division scale of the
+	 * policy or less when the math context keeps fewer digits.
+	 */
+	private static int rootScale(BigDecimal root, PrecisionPolicy policy)
+	{
+		if(!policy.isLimited())
+			return policy.getDivisionScale();
+		return Math.min(policy.getDivisionScale(), policy.getMathContext().getPrecision() - (root.precision() - root.scale()));
+	}
+
+	/**
+	 * Gives back the largest number at a scale whose square is not bigger
+	 * than the value, starting from an approximation of the root.
+	 */
+	private static BigDecimal floor(BigDecimal value, BigDecimal root, int scale)
+	{
+		BigDecimal step = BigDecimal.valueOf(1, scale);
+		BigDecimal floor = root.setScale(scale, RoundingMode.DOWN);
+		while(floor.multiply(floor).compareTo(value) > 0)
+		{
+			floor = floor.subtract(step);
+		}
+		BigDecimal next = floor.add(step);
+		while(next.multiply(next).compareTo(value) <= 0)
+		{
+			floor = next;
+			next = floor.add(step);
+		}
+		return floor;
+	}
+}
@@ -0,0 +1,408 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * A compiled expression that remembers the answer of every subexpression, so that when
+ * a variable changes only the subexpressions that depend on it are evaluated again. For
+ * an expression with many variables an update costs about the depth of the expression
+ * instead of its size.
+ *
+ * The graph is built from the reverse polish instructions: every instruction is a node
+ * whose operands are the instructions that pushed them. In reverse polish notation an
+ * operand always comes before its operator, so evaluating dirty nodes in instruction
+ * order evaluates every node after its operands. A subexpression shared through STORE
+ * and RECALL by an optimized expression is a node with more than one dependent. A node
+ * whose answer does not change does not make its dependents dirty.
+ *
+ * An error, like a division by zero, is remembered as the answer of its node and of the
+ * nodes above it, and is thrown when the answer is asked for.
+ *
+ * An incremental expression changes with every update, it must not be shared between threads.
+ */
+public final class IncrementalExpression implements Evaluator
+{
+	private final CompiledExpression expression;
+	private final PrecisionPolicy policy;
+	private final BigDecimal[] row;
+	private final int root;
+
+	// the operands of node i are operands[operandStarts[i]] to operands[operandStarts[i + 1] - 1].
+	private final int[] operandStarts;
+	private final int[] operands;
+	// the nodes that use node i are dependents[dependentStarts[i]] to dependents[dependentStarts[i + 1] - 1].
+	private final int[] dependentStarts;
+	private final int[] dependents;
+	// the LOAD nodes of slot s are loads[loadStarts[s]] to loads[loadStarts[s + 1] - 1].
+	private final int[] loadStarts;
+	private final int[] loads;
+
+	private final BigDecimal[] values;
+	private final InfixQueueIllegalStateException[] errors;
+	private final BigDecimal[] arguments;
+
+	// the dirty nodes, a min heap of instruction indexes.
+	private final int[] heap;
+	private final boolean[] queued;
+	private int heapSize;
+	private int recomputedCount;
+
+	/***
+	 * Construct an incremental expression and evaluate it for the
+	 * first values of its variables, with the default precision policy.
+	 *
+	 * @param expression - the compiled expression.
+	 * @param row - the first value of each variable, in slot order.
+	 */
+	public IncrementalExpression(CompiledExpression expression, BigDecimal[] row)
+	{
+		this(expression, row, PrecisionPolicy.DEFAULT);
+	}
+
+	/***
+	 * Construct an incremental expression and evaluate it for the
+	 * first values of its variables.
+	 *
+	 * @param expression - the compiled expression.
+	 * @param row - the first value of each variable, in slot order.
+	 * @param policy - how precise the answers are.
+	 */
+	public IncrementalExpression(CompiledExpression expression, BigDecimal[] row, PrecisionPolicy policy)
+	{
+		if(expression == null)
+			throw new IllegalArgumentException("The expression cannot be null");
+		if(policy == null)
+			throw new IllegalArgumentException("The precision policy cannot be null");
+		checkRow(expression, row);
+
+		this.expression = expression;
+		this.policy = policy;
+		this.row = row.clone();
+
+		int length = expression.getLength();
+		operandStarts = new int[length + 1];
+		int[] edges = new int[2 * length];
+		int edgeCount = 0;
+		int[] stack = new int[Math.max(expression.getMaxStackDepth(), 1)];
+		int[] stored = new int[expression.getTemporaryCount()];
+		int top = -1;
+		int maxArity = 1;
+
+		// finds the instructions that pushed the operands of every instruction.
+		for (int i = 0; i < length; i++)
+		{
+			operandStarts[i] = edgeCount;
+			switch (expression.getOpcode(i))
+			{
+			case CompiledExpression.PUSH:
+			case CompiledExpression.LOAD:
+				stack[++top] = i;
+				break;
+			case CompiledExpression.STORE:
+				stored[expression.getSlot(i)] = stack[top];
+				break;
+			case CompiledExpression.RECALL:
+				edges[edgeCount++] = stored[expression.getSlot(i)];
+				stack[++top] = i;
+				break;
+			default:
+				int arity = expression.getArity(i);
+				maxArity = Math.max(maxArity, arity);
+				top -= arity - 1;
+				for (int operand = top; operand < top + arity; operand++)
+				{
+					edges[edgeCount++] = stack[operand];
+				}
+				stack[top] = i;
+			}
+		}
+		operandStarts[length] = edgeCount;
+		operands = Arrays.copyOf(edges, edgeCount);
+		root = stack[top];
+
+		// turns the operands around to find the dependents of every node.
+		dependentStarts = new int[length + 1];
+		for (int operand : operands)
+		{
+			dependentStarts[operand + 1]++;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			dependentStarts[i + 1] += dependentStarts[i];
+		}
+		dependents = new int[edgeCount];
+		int[] next = Arrays.copyOf(dependentStarts, length);
+		for (int i = 0; i < length; i++)
+		{
+			for (int edge = operandStarts[i]; edge < operandStarts[i + 1]; edge++)
+			{
+				dependents[next[operands[edge]]++] = i;
+			}
+		}
+
+		int slotCount = expression.getVariableCount();
+		loadStarts = new int[slotCount + 1];
+		for (int i = 0; i < length; i++)
+		{
+			if(expression.getOpcode(i) == CompiledExpression.LOAD)
+				loadStarts[expression.getSlot(i) + 1]++;
+		}
+		for (int slot = 0; slot < slotCount; slot++)
+		{
+			loadStarts[slot + 1] += loadStarts[slot];
+		}
+		loads = new int[loadStarts[slotCount]];
+		next = Arrays.copyOf(loadStarts, slotCount);
+		for (int i = 0; i < length; i++)
+		{
+			if(expression.getOpcode(i) == CompiledExpression.LOAD)
+				loads[next[expression.getSlot(i)]++] = i;
+		}
+
+		values = new BigDecimal[length];
+		errors = new InfixQueueIllegalStateException[length];
+		arguments = new BigDecimal[maxArity];
+		heap = new int[length];
+		queued = new boolean[length];
+
+		for (int i = 0; i < length; i++)
+		{
+			if(expression.getOpcode(i) != CompiledExpression.STORE)
+				compute(i);
+		}
+		recomputedCount = length;
+	}
+
+	/**
+	 * Gives back the expression the graph was built from.
+	 * @return the compiled expression.
+	 */
+	public CompiledExpression getExpression()
+	{
+		return expression;
+	}
+
+	/**
+	 * Gives back the current value of a variable.
+	 * @param slot - the slot of the variable.
+	 * @return the value.
+	 */
+	public BigDecimal getValue(int slot)
+	{
+		checkSlot(slot);
+		return row[slot];
+	}
+
+	/**
+	 * Changes the value of a variable and evaluates again the
+	 * subexpressions that depend on it.
+	 *
+	 * @param slot - the slot of the variable.
+	 * @param value - the new value.
+	 */
+	public void set(int slot, BigDecimal value)
+	{
+		checkSlot(slot);
+		if(value == null)
+			throw new IllegalArgumentException("The value cannot be null");
+
+		recomputedCount = 0;
+		if(change(slot, value))
+			update();
+	}
+
+	/**
+	 * Gives back the answer for the current values of the variables.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	public BigDecimal evaluate() throws InfixQueueIllegalStateException
+	{
+		if(errors[root] != null)
+			throw errors[root];
+		return values[root].stripTrailingZeros();
+	}
+
+	/**
+	 * Changes the variables whose value is different in the row passed in and
+	 * gives back the answer, evaluating only the subexpressions that depend on them.
+	 *
+	 * @param row - the value of each variable, in slot order.
+	 * @return - the answer.
+	 * @throws InfixQueueIllegalStateException - if the expression divides by zero.
+	 */
+	@Override
+	public BigDecimal evaluate(BigDecimal[] row) throws InfixQueueIllegalStateException
+	{
+		checkRow(expression, row);
+
+		recomputedCount = 0;
+		boolean changed = false;
+		for (int slot = 0; slot < row.length; slot++)
+		{
+			changed |= change(slot, row[slot]);
+		}
+		if(changed)
+			update();
+		return evaluate();
+	}
+
+	/**
+	 * Gives back how many instructions the last change evaluated again.
+	 * @return the amount of instructions.
+	 */
+	public int getRecomputedCount()
+	{
+		return recomputedCount;
+	}
+
+	/**
+	 * Stores the new value of a variable and makes the instructions
+	 * that load it dirty.
+	 *
+	 * @return true if the value is different.
+	 */
+	private boolean change(int slot, BigDecimal value)
+	{
+		if(value.equals(row[slot]))
+			return false;
+
+		row[slot] = value;
+		for (int load = loadStarts[slot]; load < loadStarts[slot + 1]; load++)
+		{
+			push(loads[load]);
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluates the dirty nodes in instruction order, a node
+	 * whose answer changes makes its dependents dirty.
+	 */
+	private void update()
+	{
+		while(heapSize > 0)
+		{
+			int node = poll();
+			recomputedCount++;
+			if(compute(node))
+			{
+				for (int dependent = dependentStarts[node]; dependent < dependentStarts[node + 1]; dependent++)
+				{
+					push(dependents[dependent]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a node from the answers of its operands.
+	 *
+	 * @return true if the answer or the error of the node changed.
+	 */
+	private boolean compute(int node)
+	{
+		BigDecimal value = null;
+		InfixQueueIllegalStateException error = null;
+		switch (expression.getOpcode(node))
+		{
+		case CompiledExpression.PUSH:
+			value = expression.getOperand(node);
+			break;
+		case CompiledExpression.LOAD:
+			value = row[expression.getSlot(node)];
+			break;
+		case CompiledExpression.RECALL:
+			value = values[operands[operandStarts[node]]];
+			error = errors[operands[operandStarts[node]]];
+			break;
+		default:
+			int first = operandStarts[node];
+			int arity = operandStarts[node + 1] - first;
+			for (int argument = 0; argument < arity && error == null; argument++)
+			{
+				arguments[argument] = values[operands[first + argument]];
+				error = errors[operands[first + argument]];
+			}
+			if(error == null)
+			{
+				try
+				{
+					expression.apply(node, arguments, arity - 1, policy);
+					value = arguments[0];
+				}
+				catch(InfixQueueIllegalStateException e)
+				{
+					error = e;
+				}
+			}
+		}
+
+		boolean changed = error != errors[node] || (value == null ? values[node] != null : !value.equals(values[node]));
+		values[node] = value;
+		errors[node] = error;
+		return changed;
+	}
+
+	private void push(int node)
+	{
+		if(queued[node])
+			return;
+		queued[node] = true;
+
+		int child = heapSize++;
+		while(child > 0)
+		{
+			int parent = (child - 1) >>> 1;
+			if(heap[parent] <= node)
+				break;
+			heap[child] = heap[parent];
+			child = parent;
+		}
+		heap[child] = node;
+	}
+
+	private int poll()
+	{
+		int first = heap[0];
+		int last = heap[--heapSize];
+		int parent = 0;
+		while(true)
+		{
+			int child = 2 * parent + 1;
+			if(child >= heapSize)
+				break;
+			if(child + 1 < heapSize && heap[child + 1] < heap[child])
+				child++;
+			if(last <= heap[child])
+				break;
+			heap[parent] = heap[child];
+			parent = child;
+		}
+		heap[parent] = last;
+		queued[first] = false;
+		return first;
+	}
+
+	private void checkSlot(int slot)
+	{
+		if(slot < 0 || slot >= row.length)
+			throw new IllegalArgumentException("There is no variable in slot " + slot);
+	}
+
+	private static void checkRow(CompiledExpression expression, BigDecimal[] row)
+	{
+		if(row == null || row.length != expression.getVariableCount())
+			throw new IllegalArgumentException("The row must contain " + expression.getVariableCount() + " values");
+		for (BigDecimal value : row)
+		{
+			if(value == null)
+				throw new IllegalArgumentException("The row cannot contain null values");
+		}
+	}
+}
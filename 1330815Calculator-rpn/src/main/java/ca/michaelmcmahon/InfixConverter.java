@@ -0,0 +1,487 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Validates an infix mathematical expression and converts it into reverse polish
+ * notation using the shunting-yard algorithm. The items of the expression are given
+ * one at a time, so a converter is the scratch space of a single conversion: it is
+ * created for one expression and is not shared between threads.
+ *
+ * Each item is validated in the same pass that converts it: a table gives the error,
+ * if any, of every kind of item following every other kind, and the position of every
+ * opening parenthesis that is not closed yet is kept so that a parenthesis without a
+ * match is reported where it is.
+ *
+ * The operator stack and what is kept for the open parentheses are arrays that double
+ * when they are full. An opening parenthesis is not pushed, the height of the operator
+ * stack when it opened is kept instead, so every item is pushed and popped at most once
+ * and the conversion takes a time linear in the length of the expression however deep
+ * its parentheses are nested.
+ */
+final class InfixConverter
+{
+	// the kinds of items that come before an item, START is before the first one.
+	private static final int START = 0;
+	private static final int OPERAND = 1;
+	private static final int OPERATOR = 2;
+	private static final int PREFIX = 3;
+	private static final int FUNCTION = 4;
+	private static final int LEFT_PARENTHESIS = 5;
+	private static final int RIGHT_PARENTHESIS = 6;
+	private static final int COMMA = 7;
+
+	/**
+	 * The error of an item of a kind following an item of another kind, indexed by
+	 * the kind before it and then by its own kind, null if it can follow it.
+	 */
+	private static final ErrorCode[][] FOLLOWING = {
+		// OPERAND, OPERATOR, PREFIX, FUNCTION, LEFT_PARENTHESIS, RIGHT_PARENTHESIS, COMMA
+		{null, ErrorCode.LEADING_OPERATOR, null, null, null, ErrorCode.UNMATCHED_CLOSING_PARENTHESIS, ErrorCode.MISPLACED_COMMA},
+		{ErrorCode.CONSECUTIVE_OPERANDS, null, null, ErrorCode.CONSECUTIVE_OPERANDS, ErrorCode.OPERAND_BEFORE_PARENTHESIS, null, null},
+		{null, ErrorCode.CONSECUTIVE_OPERATORS, null, null, null, ErrorCode.OPERATOR_BEFORE_PARENTHESIS, ErrorCode.MISPLACED_COMMA},
+		{null, ErrorCode.CONSECUTIVE_OPERATORS, null, null, null, ErrorCode.OPERATOR_BEFORE_PARENTHESIS, ErrorCode.MISPLACED_COMMA},
+		{ErrorCode.MISSING_FUNCTION_PARENTHESIS, ErrorCode.MISSING_FUNCTION_PARENTHESIS, ErrorCode.MISSING_FUNCTION_PARENTHESIS,
+			ErrorCode.MISSING_FUNCTION_PARENTHESIS, null, ErrorCode.MISSING_FUNCTION_PARENTHESIS, ErrorCode.MISSING_FUNCTION_PARENTHESIS},
+		{null, ErrorCode.OPERATOR_AFTER_PARENTHESIS, null, null, null, ErrorCode.EMPTY_PARENTHESES, ErrorCode.MISPLACED_COMMA},
+		{ErrorCode.OPERAND_AFTER_PARENTHESIS, null, null, ErrorCode.OPERAND_AFTER_PARENTHESIS, ErrorCode.OPERAND_AFTER_PARENTHESIS, null, null},
+		{null, ErrorCode.MISPLACED_COMMA, null, null, null, ErrorCode.MISPLACED_COMMA, ErrorCode.MISPLACED_COMMA}
+	};
+
+	/**
+	 * The error of an expression ending after an item of each kind.
+	 */
+	private static final ErrorCode[] ENDING = {
+		ErrorCode.EMPTY_EXPRESSION, null, ErrorCode.TRAILING_OPERATOR, ErrorCode.TRAILING_OPERATOR,
+		ErrorCode.MISSING_FUNCTION_PARENTHESIS, ErrorCode.UNCLOSED_PARENTHESIS, null, ErrorCode.MISPLACED_COMMA
+	};
+
+	private final String[] variableNames;
+	private final Map<String, Integer> variables;
+	private final FunctionRegistry functions;
+	private final List<Token> postfix = new ArrayList<Token>();
+	private Token[] operatorStack = new Token[16];
+	private int operatorCount;
+	private int last = START;
+	// for each opening parenthesis not closed yet: where it is, the height of the
+	// operator stack when it opened, the function it calls or null, and how many
+	// arguments have been started.
+	private int[] openParentheses = new int[8];
+	private int[] floors = new int[8];
+	private MathFunction[] calls = new MathFunction[8];
+	private int[] argumentCounts = new int[8];
+	private int depth;
+
+	/***
+	 * Construct a converter for an expression that can call the default functions.
+	 *
+	 * @param variableNames - the names of the variables, in slot order.
+	 */
+	InfixConverter(String... variableNames)
+	{
+		this(FunctionRegistry.DEFAULT, variableNames);
+	}
+
+	/***
+	 * Construct a converter for an expression.
+	 *
+	 * @param functions - the functions the expression can call.
+	 * @param variableNames - the names of the variables, in slot order.
+	 */
+	InfixConverter(FunctionRegistry functions, String... variableNames)
+	{
+		if(functions == null)
+			throw new IllegalArgumentException("The function registry cannot be null");
+		this.functions = functions;
+		this.variableNames = variableNames;
+		this.variables = declareVariables(variableNames);
+	}
+
+	/**
+	 * Gives back the slot of each variable name.
+	 *
+	 * @param variableNames - the names of the variables, in slot order.
+	 * @return the slot of each name.
+	 */
+	private static Map<String, Integer> declareVariables(String... variableNames)
+	{
+		if(variableNames.length == 0)
+			return Collections.emptyMap();
+
+		Map<String, Integer> variables = new HashMap<String, Integer>();
+		for (int i = 0; i < variableNames.length; i++)
+		{
+			if(!isValidVariableName(variableNames[i]))
+				throw new IllegalArgumentException(variableNames[i] + " is not a valid variable name");
+			if(variables.put(variableNames[i], i) != null)
+				throw new IllegalArgumentException("The variable " + variableNames[i] + " is declared more than once");
+		}
+		return variables;
+	}
+
+	/**
+	 * Gives back the names of the declared variables.
+	 * @return the variable names, in slot order.
+	 */
+	String[] getVariableNames()
+	{
+		return variableNames;
+	}
+
+	/**
+	 * Converts a whole infix expression.
+	 *
+	 * @param infix - the items of the expression.
+	 * @return the expression in reverse polish notation.
+	 * @throws InfixQueueIllegalStateException - if the infix is not in a valid form.
+	 */
+	List<Token> convert(Iterable<String> infix) throws InfixQueueIllegalStateException
+	{
+		int position = 0;
+		for (String item : infix)
+		{
+			accept(classify(item, position), position);
+			position++;
+		}
+		return finish(position);
+	}
+
+	/**
+	 * Determines if the item passed is a valid
+	 * integer number or floating point number.
+	 * @param item
+	 * @return true if it is a valid number.
+	 */
+	private static boolean isNumber(String item)
+	{
+		boolean result = true;
+
+		int charsLength = item.length();
+
+		if(charsLength == 0 || item.charAt(0) == '.' || item.charAt(charsLength -1) == '.')
+			return false;
+
+		int dotCount = 0 ;
+
+		for (int i = 0; i < charsLength; i++)
+		{
+			char c = item.charAt(i);
+			if(c == '.')
+			{
+				if(dotCount >= 1)
+				{
+					result = false;
+					break;
+				}
+				else
+					dotCount++;
+			}
+			else if(!Character.isDigit(c))
+			{
+				result = false;
+				break;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Determines if the item passed can be the name
+	 * of a variable: a letter or an underscore followed
+	 * by letters, digits or underscores.
+	 * @param item
+	 * @return true if it is a valid name.
+	 */
+	static boolean isValidVariableName(String item)
+	{
+		if(item == null || item.isEmpty() || !(Character.isLetter(item.charAt(0)) || item.charAt(0) == '_'))
+			return false;
+
+		for (int i = 1; i < item.length(); i++)
+		{
+			char c = item.charAt(i);
+			if(!Character.isLetterOrDigit(c) && c != '_')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Classifies an item of the infix queue. Numbers are parsed
+	 * here so that they never have to be parsed again and variables
+	 * are resolved to their slot.
+	 *
+	 * @param item - the item of the infix queue.
+	 * @param position - the index of the item in the queue.
+	 * @return the token for the item.
+	 * @throws InfixQueueIllegalStateException - if the item is not an operator, a parenthesis, a comma,
+	 * a declared variable, a function or a valid number.
+	 */
+	private Token classify(String item, int position) throws InfixQueueIllegalStateException
+	{
+		Operator operator = Operator.fromSymbol(item);
+		if(operator != null)
+			return Token.operator(operator);
+		if(item.equals("("))
+			return Token.LEFT_PARENTHESIS;
+		if(item.equals(")"))
+			return Token.RIGHT_PARENTHESIS;
+		if(item.equals(","))
+			return Token.COMMA;
+		Integer slot = variables.get(item);
+		if(slot != null)
+			return Token.variable(item, slot);
+		if(isValidVariableName(item))
+			return function(item, position);
+		if(!isNumber(item))
+			throw new InfixQueueIllegalStateException(ErrorCode.INVALID_NUMBER, position);
+		return Token.number(item, new BigDecimal(item));
+	}
+
+	/**
+	 * Finds a function of the registry by its name.
+	 *
+	 * @param name - the name of the function.
+	 * @param position - where the name is in the expression.
+	 * @return the token for the function.
+	 * @throws InfixQueueIllegalStateException - if there is no function with that name.
+	 */
+	private Token function(String name, int position) throws InfixQueueIllegalStateException
+	{
+		MathFunction function = functions.getFunction(name);
+		if(function == null)
+			throw new InfixQueueIllegalStateException(ErrorCode.UNDECLARED_VARIABLE, name + " is not a declared variable.", position);
+		return Token.function(name, function);
+	}
+
+	/**
+	 * Resolves a name read from text, a variable is matched without
+	 * creating a String for it.
+	 *
+	 * @param source - the text of the expression.
+	 * @param start - the offset of the first character of the name.
+	 * @param end - the offset after the last character of the name.
+	 * @return the token for the variable or the function.
+	 * @throws InfixQueueIllegalStateException - if the name is not a declared variable or a function.
+	 */
+	Token identifier(CharSequence source, int start, int end) throws InfixQueueIllegalStateException
+	{
+		int length = end - start;
+		for (int slot = 0; slot < variableNames.length; slot++)
+		{
+			String name = variableNames[slot];
+			if(name.length() != length)
+				continue;
+			int i = 0;
+			while(i < length && name.charAt(i) == source.charAt(start + i))
+				i++;
+			if(i == length)
+				return Token.variable(name, slot);
+		}
+		return function(source.subSequence(start, end).toString(), start);
+	}
+
+	/**
+	 * Validates the next item of the expression against the one before
+	 * it and moves it to the postfix output or the operator stack. A minus
+	 * sign where an operand is expected is a NEGATE.
+	 *
+	 * @param item - the next item of the expression.
+	 * @param position - where the item is in the expression.
+	 * @throws InfixQueueIllegalStateException - if the item cannot follow the one before it.
+	 */
+	void accept(Token item, int position) throws InfixQueueIllegalStateException
+	{
+		int kind;
+		switch (item.getType())
+		{
+		case OPERATOR:
+			kind = OPERATOR;
+			if(item.getOperator() == Operator.SUBTRACT && last != OPERAND && last != RIGHT_PARENTHESIS)
+			{
+				kind = PREFIX;
+				item = Token.operator(Operator.NEGATE);
+			}
+			break;
+		case FUNCTION:
+			kind = FUNCTION;
+			break;
+		case LEFT_PARENTHESIS:
+			kind = LEFT_PARENTHESIS;
+			break;
+		case RIGHT_PARENTHESIS:
+			kind = RIGHT_PARENTHESIS;
+			break;
+		case COMMA:
+			kind = COMMA;
+			break;
+		default:
+			kind = OPERAND;
+			break;
+		}
+
+		ErrorCode error = FOLLOWING[last][kind - 1];
+		if(error != null)
+			throw new InfixQueueIllegalStateException(error, position);
+
+		switch (kind)
+		{
+		case OPERAND:
+			postfix.add(item);
+			break;
+		case PREFIX:
+		case FUNCTION:
+			// applied once their operand or their arguments are on the output.
+			push(item);
+			break;
+		case LEFT_PARENTHESIS:
+			openParenthesis(position);
+			break;
+		case RIGHT_PARENTHESIS:
+			closeParenthesis(position);
+			break;
+		case COMMA:
+			if(depth == 0 || calls[depth - 1] == null)
+				throw new InfixQueueIllegalStateException(ErrorCode.MISPLACED_COMMA, position);
+			popTo(floors[depth - 1]);
+			argumentCounts[depth - 1]++;
+			break;
+		default:
+			addOperatorToOperatorStack(item.getOperator());
+			break;
+		}
+		last = kind;
+	}
+
+	/**
+	 * Remembers an opening parenthesis and the function it calls, if the item
+	 * before it is a function.
+	 *
+	 * @param position - where the parenthesis is in the expression.
+	 */
+	private void openParenthesis(int position)
+	{
+		if(depth == openParentheses.length)
+		{
+			openParentheses = Arrays.copyOf(openParentheses, depth * 2);
+			floors = Arrays.copyOf(floors, depth * 2);
+			calls = Arrays.copyOf(calls, depth * 2);
+			argumentCounts = Arrays.copyOf(argumentCounts, depth * 2);
+		}
+		openParentheses[depth] = position;
+		floors[depth] = operatorCount;
+		calls[depth] = last == FUNCTION ? operatorStack[operatorCount - 1].getFunction() : null;
+		argumentCounts[depth] = 1;
+		depth++;
+	}
+
+	/**
+	 * Closes the last opening parenthesis, and the call of its function.
+	 *
+	 * @param position - where the closing parenthesis is in the expression.
+	 * @throws InfixQueueIllegalStateException - if no parenthesis is open or the function
+	 * is not given the amount of arguments it takes.
+	 */
+	private void closeParenthesis(int position) throws InfixQueueIllegalStateException
+	{
+		if(depth == 0)
+			throw new InfixQueueIllegalStateException(ErrorCode.UNMATCHED_CLOSING_PARENTHESIS, position);
+		depth--;
+		popTo(floors[depth]);
+
+		MathFunction function = calls[depth];
+		if(function != null)
+		{
+			Token call = operatorStack[--operatorCount];
+			if(argumentCounts[depth] != function.getArity())
+				throw new InfixQueueIllegalStateException(ErrorCode.WRONG_ARGUMENT_COUNT, "the function " + call.getText() + " takes "
+						+ function.getArity() + " arguments but is given " + argumentCounts[depth] + ".", position);
+			postfix.add(call);
+		}
+	}
+
+	/**
+	 * Pushes an operator or a function on the operator stack.
+	 *
+	 * @param item - the operator or the function.
+	 */
+	private void push(Token item)
+	{
+		if(operatorCount == operatorStack.length)
+			operatorStack = Arrays.copyOf(operatorStack, operatorCount * 2);
+		operatorStack[operatorCount++] = item;
+	}
+
+	/**
+	 * Moves the operators above a height of the operator stack to the postfix output.
+	 *
+	 * @param floor - the height the stack is brought down to.
+	 */
+	private void popTo(int floor)
+	{
+		while(operatorCount > floor)
+		{
+			postfix.add(operatorStack[--operatorCount]);
+		}
+	}
+
+	/**
+	 * Ends the expression, the operators left on the stack
+	 * are moved to the postfix output.
+	 *
+	 * @param position - where the expression ends.
+	 * @return the expression in reverse polish notation.
+	 * @throws InfixQueueIllegalStateException - if the expression cannot end after its last item,
+	 * or at the first opening parenthesis that is not closed.
+	 */
+	List<Token> finish(int position) throws InfixQueueIllegalStateException
+	{
+		if(depth > 0)
+			throw new InfixQueueIllegalStateException(ErrorCode.UNCLOSED_PARENTHESIS, openParentheses[0]);
+		if(ENDING[last] != null)
+			throw new InfixQueueIllegalStateException(ENDING[last], position);
+
+		popTo(0);
+		return postfix;
+	}
+
+	/**
+	 * Using the reverse polish notation, the method will
+	 * add the operator to the stack if it is of a higher precedence
+	 * than what is currently on top of the stack.
+	 *
+	 * if this is false the the top of the stack is popped off and
+	 * added to the postfix queue and the operator passed in will
+	 * be added to the top of the stack.
+	 *
+	 * @param operator - a binary operator.
+	 */
+	private void addOperatorToOperatorStack(Operator operator)
+	{
+		// operators of a higher precedence are replaced by the one passed in, and so are
+		// the ones of the same precedence unless the operator groups to the right.
+		// the stack below the last opening parenthesis is not looked at, so a function
+		// waiting for its arguments is never reached.
+		int precedence = operator.getPrecedence();
+		int floor = depth == 0 ? 0 : floors[depth - 1];
+		while(operatorCount > floor)
+		{
+			int top = operatorStack[operatorCount - 1].getOperator().getPrecedence();
+			if(top < precedence || top == precedence && operator.isRightAssociative())
+				break;
+			postfix.add(operatorStack[--operatorCount]);
+		}
+		push(Token.operator(operator));
+	}
+}
@@ -10,8 +10,64 @@ package ca.michaelmcmahon;
  */
 public class InfixQueueIllegalStateException extends Exception
 {
+    private static final long serialVersionUID = 1L;
+
+    private final ErrorCode errorCode;
+    private final int position;
+
     public InfixQueueIllegalStateException(String message) 
+    {
+        this(message, -1);
+    }
+
+    /**
+     * @param message - what is wrong with the expression.
+     * @param position - where the problem was found, a character offset when the
+     * expression was read from text or the index of the item in an infix queue.
+     */
+    public InfixQueueIllegalStateException(String message, int position) 
+    {
+        this(ErrorCode.INVALID_EXPRESSION, message, position);
+    }
+
+    /**
+     * @param errorCode - what is wrong with the expression, its message is the message of the exception.
+     * @param position - where the problem was found, or -1 if it is not known.
+     */
+    public InfixQueueIllegalStateException(ErrorCode errorCode, int position) 
+    {
+        this(errorCode, errorCode.getMessage(), position);
+    }
+
+    /**
+     * @param errorCode - what is wrong with the expression.
+     * @param message - the message, when it tells more than the message of the code.
+     * @param position - where the problem was found, or -1 if it is not known.
+     */
+    public InfixQueueIllegalStateException(ErrorCode errorCode, String message, int position) 
     {
         super(message);
+        if(errorCode == null)
+            throw new IllegalArgumentException("The error code cannot be null");
+        this.errorCode = errorCode;
+        this.position = position;
+    }
+
+    /**
+     * Gives back what is wrong with the expression.
+     * @return the error code.
+     */
+    public ErrorCode getErrorCode()
+    {
+        return errorCode;
+    }
+
+    /**
+     * Gives back where the problem was found in the expression.
+     * @return the position or -1 if it is not known.
+     */
+    public int getPosition()
+    {
+        return position;
     }
 }
@@ -0,0 +1,135 @@
+package ca.michaelmcmahon;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Evaluation metrics written as Java Flight Recorder events, so they appear in a recording
+ * next to the garbage collections and the compilations of the same moment. The events are
+ * only created while a recording has them enabled. Everything is also passed on to another
+ * metrics, so a MetricsRecorder can keep counting at the same time.
+ *
+ * This is the only class that uses jdk.jfr, it is never loaded unless it is used, so the
+ * rest of the calculator still runs on a virtual machine without Flight Recorder.
+ */
+public final class JfrEvaluationMetrics implements EvaluationMetrics
+{
+	private final EvaluationMetrics delegate;
+
+	/***
+	 * Construct metrics that only write Flight Recorder events.
+	 */
+	public JfrEvaluationMetrics()
+	{
+		this(NONE);
+	}
+
+	/***
+	 * Construct metrics that write Flight Recorder events and
+	 * pass everything on.
+	 *
+	 * @param delegate - receives everything as well.
+	 */
+	public JfrEvaluationMetrics(EvaluationMetrics delegate)
+	{
+		if(delegate == null)
+			throw new IllegalArgumentException("The delegate cannot be null");
+		this.delegate = delegate;
+	}
+
+	@Override
+	public boolean isEnabled()
+	{
+		return true;
+	}
+
+	@Override
+	public void recordPhase(Phase phase, long nanos)
+	{
+		PhaseEvent event = new PhaseEvent();
+		if(event.shouldCommit())
+		{
+			event.phase = phase.name();
+			event.nanos = nanos;
+			event.commit();
+		}
+		if(delegate.isEnabled())
+			delegate.recordPhase(phase, nanos);
+	}
+
+	@Override
+	public void recordExpression(CompiledExpression expression)
+	{
+		ExpressionEvent event = new ExpressionEvent();
+		if(event.shouldCommit())
+		{
+			event.expression = expression.toString();
+			event.length = expression.getLength();
+			event.stackDepth = expression.getMaxStackDepth();
+			event.commit();
+		}
+		if(delegate.isEnabled())
+			delegate.recordExpression(expression);
+	}
+
+	@Override
+	public void recordError(ErrorCode errorCode)
+	{
+		ErrorEvent event = new ErrorEvent();
+		if(event.shouldCommit())
+		{
+			event.errorCode = errorCode.name();
+			event.commit();
+		}
+		if(delegate.isEnabled())
+			delegate.recordError(errorCode);
+	}
+
+	@Name("ca.michaelmcmahon.Phase")
+	@Label("Expression Phase")
+	@Category("Calculator")
+	@Description("The time taken by a phase of one expression")
+	static final class PhaseEvent extends Event
+	{
+		@Label("Phase")
+		String phase;
+
+		@Label("Time Taken")
+		@Timespan(Timespan.NANOSECONDS)
+		long nanos;
+	}
+
+	@Name("ca.michaelmcmahon.Expression")
+	@Label("Compiled Expression")
+	@Category("Calculator")
+	@Description("An expression converted to reverse polish notation")
+	static final class ExpressionEvent extends Event
+	{
+		@Label("Postfix")
+		String expression;
+
+		@Label("Instructions")
+		int length;
+
+		@Label("Stack Depth")
+		int stackDepth;
+	}
+
+	@Name("ca.michaelmcmahon.Error")
+	@Label("Expression Error")
+	@Category("Calculator")
+	@Description("An expression that could not be compiled or evaluated")
+	static final class ErrorEvent extends Event
+	{
+		@Label("Error Code")
+		String errorCode;
+	}
+}
@@ -1,11 +1,120 @@
 package ca.michaelmcmahon;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * The command line of the calculator. In batch mode every line of the input file is
+ * evaluated and the answers are written to the output file, or to standard output
+ * when no output file is given.
+ *
+ * In server mode the calculator keeps running and answers requests, read from standard
+ * input or from clients on the same machine connecting to a TCP port, until standard
+ * input ends or the process is stopped.
+ */
 public class MainApp {
 
-	public static void main(String[] args) 
+	private static final String USAGE = "usage: java -jar calculator.jar --batch <input> [<output>] [--threads <count>]\n"
+			+ "       java -jar calculator.jar --server [--port <port>]";
+
+	public static void main(String[] args)
+	{
+		Path input = null;
+		Path output = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int port = -1;
+		boolean batch = false;
+		boolean server = false;
+		boolean valid = true;
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if(args[i].equals("--batch"))
+					batch = true;
+				else if(args[i].equals("--server"))
+					server = true;
+				else if(args[i].equals("--threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if(args[i].equals("--port") && i + 1 < args.length)
+					port = Integer.parseInt(args[++i]);
+				else if(input == null)
+					input = Paths.get(args[i]);
+				else if(output == null)
+					output = Paths.get(args[i]);
+				else
+					valid = false;
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			valid = false;
+		}
+
+		if(args.length == 0)
+		{
+			// the default maven goal runs the calculator without arguments.
+			System.err.println(USAGE);
+		}
+		else if(server && !batch && input == null && valid)
+			serve(port);
+		else if(batch && !server && input != null && threads > 0 && valid)
+			batch(input, output, threads);
+		else
+		{
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+	}
+
+	private static void batch(Path input, Path output, int threads)
 	{
-		// TODO Auto-generated method stub
+		BatchEvaluator evaluator = new BatchEvaluator(new ExpressionEvaluator(), threads);
+		try
+		{
+			if(output == null)
+			{
+				evaluator.evaluate(input, Channels.newChannel(System.out));
+				System.out.flush();
+			}
+			else
+				evaluator.evaluate(input, output);
+		}
+		catch(IOException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
 
+	private static void serve(int port)
+	{
+		try (EvaluationServer server = new EvaluationServer())
+		{
+			if(port < 0)
+				server.serve(System.in, System.out);
+			else
+			{
+				// only clients on this machine can connect, the requests are not authenticated.
+				try (ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress()))
+				{
+					server.serve(socket);
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
 	}
 
 }
@@ -0,0 +1,39 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * A function that can be called by name in an expression, like max ( x , 2 ). Functions
+ * are found in a function registry when the expression is compiled and are called with
+ * an array of their own holding their arguments, never with the evaluation stack, so a
+ * function given by a caller can evaluate other expressions and is called the same way
+ * as the ones that come with the Expression parser.
+ *
+ * A function must always give the same answer for the same arguments, an optimized
+ * expression computes a call with constant arguments once and shares calls that are
+ * made more than once. A function must also be safe to call from many threads.
+ */
+public interface MathFunction
+{
+	/**
+	 * Gives back the amount of arguments the function takes.
+	 * @return the arity, at least 1.
+	 */
+	int getArity();
+
+	/**
+	 * Calls the function. The arguments are the values of the array, in the order
+	 * they were written. The array belongs to this call and can be changed, but must
+	 * not be kept after the call.
+	 *
+	 * @param arguments - the arguments, as many as the arity.
+	 * @param policy - how precise the answer is.
+	 * @return the answer.
+	 * @throws InfixQueueIllegalStateException - if the arguments are not valid for the function.
+	 */
+	BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy) throws InfixQueueIllegalStateException;
+}
@@ -0,0 +1,181 @@
+package ca.michaelmcmahon;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Evaluation metrics kept in memory: the count and total time of each phase, how many
+ * times each operator is applied, the errors found by error code, and histograms of the
+ * length and the stack depth of the expressions compiled.
+ *
+ * A histogram has a bucket per power of two, bucket i counts the values that take i bits,
+ * so bucket 0 counts 0, bucket 1 counts 1, bucket 2 counts 2 and 3, bucket 3 counts 4 to 7
+ * and so on. The counters are LongAdders so threads recording at once do not contend.
+ */
+public final class MetricsRecorder implements EvaluationMetrics
+{
+	private static final int BUCKET_COUNT = 33;
+
+	private final LongAdder[] phaseCounts = adders(Phase.values().length);
+	private final LongAdder[] phaseNanos = adders(Phase.values().length);
+	private final LongAdder[] operationCounts = adders(Operator.values().length);
+	private final LongAdder callCount = new LongAdder();
+	private final LongAdder[] errorCounts = adders(ErrorCode.values().length);
+	private final LongAdder[] lengthHistogram = adders(BUCKET_COUNT);
+	private final LongAdder[] stackDepthHistogram = adders(BUCKET_COUNT);
+
+	@Override
+	public boolean isEnabled()
+	{
+		return true;
+	}
+
+	@Override
+	public void recordPhase(Phase phase, long nanos)
+	{
+		phaseCounts[phase.ordinal()].increment();
+		phaseNanos[phase.ordinal()].add(nanos);
+	}
+
+	@Override
+	public void recordExpression(CompiledExpression expression)
+	{
+		for (Operator operator : Operator.values())
+		{
+			int count = expression.getOperationCount(operator);
+			if(count > 0)
+				operationCounts[operator.ordinal()].add(count);
+		}
+		callCount.add(expression.getCallCount());
+		lengthHistogram[bucket(expression.getLength())].increment();
+		stackDepthHistogram[bucket(expression.getMaxStackDepth())].increment();
+	}
+
+	@Override
+	public void recordError(ErrorCode errorCode)
+	{
+		errorCounts[errorCode.ordinal()].increment();
+	}
+
+	/**
+	 * Gives back how many times a phase was recorded.
+	 * @param phase - the phase.
+	 * @return the count.
+	 */
+	public long getPhaseCount(Phase phase)
+	{
+		return phaseCounts[phase.ordinal()].sum();
+	}
+
+	/**
+	 * Gives back the total time spent in a phase.
+	 * @param phase - the phase.
+	 * @return the time in nanoseconds.
+	 */
+	public long getPhaseNanos(Phase phase)
+	{
+		return phaseNanos[phase.ordinal()].sum();
+	}
+
+	/**
+	 * Gives back how many times an operator appears in the expressions compiled.
+	 * @param operator - the operator.
+	 * @return the count.
+	 */
+	public long getOperationCount(Operator operator)
+	{
+		return operationCounts[operator.ordinal()].sum();
+	}
+
+	/**
+	 * Gives back how many function calls appear in the expressions compiled.
+	 * @return the count.
+	 */
+	public long getCallCount()
+	{
+		return callCount.sum();
+	}
+
+	/**
+	 * Gives back how many errors of a kind were recorded.
+	 * @param errorCode - the kind of error.
+	 * @return the count.
+	 */
+	public long getErrorCount(ErrorCode errorCode)
+	{
+		return errorCounts[errorCode.ordinal()].sum();
+	}
+
+	/**
+	 * Gives back the histogram of the amount of instructions of the expressions compiled.
+	 * @return the count of each bucket.
+	 */
+	public long[] getLengthHistogram()
+	{
+		return sums(lengthHistogram);
+	}
+
+	/**
+	 * Gives back the histogram of the maximum stack depth of the expressions compiled.
+	 * @return the count of each bucket.
+	 */
+	public long[] getStackDepthHistogram()
+	{
+		return sums(stackDepthHistogram);
+	}
+
+	/**
+	 * Gives back the bucket of a histogram that counts a value.
+	 * @param value - a value of at least 0.
+	 * @return the index of the bucket.
+	 */
+	public static int bucket(int value)
+	{
+		return Integer.SIZE - Integer.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * Sets every counter back to 0.
+	 */
+	public void reset()
+	{
+		reset(phaseCounts);
+		reset(phaseNanos);
+		reset(operationCounts);
+		callCount.reset();
+		reset(errorCounts);
+		reset(lengthHistogram);
+		reset(stackDepthHistogram);
+	}
+
+	private static LongAdder[] adders(int length)
+	{
+		LongAdder[] adders = new LongAdder[length];
+		for (int i = 0; i < length; i++)
+		{
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static long[] sums(LongAdder[] adders)
+	{
+		long[] sums = new long[adders.length];
+		for (int i = 0; i < adders.length; i++)
+		{
+			sums[i] = adders[i].sum();
+		}
+		return sums;
+	}
+
+	private static void reset(LongAdder[] adders)
+	{
+		for (LongAdder adder : adders)
+		{
+			adder.reset();
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * The operators understood by the Expression parser. Each operator knows its symbol,
+ * its precedence, how many operands it takes, which way it groups and the opcode used
+ * for it in a compiled expression.
+ *
+ * NEGATE is the unary minus: it is written as a minus sign in front of an operand in
+ * an infix expression and as a tilde in reverse polish notation, so that it cannot be
+ * mistaken for SUBTRACT.
+ */
+public enum Operator
+{
+	ADD("+", 1, 2, false, CompiledExpression.ADD),
+	SUBTRACT("-", 1, 2, false, CompiledExpression.SUBTRACT),
+	MULTIPLY("*", 2, 2, false, CompiledExpression.MULTIPLY),
+	DIVIDE("/", 2, 2, false, CompiledExpression.DIVIDE),
+	MODULO("%", 2, 2, false, CompiledExpression.MODULO),
+	NEGATE("~", 3, 1, true, CompiledExpression.NEGATE),
+	POWER("^", 4, 2, true, CompiledExpression.POWER);
+
+	private static final Operator[] BY_OPCODE = new Operator[CompiledExpression.OPCODE_COUNT];
+
+	static
+	{
+		for (Operator operator : values())
+		{
+			BY_OPCODE[operator.opcode] = operator;
+		}
+	}
+
+	private final String symbol;
+	private final int precedence;
+	private final int arity;
+	private final boolean rightAssociative;
+	private final byte opcode;
+
+	private Operator(String symbol, int precedence, int arity, boolean rightAssociative, byte opcode)
+	{
+		this.symbol = symbol;
+		this.precedence = precedence;
+		this.arity = arity;
+		this.rightAssociative = rightAssociative;
+		this.opcode = opcode;
+	}
+
+	/**
+	 * Gives back the symbol of the operator as it appears
+	 * in an infix queue.
+	 * @return the symbol.
+	 */
+	public String getSymbol()
+	{
+		return symbol;
+	}
+
+	/**
+	 * Gives back the precedence of the operator, a higher
+	 * number is evaluated first.
+	 * @return the precedence.
+	 */
+	public int getPrecedence()
+	{
+		return precedence;
+	}
+
+	/**
+	 * Gives back the amount of operands of the operator.
+	 * @return 1 for a unary operator, 2 for a binary one.
+	 */
+	public int getArity()
+	{
+		return arity;
+	}
+
+	/**
+	 * Determines if operators of the same precedence are applied
+	 * from right to left, like 2 ^ 3 ^ 2 being 2 ^ 9.
+	 * @return true if the operator groups to the right.
+	 */
+	public boolean isRightAssociative()
+	{
+		return rightAssociative;
+	}
+
+	/**
+	 * Gives back the opcode used for this operator
+	 * in a compiled expression.
+	 * @return the opcode.
+	 */
+	byte getOpcode()
+	{
+		return opcode;
+	}
+
+	/**
+	 * Finds the operator that has the symbol passed in.
+	 * @param symbol - the symbol of the operator.
+	 *
+	 * @return the operator or null if the symbol is not an operator.
+	 */
+	public static Operator fromSymbol(String symbol)
+	{
+		if(symbol == null || symbol.length() != 1)
+			return null;
+
+		return fromSymbol(symbol.charAt(0));
+	}
+
+	/**
+	 * Finds the operator that has the symbol passed in. A minus sign is
+	 * always SUBTRACT, it is the converter that knows when it is a NEGATE.
+	 * @param symbol - the symbol of the operator.
+	 *
+	 * @return the operator or null if the character is not an operator.
+	 */
+	public static Operator fromSymbol(char symbol)
+	{
+		switch (symbol)
+		{
+		case '+':
+			return ADD;
+		case '-':
+			return SUBTRACT;
+		case '*':
+			return MULTIPLY;
+		case '/':
+			return DIVIDE;
+		case '%':
+			return MODULO;
+		case '^':
+			return POWER;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the operator that has the opcode passed in.
+	 * @param opcode - the opcode of the operator.
+	 *
+	 * @return the operator or null if the opcode is not an operator.
+	 */
+	static Operator fromOpcode(byte opcode)
+	{
+		return opcode >= 0 && opcode < BY_OPCODE.length ? BY_OPCODE[opcode] : null;
+	}
+
+	/**
+	 * Applies a binary operator to the two operands.
+	 *
+	 * @param left - the operand on the left of the operator.
+	 * @param right - the operand on the right of the operator.
+	 * @return the result.
+	 *
+	 * @throws InfixQueueIllegalStateException - if dividing by zero.
+	 */
+	public BigDecimal apply(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		return apply(left, right, PrecisionPolicy.DEFAULT);
+	}
+
+	/**
+	 * Applies the operator to the two operands following a precision policy.
+	 *
+	 * @param left - the operand on the left of the operator.
+	 * @param right - the operand on the right of the operator.
+	 * @param policy - how precise the result is.
+	 * @return the result.
+	 *
+	 * @throws InfixQueueIllegalStateException - if dividing by zero, if the exponent of a power is not valid
+	 * or if the result has more digits than the policy allows.
+	 */
+	public BigDecimal apply(BigDecimal left, BigDecimal right, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+	{
+		switch (this)
+		{
+		case ADD:
+			return policy.add(left, right);
+		case SUBTRACT:
+			return policy.subtract(left, right);
+		case MULTIPLY:
+			return policy.multiply(left, right);
+		case DIVIDE:
+			return policy.divide(left, right);
+		case MODULO:
+			return policy.remainder(left, right);
+		case POWER:
+			return policy.power(left, right);
+		default:
+			throw new IllegalStateException(this + " does not take two operands");
+		}
+	}
+
+	/**
+	 * Applies a unary operator to its operand following a precision policy.
+	 *
+	 * @param operand - the operand.
+	 * @param policy - how precise the result is.
+	 * @return the result.
+	 */
+	public BigDecimal apply(BigDecimal operand, PrecisionPolicy policy)
+	{
+		if(this != NEGATE)
+			throw new IllegalStateException(this + " does not take one operand");
+		return policy.round(operand.negate());
+	}
+
+	/**
+	 * Divides the two operands rounding the result
+	 * to two decimal places.
+	 *
+	 * @param left - the dividend.
+	 * @param right - the divisor.
+	 * @return the quotient.
+	 *
+	 * @throws InfixQueueIllegalStateException - if the divisor is zero.
+	 */
+	static BigDecimal divide(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		return PrecisionPolicy.DEFAULT.divide(left, right);
+	}
+}
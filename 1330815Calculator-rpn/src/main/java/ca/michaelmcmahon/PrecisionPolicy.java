@@ -0,0 +1,314 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * How precise the answers of an evaluation are. A quotient is rounded to the division
+ * scale with the rounding mode, and when the math context has a precision the result
+ * of every operation is also rounded to that many significant digits, so that a long
+ * chain of operations stops growing the scale of its operands.
+ *
+ * The default policy is the one the Expression parser always used: quotients have two
+ * decimal places rounded half up and every other operation is exact.
+ *
+ * A policy can also limit how many digits a result can have, written out without an
+ * exponent. An operation whose result would be longer fails instead, so an expression
+ * from someone who cannot be trusted cannot ask for a number with millions of digits.
+ */
+public final class PrecisionPolicy
+{
+	/**
+	 * Two decimal places rounded half up for divisions, exact for everything else.
+	 */
+	public static final PrecisionPolicy DEFAULT = new PrecisionPolicy(2, RoundingMode.HALF_UP);
+
+	/**
+	 * The largest exponent a number can be raised to, so that a short
+	 * expression cannot ask for a number with millions of digits.
+	 */
+	public static final int MAX_EXPONENT = 9999;
+
+	private final int divisionScale;
+	private final RoundingMode roundingMode;
+	private final MathContext mathContext;
+	private final int maxDigits;
+
+	/***
+	 * Construct a policy that only rounds divisions.
+	 *
+	 * @param divisionScale - the amount of decimal places of a quotient.
+	 * @param roundingMode - how a quotient is rounded.
+	 */
+	public PrecisionPolicy(int divisionScale, RoundingMode roundingMode)
+	{
+		this(divisionScale, roundingMode, MathContext.UNLIMITED);
+	}
+
+	/***
+	 * Construct a policy.
+	 *
+	 * @param divisionScale - the amount of decimal places of a quotient.
+	 * @param roundingMode - how a quotient is rounded.
+	 * @param mathContext - the precision every result is rounded to, unlimited for exact results.
+	 */
+	public PrecisionPolicy(int divisionScale, RoundingMode roundingMode, MathContext mathContext)
+	{
+		this(divisionScale, roundingMode, mathContext, 0);
+	}
+
+	/***
+	 * Construct a policy that limits the amount of digits of a result.
+	 *
+	 * @param divisionScale - the amount of decimal places of a quotient.
+	 * @param roundingMode - how a quotient is rounded.
+	 * @param mathContext - the precision every result is rounded to, unlimited for exact results.
+	 * @param maxDigits - the most digits a result can have, 0 for no limit.
+	 */
+	public PrecisionPolicy(int divisionScale, RoundingMode roundingMode, MathContext mathContext, int maxDigits)
+	{
+		if(divisionScale < 0)
+			throw new IllegalArgumentException("The division scale cannot be negative");
+		if(roundingMode == null)
+			throw new IllegalArgumentException("The rounding mode cannot be null");
+		if(mathContext == null)
+			throw new IllegalArgumentException("The math context cannot be null");
+		if(maxDigits < 0)
+			throw new IllegalArgumentException("The maximum amount of digits cannot be negative");
+
+		this.divisionScale = divisionScale;
+		this.roundingMode = roundingMode;
+		this.mathContext = mathContext;
+		this.maxDigits = maxDigits;
+	}
+
+	/**
+	 * Gives back the same policy with a limit on the amount of digits of a result.
+	 *
+	 * @param maxDigits - the most digits a result can have, 0 for no limit.
+	 * @return the policy.
+	 */
+	public PrecisionPolicy withMaxDigits(int maxDigits)
+	{
+		return new PrecisionPolicy(divisionScale, roundingMode, mathContext, maxDigits);
+	}
+
+	/**
+	 * Gives back the amount of decimal places of a quotient.
+	 * @return the division scale.
+	 */
+	public int getDivisionScale()
+	{
+		return divisionScale;
+	}
+
+	/**
+	 * Gives back how a quotient is rounded.
+	 * @return the rounding mode.
+	 */
+	public RoundingMode getRoundingMode()
+	{
+		return roundingMode;
+	}
+
+	/**
+	 * Gives back the precision every result is rounded to.
+	 * @return the math context.
+	 */
+	public MathContext getMathContext()
+	{
+		return mathContext;
+	}
+
+	/**
+	 * Gives back the most digits a result can have.
+	 * @return the limit, 0 if there is none.
+	 */
+	public int getMaxDigits()
+	{
+		return maxDigits;
+	}
+
+	/**
+	 * Determines if results other than quotients are rounded.
+	 * @return true if the math context has a precision.
+	 */
+	public boolean isLimited()
+	{
+		return mathContext.getPrecision() > 0;
+	}
+
+	/**
+	 * Rounds the result of an operation to the math context.
+	 *
+	 * @param value - the result.
+	 * @return the rounded result, or the same one if the precision is unlimited.
+	 */
+	public BigDecimal round(BigDecimal value)
+	{
+		return isLimited() ? value.round(mathContext) : value;
+	}
+
+	/**
+	 * Adds the two operands following the policy.
+	 *
+	 * @param left - the operand on the left.
+	 * @param right - the operand on the right.
+	 * @return the sum.
+	 * @throws InfixQueueIllegalStateException - if the sum has too many digits.
+	 */
+	public BigDecimal add(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		return limit(round(left.add(right)));
+	}
+
+	/**
+	 * Subtracts the operand on the right from the one on the left following the policy.
+	 *
+	 * @param left - the operand on the left.
+	 * @param right - the operand on the right.
+	 * @return the difference.
+	 * @throws InfixQueueIllegalStateException - if the difference has too many digits.
+	 */
+	public BigDecimal subtract(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		return limit(round(left.subtract(right)));
+	}
+
+	/**
+	 * Multiplies the two operands following the policy.
+	 *
+	 * @param left - the operand on the left.
+	 * @param right - the operand on the right.
+	 * @return the product.
+	 * @throws InfixQueueIllegalStateException - if the product has too many digits.
+	 */
+	public BigDecimal multiply(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		return limit(round(left.multiply(right)));
+	}
+
+	/**
+	 * Divides the two operands following the policy.
+	 *
+	 * @param left - the dividend.
+	 * @param right - the divisor.
+	 * @return the quotient.
+	 * @throws InfixQueueIllegalStateException - if the divisor is zero or the quotient has too many digits.
+	 */
+	public BigDecimal divide(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		if(right.signum() == 0)
+			throw new InfixQueueIllegalStateException(ErrorCode.DIVISION_BY_ZERO, -1);
+		return limit(round(left.divide(right, divisionScale, roundingMode)));
+	}
+
+	/**
+	 * Gives back the remainder of dividing the two operands, it has the
+	 * sign of the dividend.
+	 *
+	 * @param left - the dividend.
+	 * @param right - the divisor.
+	 * @return the remainder.
+	 * @throws InfixQueueIllegalStateException - if the divisor is zero.
+	 */
+	public BigDecimal remainder(BigDecimal left, BigDecimal right) throws InfixQueueIllegalStateException
+	{
+		if(right.signum() == 0)
+			throw new InfixQueueIllegalStateException(ErrorCode.DIVISION_BY_ZERO, -1);
+		return round(left.remainder(right));
+	}
+
+	/**
+	 * Raises a number to a whole exponent following the policy. A negative
+	 * exponent divides one by the power, so it is rounded like a quotient.
+	 *
+	 * @param base - the number.
+	 * @param exponent - the exponent, a whole number of at most MAX_EXPONENT.
+	 * @return the power.
+	 * @throws InfixQueueIllegalStateException - if the exponent is not whole or too large,
+	 * if zero is raised to a negative exponent or if the power has too many digits.
+	 */
+	public BigDecimal power(BigDecimal base, BigDecimal exponent) throws InfixQueueIllegalStateException
+	{
+		int n = 0;
+		boolean valid;
+		try
+		{
+			n = exponent.intValueExact();
+			valid = n >= -MAX_EXPONENT && n <= MAX_EXPONENT;
+		}
+		catch (ArithmeticException e)
+		{
+			valid = false;
+		}
+		if(!valid)
+			throw new InfixQueueIllegalStateException(ErrorCode.INVALID_OPERAND, "the exponent " + exponent.toPlainString()
+					+ " must be a whole number of at most " + MAX_EXPONENT + ".", -1);
+
+		// the power has at most the digits of the base times the exponent, it is
+		// not computed at all if that is too many.
+		if(maxDigits > 0 && digits(base) * Math.abs(n) > maxDigits)
+			throw tooManyDigits();
+		if(n >= 0)
+			return limit(isLimited() ? base.pow(n, mathContext) : base.pow(n));
+		return divide(BigDecimal.ONE, base.pow(-n));
+	}
+
+	/**
+	 * Makes sure a result does not have more digits than the policy allows.
+	 *
+	 * @param value - the result.
+	 * @return the same result.
+	 * @throws InfixQueueIllegalStateException - if the result has too many digits.
+	 */
+	private BigDecimal limit(BigDecimal value) throws InfixQueueIllegalStateException
+	{
+		if(maxDigits > 0 && digits(value) > maxDigits)
+			throw tooManyDigits();
+		return value;
+	}
+
+	/**
+	 * Gives back about how many digits a number has written out without
+	 * an exponent, never fewer than it has.
+	 */
+	private static long digits(BigDecimal value)
+	{
+		long precision = value.precision();
+		long scale = value.scale();
+		return Math.max(precision, Math.max(precision - scale, scale));
+	}
+
+	private InfixQueueIllegalStateException tooManyDigits()
+	{
+		return new InfixQueueIllegalStateException(ErrorCode.INVALID_OPERAND, "the result would have more than " + maxDigits + " digits.", -1);
+	}
+
+	@Override
+	public boolean equals(Object other)
+	{
+		if(!(other instanceof PrecisionPolicy))
+			return false;
+		PrecisionPolicy policy = (PrecisionPolicy) other;
+		return divisionScale == policy.divisionScale && roundingMode == policy.roundingMode && mathContext.equals(policy.mathContext)
+				&& maxDigits == policy.maxDigits;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return ((divisionScale * 31 + roundingMode.hashCode()) * 31 + mathContext.hashCode()) * 31 + maxDigits;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "scale=" + divisionScale + " " + roundingMode + " " + mathContext + (maxDigits > 0 ? " maxDigits=" + maxDigits : "");
+	}
+}
@@ -0,0 +1,175 @@
+package ca.michaelmcmahon;
+
+import java.math.BigDecimal;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * A single classified item of a mathematical expression. An item is classified
+ * once when it is read, numbers keep their parsed value and operators keep their
+ * Operator so nothing has to be compared or parsed again afterwards.
+ */
+final class Token
+{
+	/**
+	 * The kinds of items an expression is made of.
+	 */
+	enum Type
+	{
+		NUMBER,
+		VARIABLE,
+		OPERATOR,
+		FUNCTION,
+		LEFT_PARENTHESIS,
+		RIGHT_PARENTHESIS,
+		COMMA
+	}
+
+	static final Token LEFT_PARENTHESIS = new Token(Type.LEFT_PARENTHESIS, "(", null, null);
+	static final Token RIGHT_PARENTHESIS = new Token(Type.RIGHT_PARENTHESIS, ")", null, null);
+	static final Token COMMA = new Token(Type.COMMA, ",", null, null);
+
+	private static final Token[] OPERATORS = new Token[Operator.values().length];
+
+	static
+	{
+		for (Operator operator : Operator.values())
+		{
+			OPERATORS[operator.ordinal()] = new Token(Type.OPERATOR, operator.getSymbol(), null, operator);
+		}
+	}
+
+	private final Type type;
+	private final String text;
+	private final BigDecimal value;
+	private final Operator operator;
+	private final int slot;
+	private final MathFunction function;
+
+	private Token(Type type, String text, BigDecimal value, Operator operator)
+	{
+		this(type, text, value, operator, -1, null);
+	}
+
+	private Token(Type type, String text, BigDecimal value, Operator operator, int slot, MathFunction function)
+	{
+		this.type = type;
+		this.text = text;
+		this.value = value;
+		this.operator = operator;
+		this.slot = slot;
+		this.function = function;
+	}
+
+	/**
+	 * Creates a number token.
+	 * @param text - the number as it was written in the expression, or null if it was not kept.
+	 * @param value - the parsed value of the number.
+	 * @return the token.
+	 */
+	static Token number(String text, BigDecimal value)
+	{
+		return new Token(Type.NUMBER, text, value, null);
+	}
+
+	/**
+	 * Creates a variable token.
+	 * @param name - the name of the variable.
+	 * @param slot - the index of the value of the variable in a row.
+	 * @return the token.
+	 */
+	static Token variable(String name, int slot)
+	{
+		return new Token(Type.VARIABLE, name, null, null, slot, null);
+	}
+
+	/**
+	 * Creates a function token.
+	 * @param name - the name the function is called by.
+	 * @param function - the function.
+	 * @return the token.
+	 */
+	static Token function(String name, MathFunction function)
+	{
+		return new Token(Type.FUNCTION, name, null, null, -1, function);
+	}
+
+	/**
+	 * Gives back the shared token of an operator.
+	 * @param operator - the operator.
+	 * @return the token.
+	 */
+	static Token operator(Operator operator)
+	{
+		return OPERATORS[operator.ordinal()];
+	}
+
+	Type getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Gives back the item as it was written in the expression.
+	 * @return the text of the item.
+	 */
+	String getText()
+	{
+		if(text == null)
+			return value.toPlainString();
+		return text;
+	}
+
+	/**
+	 * Gives back the value of a number token.
+	 * @return the value or null if the token is not a number.
+	 */
+	BigDecimal getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * Gives back the operator of an operator token.
+	 * @return the operator or null if the token is not an operator.
+	 */
+	Operator getOperator()
+	{
+		return operator;
+	}
+
+	/**
+	 * Gives back the function of a function token.
+	 * @return the function or null if the token is not a function.
+	 */
+	MathFunction getFunction()
+	{
+		return function;
+	}
+
+	/**
+	 * Gives back the slot of a variable token.
+	 * @return the slot or -1 if the token is not a variable.
+	 */
+	int getSlot()
+	{
+		return slot;
+	}
+
+	/**
+	 * Determines if the token is a number or a variable.
+	 * @return true if the token is an operand.
+	 */
+	boolean isOperand()
+	{
+		return type == Type.NUMBER || type == Type.VARIABLE;
+	}
+
+	@Override
+	public String toString()
+	{
+		return getText();
+	}
+}
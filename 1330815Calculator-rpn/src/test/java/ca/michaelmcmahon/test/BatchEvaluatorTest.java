@@ -0,0 +1,149 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.michaelmcmahon.BatchEvaluator;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.FunctionRegistry;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+import ca.michaelmcmahon.MathFunction;
+import ca.michaelmcmahon.PrecisionPolicy;
+
+public class BatchEvaluatorTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String[] EXPRESSIONS = {
+			"1 + 2",
+			"( 7 + 1 ) * 3 - 4 / 3",
+			"2 ^ 10 % 7",
+			"-max(3, sqrt(16)) * 1.5",
+			"1 / 0",
+			"3 + * 4",
+			"",
+			"12.5"
+	};
+
+	/**
+	 * Small windows and chunks split the file in many places, every answer
+	 * must still be the one of the expression on the same line.
+	 *
+	 * @throws IOException - needs this to read and write the files.
+	 */
+	@Test
+	public void inputOrderTest() throws IOException
+	{
+		StringBuilder text = new StringBuilder();
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 500; i++)
+		{
+			String expression = EXPRESSIONS[i % EXPRESSIONS.length] + (i % 3 == 0 ? " + " + i : "");
+			text.append(expression).append(i % 2 == 0 ? "\r\n" : "\n");
+			expected.add(expected(expression));
+		}
+		// the last line does not need a line feed.
+		text.append("6 * 7");
+		expected.add("42");
+
+		Path input = folder.newFile("input.txt").toPath();
+		Path output = folder.getRoot().toPath().resolve("output.txt");
+		Files.write(input, text.toString().getBytes(StandardCharsets.US_ASCII));
+
+		BatchEvaluator batch = new BatchEvaluator(new ExpressionEvaluator(), 4, 512, 64);
+		assertEquals(expected.size(), batch.evaluate(input, output));
+		assertEquals(expected, Files.readAllLines(output, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * An empty file gives back an empty file.
+	 *
+	 * @throws IOException - needs this to read and write the files.
+	 */
+	@Test
+	public void emptyFileTest() throws IOException
+	{
+		Path input = folder.newFile("empty.txt").toPath();
+		Path output = folder.getRoot().toPath().resolve("answers.txt");
+
+		assertEquals(0, new BatchEvaluator(new ExpressionEvaluator(), 2).evaluate(input, output));
+		assertEquals(0, Files.size(output));
+	}
+
+	/**
+	 * A line that does not fit in a window cannot be evaluated.
+	 *
+	 * @throws IOException - the line is too long.
+	 */
+	@Test(expected = IOException.class)
+	public void lineTooLongTest() throws IOException
+	{
+		Path input = folder.newFile("long.txt").toPath();
+		Files.write(input, "1 + 2 + 3 + 4 + 5 + 6\n1\n".getBytes(StandardCharsets.US_ASCII));
+
+		new BatchEvaluator(new ExpressionEvaluator(), 1, 8, 8).evaluate(input, folder.getRoot().toPath().resolve("out.txt"));
+	}
+
+	/**
+	 * A function that throws an unchecked exception gives an error on its
+	 * own line, the other lines are still answered.
+	 *
+	 * @throws IOException - needs this to read and write the files.
+	 */
+	@Test
+	public void failingFunctionTest() throws IOException
+	{
+		MathFunction broken = new MathFunction()
+		{
+			@Override
+			public int getArity()
+			{
+				return 1;
+			}
+
+			@Override
+			public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy)
+			{
+				throw new ArithmeticException("broken");
+			}
+		};
+		ExpressionEvaluator evaluator = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT,
+				FunctionRegistry.DEFAULT.withFunction("f", broken));
+		Path input = folder.newFile("functions.txt").toPath();
+		Path output = folder.getRoot().toPath().resolve("answers.txt");
+		Files.write(input, "1 + 2\nf(1)\n3 * 4\n".getBytes(StandardCharsets.US_ASCII));
+
+		assertEquals(3, new BatchEvaluator(evaluator, 2).evaluate(input, output));
+		assertEquals(Arrays.asList("3", "ERROR INVALID_EXPRESSION -1 the expression could not be evaluated.", "12"),
+				Files.readAllLines(output, StandardCharsets.UTF_8));
+	}
+
+	private static String expected(String expression)
+	{
+		try
+		{
+			return new ExpressionEvaluator().evaluate(expression).toPlainString();
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			return "ERROR " + e.getErrorCode() + " " + e.getPosition() + " " + e.getMessage();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import ca.michaelmcmahon.BulkResult;
+import ca.michaelmcmahon.ErrorCode;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.FunctionRegistry;
+import ca.michaelmcmahon.MathFunction;
+import ca.michaelmcmahon.PrecisionPolicy;
+
+public class BulkEvaluationTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private static final int COPIES = 500;
+
+	private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+	private final List<Object[]> valid = new ArrayList<>(CalculatorTest.Expressions());
+	private final List<Object[]> invalid = new ArrayList<>(CalculatorExceptionTest.Expressions());
+
+	/**
+	 * Builds a batch that alternates valid expressions from the calculator
+	 * test with invalid ones from the exception test.
+	 */
+	private List<Queue<String>> batch()
+	{
+		List<Queue<String>> batch = new ArrayList<>();
+		for(int copy = 0; copy < COPIES; copy++)
+		{
+			for(int i = 0; i < valid.size(); i++)
+			{
+				batch.add(new LinkedList<>(Arrays.asList(((String) valid.get(i)[0]).split(" "))));
+				batch.add(new LinkedList<>(Arrays.asList(((String) invalid.get(i % invalid.size())[0]).split(" "))));
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Every slot must hold the answer or the error of its own expression,
+	 * whichever thread evaluated it.
+	 */
+	@Test
+	public void bulkEvaluationTest()
+	{
+		List<Queue<String>> batch = batch();
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			BulkResult result = evaluator.evaluateAll(batch, pool);
+
+			assertEquals(batch.size(), result.size());
+			assertEquals(batch.size() / 2, result.getErrorCount());
+			for(int i = 0; i < batch.size(); i += 2)
+			{
+				BigDecimal expected = (BigDecimal) valid.get((i / 2) % valid.size())[2];
+				assertTrue(result.isSuccess(i));
+				assertEquals(expected.toPlainString(), result.getResult(i).toPlainString());
+				assertFalse(result.isSuccess(i + 1));
+				assertNull(result.getResult(i + 1));
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * A function that throws an unchecked exception fails only the slot
+	 * of its own expression.
+	 */
+	@Test
+	public void failingFunctionTest()
+	{
+		MathFunction broken = new MathFunction()
+		{
+			@Override
+			public int getArity()
+			{
+				return 1;
+			}
+
+			@Override
+			public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy)
+			{
+				throw new ArithmeticException("broken");
+			}
+		};
+		ExpressionEvaluator functions = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT,
+				FunctionRegistry.DEFAULT.withFunction("f", broken));
+		List<Queue<String>> batch = new ArrayList<>();
+		batch.add(new LinkedList<>(Arrays.asList("1", "+", "2")));
+		batch.add(new LinkedList<>(Arrays.asList("f", "(", "1", ")")));
+		batch.add(new LinkedList<>(Arrays.asList("3", "*", "4")));
+
+		BulkResult result = functions.evaluateAll(batch);
+
+		assertEquals("3", result.getResult(0).toPlainString());
+		assertFalse(result.isSuccess(1));
+		assertEquals(ErrorCode.INVALID_EXPRESSION, result.getError(1).getErrorCode());
+		assertTrue(result.getError(1).getCause() instanceof ArithmeticException);
+		assertEquals("12", result.getResult(2).toPlainString());
+		assertEquals(1, result.getErrorCount());
+	}
+
+	/**
+	 * A stream or a collection that is not a list gives the same slots.
+	 */
+	@Test
+	public void streamEvaluationTest()
+	{
+		List<Queue<String>> batch = batch();
+		Collection<Queue<String>> linked = new LinkedList<>(batch);
+
+		BulkResult fromList = evaluator.evaluateAll(batch);
+		BulkResult fromStream = evaluator.evaluateAll(batch.stream());
+		BulkResult fromLinked = evaluator.evaluateAll(linked);
+
+		for(int i = 0; i < batch.size(); i++)
+		{
+			assertEquals(fromList.getResult(i), fromStream.getResult(i));
+			assertEquals(fromList.getResult(i), fromLinked.getResult(i));
+			assertEquals(fromList.isSuccess(i), fromStream.isSuccess(i));
+			assertEquals(fromList.isSuccess(i), fromLinked.isSuccess(i));
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.BytecodeCompiler;
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.Evaluator;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.ExpressionParser;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+@RunWith(Parameterized.class)
+public class BytecodeCompilerTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private Queue<String> infixQueue;
+	private String[] variables;
+	private BigDecimal[] row;
+
+   public BytecodeCompilerTest(String infix, String variables, String row)
+   {
+	   this.infixQueue = new LinkedList<>(Arrays.asList(infix.split(" ")));
+	   this.variables = variables.isEmpty() ? new String[0] : variables.split(" ");
+	   String[] values = row.isEmpty() ? new String[0] : row.split(" ");
+	   this.row = new BigDecimal[values.length];
+	   for(int i = 0; i < values.length; i++)
+	   {
+		   this.row[i] = new BigDecimal(values[i]);
+	   }
+   }
+
+   /**
+    * Expressions, their variables and the values of the variables.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"2 + 7 - 4", "", ""},
+		   {"4 / ( 2 + 5 ) * ( 4 - 20 / 2 ) - 15", "", ""},
+		   {"( ( ( ( ( 56.9 * 0.09 ) ) ) ) ) / ( ( 3 - 4.4 ) - ( 79 - 0.3 ) / ( 3 / 2.4 ) ) / 0.5 - 2", "", ""},
+		   {"price * qty + fee", "price qty fee", "2.5 4 1.25"},
+		   {"a / b + a * 3 - b", "a b", "7 3"}
+	   });
+   }
+
+   /**
+    * The generated class must give the same answer as the compiled
+    * expression and be reused for the same expression.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void generatedEvaluatorTest() throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression compiled = new ExpressionParser(infixQueue).compile(variables);
+	   Evaluator evaluator = BytecodeCompiler.compile(compiled);
+
+	   assertNotSame(compiled, evaluator);
+	   assertEquals(compiled.evaluate(row), evaluator.evaluate(row));
+	   assertSame(evaluator, BytecodeCompiler.compile(new ExpressionParser(infixQueue).compile(variables)));
+   }
+
+   /**
+    * Once an evaluator is pushed out of the cache by other expressions and
+    * nothing else holds it, its generated class is unloaded.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    * @throws InterruptedException - needs this to wait for the collector.
+    */
+   @Test
+   public void evictedClassUnloadedTest() throws InfixQueueIllegalStateException, InterruptedException
+   {
+	   ExpressionEvaluator compiler = new ExpressionEvaluator();
+	   WeakReference<Class<?>> generated = new WeakReference<Class<?>>(
+			   BytecodeCompiler.compile(compiler.compile("x * 3 - 1", "x")).getClass());
+	   for(int i = 0; i < BytecodeCompiler.MAX_CACHED_EVALUATORS; i++)
+	   {
+		   BytecodeCompiler.compile(compiler.compile("x * 2 + " + i, "x"));
+	   }
+
+	   for(int i = 0; i < 50 && generated.get() != null; i++)
+	   {
+		   System.gc();
+		   Thread.sleep(20);
+	   }
+	   assertNull(generated.get());
+   }
+
+   /**
+    * Dividing by zero in generated code is reported like everywhere else.
+    * @throws InfixQueueIllegalStateException
+    */
+   @Test(expected = InfixQueueIllegalStateException.class)
+   public void divideByZeroTest() throws InfixQueueIllegalStateException
+   {
+	   Queue<String> infix = new LinkedList<>(Arrays.asList("x / ( 1 - 1 )".split(" ")));
+	   BytecodeCompiler.compile(new ExpressionParser(infix).compile("x")).evaluate(new BigDecimal[] {BigDecimal.ONE});
+   }
+
+   /**
+    * Expressions too large for one JVM method are still evaluated.
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void largeExpressionTest() throws InfixQueueIllegalStateException
+   {
+	   Queue<String> infix = new LinkedList<>();
+	   infix.add("1");
+	   for(int i = 0; i < 20000; i++)
+	   {
+		   infix.add("+");
+		   infix.add("1");
+	   }
+	   CompiledExpression compiled = new ExpressionParser(infix).compile();
+
+	   assertEquals(new BigDecimal(20001), BytecodeCompiler.compile(compiled).evaluate(new BigDecimal[0]));
+   }
+}
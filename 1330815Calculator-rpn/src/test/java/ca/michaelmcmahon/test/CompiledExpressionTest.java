@@ -0,0 +1,114 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionParser;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+@RunWith(Parameterized.class)
+public class CompiledExpressionTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private Queue<String> infixQueue;
+	private String expectedPostfix;
+	private BigDecimal expectedResult;
+
+   public CompiledExpressionTest(String infix, String expectedPostfix, BigDecimal expectedResult)
+   {
+	   this.expectedPostfix = expectedPostfix;
+	   this.expectedResult = expectedResult;
+	   infixQueue = new LinkedList<>(Arrays.asList(infix.split(" ")));
+   }
+
+   /**
+    * Valid expressions along with their postfix form and answer.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"2 + 7 - 4", "2 7 + 4 -", new BigDecimal(5)},
+		   {"2 / 2 + 7 + 1 * 5 / 1 * 13 + 1", "2 2 / 7 + 1 5 * 1 / 13 * + 1 +", new BigDecimal(74)},
+		   {"3.3 + 4.5 * 2 + 6.6 / 2", "3.3 4.5 2 * + 6.6 2 / +", new BigDecimal("15.6")},
+		   {"4 / ( 2 + 5 ) * ( 4 - 20 / 2 ) - 15", "4 2 5 + / 4 20 2 / - * 15 -", new BigDecimal(-18.42).setScale(2, RoundingMode.HALF_UP)},
+		   {"1 / 7", "1 7 /", new BigDecimal("0.14")},
+		   {"( 1 - 1 ) * 7", "1 1 - 7 *", new BigDecimal(0)},
+		   {"5", "5", new BigDecimal(5)},
+		   {"6 / 3 * 10", "6 3 / 10 *", new BigDecimal(20)},
+		   {"9223372036854775807 + 1", "9223372036854775807 1 +", new BigDecimal("9223372036854775808")},
+		   {"3037000500 * 3037000500", "3037000500 3037000500 *", new BigDecimal("9223372037000250000")},
+		   {"19.99 * 3 - 5.25 / 4", "19.99 3 * 5.25 4 / -", new BigDecimal("58.66")},
+		   {"1.25 * 1.25", "1.25 1.25 *", new BigDecimal("1.5625")},
+		   {"( 0 - 1 ) / 8", "0 1 - 8 /", new BigDecimal("-0.13")},
+		   {"( 0 - 2 ) / 3 + 0.001", "0 2 - 3 / 0.001 +", new BigDecimal("-0.669")}
+	   });
+   }
+
+   /**
+    * A compiled expression must give the same answer as the parser
+    * every time it is evaluated.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void compiledExpressionTest() throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression compiled = new ExpressionParser(infixQueue).compile();
+
+	   assertEquals(expectedPostfix, compiled.toString());
+	   for(int i = 0; i < 3; i++)
+	   {
+		   assertEquals(expectedResult.toPlainString(), compiled.evaluate().toPlainString());
+	   }
+	   assertEquals(new ExpressionParser(infixQueue).getCalculatedExpression(), compiled.evaluate());
+   }
+
+   /**
+    * The fast evaluation mode must give exactly the same answer as the
+    * precise one, even when it has to fall back to BigDecimal.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void fastEvaluationModeTest() throws InfixQueueIllegalStateException
+   {
+	   ExpressionParser parser = new ExpressionParser(infixQueue);
+	   parser.setEvaluationMode(EvaluationMode.FAST);
+
+	   assertEquals(expectedResult.toPlainString(), parser.getCalculatedExpression().toPlainString());
+	   assertEquals(parser.compile().evaluate(), parser.compile().evaluate(EvaluationMode.FAST));
+   }
+
+   /**
+    * The fixed point evaluation mode must give exactly the same answer as
+    * the precise one, even when it has to fall back to BigDecimal.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void fixedPointEvaluationModeTest() throws InfixQueueIllegalStateException
+   {
+	   ExpressionParser parser = new ExpressionParser(infixQueue);
+	   parser.setEvaluationMode(EvaluationMode.FIXED_POINT);
+
+	   assertEquals(expectedResult.toPlainString(), parser.getCalculatedExpression().toPlainString());
+	   assertEquals(parser.compile().evaluate(), parser.compile().evaluate(EvaluationMode.FIXED_POINT));
+   }
+}
@@ -0,0 +1,125 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationContext;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.FunctionRegistry;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+import ca.michaelmcmahon.MathFunction;
+import ca.michaelmcmahon.PrecisionPolicy;
+
+public class EvaluationContextTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private static final int ITERATIONS = 100000;
+
+	/**
+	 * The fixed point answer kept in the context must be the same
+	 * as the precise one.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void fixedPointResultTest() throws InfixQueueIllegalStateException
+	{
+		CompiledExpression compiled = new ExpressionEvaluator().compile("price * qty + fee - price * qty / 3", "price", "qty", "fee");
+		EvaluationContext context = new EvaluationContext();
+
+		assertEquals(2, compiled.getFixedScale());
+		assertTrue(compiled.evaluateFixedPoint(new long[] {1999, 300, 125}, context));
+		assertEquals(compiled.evaluate(new BigDecimal[] {new BigDecimal("19.99"), new BigDecimal(3), new BigDecimal("1.25")}).toPlainString(),
+				context.getResult().toPlainString());
+		assertEquals(2, context.getResultScale());
+
+		// dividing by zero is left to the precise evaluation.
+		assertFalse(new ExpressionEvaluator().compile("x / y", "x", "y").evaluateFixedPoint(new long[] {100, 0}, context));
+	}
+
+	/**
+	 * A function that evaluates another expression on the same thread must
+	 * not change the stack of the expression that calls it.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void nestedEvaluationTest() throws InfixQueueIllegalStateException
+	{
+		final CompiledExpression square = new ExpressionEvaluator().compile("x * x", "x");
+		MathFunction sq = new MathFunction()
+		{
+			@Override
+			public int getArity()
+			{
+				return 1;
+			}
+
+			@Override
+			public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+			{
+				return square.evaluate(new BigDecimal[] {arguments[0]}, policy);
+			}
+		};
+		ExpressionEvaluator evaluator = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT,
+				FunctionRegistry.DEFAULT.withFunction("sq", sq));
+
+		assertEquals("19", evaluator.evaluate("1 + 2 * sq(3)").toPlainString());
+		assertEquals("69", evaluator.evaluate("10 + ( 20 + ( 30 + sq(3) ) )").toPlainString());
+		assertEquals("100", evaluator.evaluate("sq(1 + sq(3))").toPlainString());
+	}
+
+	/**
+	 * Once warmed up, evaluating with fixed point longs on a context
+	 * must not allocate a single byte.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void allocationFreeTest() throws InfixQueueIllegalStateException
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+		CompiledExpression compiled = new ExpressionEvaluator().compile("( price * qty + fee ) / 3 - price * qty / 3", "price", "qty", "fee")
+				.optimize();
+		EvaluationContext context = EvaluationContext.current();
+		long[] row = {1999, 300, 125};
+		long threadId = Thread.currentThread().getId();
+
+		long checksum = evaluate(compiled, row, context);
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		long measuring = allocations.getThreadAllocatedBytes(threadId) - before;
+		before = allocations.getThreadAllocatedBytes(threadId);
+		checksum += evaluate(compiled, row, context);
+		long allocated = allocations.getThreadAllocatedBytes(threadId) - before - measuring;
+
+		assertEquals(2 * ITERATIONS * 42L, checksum);
+		assertEquals(0, allocated);
+	}
+
+	private static long evaluate(CompiledExpression compiled, long[] row, EvaluationContext context)
+	{
+		long checksum = 0;
+		for(int i = 0; i < ITERATIONS; i++)
+		{
+			compiled.evaluateFixedPoint(row, context);
+			checksum += context.getUnscaledResult();
+		}
+		return checksum;
+	}
+}
@@ -0,0 +1,190 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.michaelmcmahon.ErrorCode;
+import ca.michaelmcmahon.EvaluationMetrics;
+import ca.michaelmcmahon.EvaluationMetrics.Phase;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.ExpressionParser;
+import ca.michaelmcmahon.FunctionRegistry;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+import ca.michaelmcmahon.JfrEvaluationMetrics;
+import ca.michaelmcmahon.MetricsRecorder;
+import ca.michaelmcmahon.Operator;
+import ca.michaelmcmahon.PrecisionPolicy;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class EvaluationMetricsTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Nothing is measured unless metrics are given.
+	 */
+	@Test
+	public void disabledByDefaultTest()
+	{
+		assertFalse(EvaluationMetrics.NONE.isEnabled());
+		assertSame(EvaluationMetrics.NONE, new ExpressionEvaluator().getMetrics());
+		assertSame(EvaluationMetrics.NONE, new ExpressionParser().getMetrics());
+	}
+
+	/**
+	 * Every phase, operation and error of an evaluator is counted.
+	 */
+	@Test
+	public void evaluatorTest()
+	{
+		MetricsRecorder recorder = new MetricsRecorder();
+		evaluate(new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT, FunctionRegistry.DEFAULT, recorder));
+
+		assertCounts(recorder);
+		assertEquals(2, recorder.getPhaseCount(Phase.COMPILE_TEXT));
+		assertEquals(1, recorder.getPhaseCount(Phase.COMPILE_QUEUE));
+	}
+
+	/**
+	 * An expression parser is measured the same way.
+	 */
+	@Test
+	public void parserTest()
+	{
+		MetricsRecorder recorder = new MetricsRecorder();
+		ExpressionParser parser = new ExpressionParser();
+		parser.setMetrics(recorder);
+		for (String expression : new String[] {"1 + 2 * 3", "( 1 + 2 ) ^ 2", "1 / 0", "3 + * 4"})
+		{
+			parser.setInfixQueue(new LinkedList<String>(Arrays.asList(expression.split(" "))));
+			try
+			{
+				parser.getCalculatedExpression();
+			}
+			catch(InfixQueueIllegalStateException e)
+			{
+				// counted by the recorder.
+			}
+		}
+
+		assertCounts(recorder);
+		assertEquals(0, recorder.getPhaseCount(Phase.COMPILE_TEXT));
+		assertEquals(3, recorder.getPhaseCount(Phase.COMPILE_QUEUE));
+	}
+
+	/**
+	 * The histograms have a bucket for each power of two.
+	 */
+	@Test
+	public void bucketTest()
+	{
+		assertEquals(0, MetricsRecorder.bucket(0));
+		assertEquals(1, MetricsRecorder.bucket(1));
+		assertEquals(2, MetricsRecorder.bucket(3));
+		assertEquals(3, MetricsRecorder.bucket(4));
+		assertEquals(32, MetricsRecorder.bucket(Integer.MAX_VALUE + 1));
+	}
+
+	/**
+	 * Flight recorder events are written while they are recorded,
+	 * and everything is still passed on.
+	 *
+	 * @throws IOException - needs this to dump the recording.
+	 */
+	@Test
+	public void flightRecorderTest() throws IOException
+	{
+		MetricsRecorder recorder = new MetricsRecorder();
+		ExpressionEvaluator evaluator = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT, FunctionRegistry.DEFAULT,
+				new JfrEvaluationMetrics(recorder));
+		Path dump = folder.getRoot().toPath().resolve("calculator.jfr");
+
+		try (Recording recording = new Recording())
+		{
+			recording.enable("ca.michaelmcmahon.Phase");
+			recording.enable("ca.michaelmcmahon.Expression");
+			recording.enable("ca.michaelmcmahon.Error");
+			recording.start();
+			evaluate(evaluator);
+			recording.stop();
+			recording.dump(dump);
+		}
+
+		Map<String, Integer> events = new HashMap<String, Integer>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(dump))
+		{
+			String name = event.getEventType().getName();
+			events.put(name, events.containsKey(name) ? events.get(name) + 1 : 1);
+		}
+		assertEquals(Integer.valueOf(6), events.get("ca.michaelmcmahon.Phase"));
+		assertEquals(Integer.valueOf(3), events.get("ca.michaelmcmahon.Expression"));
+		assertEquals(Integer.valueOf(2), events.get("ca.michaelmcmahon.Error"));
+		assertCounts(recorder);
+	}
+
+	private static void evaluate(ExpressionEvaluator evaluator)
+	{
+		try
+		{
+			assertEquals("7", evaluator.evaluate("1 + 2 * 3").toPlainString());
+			assertEquals("9", evaluator.evaluate(new LinkedList<String>(Arrays.asList("(", "1", "+", "2", ")", "^", "2"))).toPlainString());
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			fail(e.getMessage());
+		}
+		for (String expression : new String[] {"1 / 0", "3 + * 4"})
+		{
+			try
+			{
+				evaluator.evaluate(expression);
+				fail(expression);
+			}
+			catch(InfixQueueIllegalStateException e)
+			{
+				// counted by the recorder.
+			}
+		}
+	}
+
+	private static void assertCounts(MetricsRecorder recorder)
+	{
+		assertEquals(3, recorder.getPhaseCount(Phase.EVALUATE));
+		assertEquals(2, recorder.getOperationCount(Operator.ADD));
+		assertEquals(1, recorder.getOperationCount(Operator.MULTIPLY));
+		assertEquals(1, recorder.getOperationCount(Operator.POWER));
+		assertEquals(1, recorder.getOperationCount(Operator.DIVIDE));
+		assertEquals(0, recorder.getCallCount());
+		assertEquals(1, recorder.getErrorCount(ErrorCode.DIVISION_BY_ZERO));
+		assertEquals(1, recorder.getErrorCount(ErrorCode.CONSECUTIVE_OPERATORS));
+
+		long expressions = 0;
+		for (long count : recorder.getLengthHistogram())
+		{
+			expressions += count;
+		}
+		assertEquals(3, expressions);
+		// every expression keeps two or three numbers on the stack.
+		assertEquals(3, recorder.getStackDepthHistogram()[MetricsRecorder.bucket(3)]);
+	}
+}
@@ -0,0 +1,275 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import ca.michaelmcmahon.ErrorCode;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.EvaluationServer;
+import ca.michaelmcmahon.ExpressionCache;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.FunctionRegistry;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+import ca.michaelmcmahon.MathFunction;
+import ca.michaelmcmahon.PrecisionPolicy;
+
+public class EvaluationServerTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private static final String[] EXPRESSIONS = {
+			"1 + 2",
+			"( 7 + 1 ) * 3 - 4 / 3",
+			"2 ^ 10 % 7",
+			"-max(3, sqrt(16)) * 1.5",
+			"1 / 0",
+			"3 + * 4"
+	};
+
+	private static final int REQUESTS = 2000;
+
+	/**
+	 * Every pipelined request read from a stream must be answered
+	 * once, under its own id.
+	 *
+	 * @throws IOException - needs this to serve.
+	 */
+	@Test
+	public void streamTest() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (EvaluationServer server = new EvaluationServer())
+		{
+			server.serve(new ByteArrayInputStream(requests().getBytes(StandardCharsets.UTF_8)), out);
+		}
+
+		assertResponses(new BufferedReader(new StringReader(new String(out.toByteArray(), StandardCharsets.UTF_8))));
+	}
+
+	/**
+	 * A client connected over TCP can send every request before
+	 * reading any response.
+	 *
+	 * @throws IOException - needs this to connect.
+	 */
+	@Test(timeout = 30000)
+	public void socketTest() throws IOException
+	{
+		final ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		final EvaluationServer server = new EvaluationServer();
+		Thread accepting = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					server.serve(socket);
+				}
+				catch(IOException e)
+				{
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		accepting.start();
+
+		try (Socket client = new Socket(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+		{
+			OutputStream out = client.getOutputStream();
+			out.write(requests().getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			assertResponses(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)));
+		}
+		finally
+		{
+			socket.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * A function that throws an unchecked exception fails only its own
+	 * request, the others of the batch are still answered.
+	 *
+	 * @throws IOException - needs this to serve.
+	 */
+	@Test(timeout = 30000)
+	public void failingFunctionTest() throws IOException
+	{
+		MathFunction broken = new MathFunction()
+		{
+			@Override
+			public int getArity()
+			{
+				return 1;
+			}
+
+			@Override
+			public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy)
+			{
+				throw new IllegalStateException("broken");
+			}
+		};
+		ExpressionEvaluator evaluator = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT,
+				FunctionRegistry.DEFAULT.withFunction("broken", broken));
+
+		String[] responses = serve(new EvaluationServer(new ExpressionCache(10, ExpressionCache.EvictionPolicy.LRU, evaluator)),
+				"1 broken(2) + 1\n2 1 + 1\n");
+		assertEquals("1 ERROR INVALID_EXPRESSION -1 the expression could not be evaluated.", responses[0]);
+		assertEquals("2 2", responses[1]);
+	}
+
+	/**
+	 * A line feed in the message of an error thrown by a function
+	 * cannot add a response of its own.
+	 *
+	 * @throws IOException - needs this to serve.
+	 */
+	@Test(timeout = 30000)
+	public void errorMessageLineFeedTest() throws IOException
+	{
+		MathFunction lying = new MathFunction()
+		{
+			@Override
+			public int getArity()
+			{
+				return 1;
+			}
+
+			@Override
+			public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+			{
+				throw new InfixQueueIllegalStateException(ErrorCode.INVALID_OPERAND, "refused\r\n2 42", -1);
+			}
+		};
+		ExpressionEvaluator evaluator = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT,
+				FunctionRegistry.DEFAULT.withFunction("lying", lying));
+
+		String[] responses = serve(new EvaluationServer(new ExpressionCache(10, ExpressionCache.EvictionPolicy.LRU, evaluator)),
+				"1 lying(2)\n2 1 + 2\n");
+		assertEquals(2, responses.length);
+		assertEquals("1 ERROR INVALID_OPERAND -1 refused  2 42", responses[0]);
+		assertEquals("2 3", responses[1]);
+	}
+
+	/**
+	 * A request longer than the server allows is answered with an error
+	 * and the requests after it are still read.
+	 *
+	 * @throws IOException - needs this to serve.
+	 */
+	@Test(timeout = 30000)
+	public void requestLengthTest() throws IOException
+	{
+		StringBuilder requests = new StringBuilder("1 1");
+		while(requests.length() < EvaluationServer.MAX_REQUEST_LENGTH * 2)
+		{
+			requests.append(" + 1");
+		}
+		requests.append("\r\n2 1 + 2\r\n");
+		String[] responses = serve(new EvaluationServer(), requests.toString());
+
+		assertEquals("1 ERROR INVALID_EXPRESSION -1 the request is longer than " + EvaluationServer.MAX_REQUEST_LENGTH + " characters.",
+				responses[0]);
+		assertEquals("2 3", responses[1]);
+	}
+
+	/**
+	 * A request cannot ask for a number with more digits than the server allows,
+	 * the power is refused before it is computed.
+	 *
+	 * @throws IOException - needs this to serve.
+	 */
+	@Test(timeout = 30000)
+	public void digitLimitTest() throws IOException
+	{
+		String[] responses = serve(new EvaluationServer(), "1 ( 9 ^ 9999 ) ^ 9999\n2 2 ^ 100 * 3\n3 99 ^ 400 * 99 ^ 400 * 99 ^ 400\n");
+
+		assertEquals("1 ERROR INVALID_OPERAND -1 the result would have more than " + EvaluationServer.MAX_DIGITS + " digits.", responses[0]);
+		assertEquals("2 " + BigDecimal.valueOf(2).pow(100).multiply(BigDecimal.valueOf(3)), responses[1]);
+		assertEquals("3 ERROR INVALID_OPERAND -1 the result would have more than " + EvaluationServer.MAX_DIGITS + " digits.", responses[2]);
+	}
+
+	/**
+	 * Serves requests and gives back the responses ordered by their id, which
+	 * counts from 1.
+	 */
+	private static String[] serve(EvaluationServer server, String requests) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try
+		{
+			server.serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), out);
+		}
+		finally
+		{
+			server.close();
+		}
+
+		String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+		String[] responses = new String[lines.length];
+		for (String line : lines)
+		{
+			responses[Integer.parseInt(line.substring(0, line.indexOf(' '))) - 1] = line;
+		}
+		return responses;
+	}
+
+	private static String requests()
+	{
+		StringBuilder requests = new StringBuilder();
+		for (int i = 0; i < REQUESTS; i++)
+		{
+			requests.append(i).append(' ').append(EXPRESSIONS[i % EXPRESSIONS.length]).append('\n');
+		}
+		return requests.toString();
+	}
+
+	private static void assertResponses(BufferedReader reader) throws IOException
+	{
+		Map<String, String> responses = new HashMap<String, String>();
+		for (int i = 0; i < REQUESTS; i++)
+		{
+			String line = reader.readLine();
+			int space = line.indexOf(' ');
+			responses.put(line.substring(0, space), line.substring(space + 1));
+		}
+
+		assertEquals(REQUESTS, responses.size());
+		for (int i = 0; i < REQUESTS; i++)
+		{
+			assertEquals(expected(EXPRESSIONS[i % EXPRESSIONS.length]), responses.get(String.valueOf(i)));
+		}
+	}
+
+	private static String expected(String expression)
+	{
+		try
+		{
+			return new ExpressionEvaluator().evaluate(expression).toPlainString();
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			return "ERROR " + e.getErrorCode() + " " + e.getPosition() + " " + e.getMessage();
+		}
+	}
+}
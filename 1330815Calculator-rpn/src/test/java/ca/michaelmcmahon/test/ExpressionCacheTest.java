@@ -0,0 +1,176 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationMetrics;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionCache;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.FunctionRegistry;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+import ca.michaelmcmahon.MetricsRecorder;
+import ca.michaelmcmahon.PrecisionPolicy;
+
+public class ExpressionCacheTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+   /**
+    * Asking twice for the same expression compiles it only once.
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void hitAndMissTest() throws InfixQueueIllegalStateException
+   {
+	   ExpressionCache cache = new ExpressionCache(10);
+
+	   CompiledExpression first = cache.get("2 + 7 * 3");
+	   CompiledExpression second = cache.get(" 2 + 7  * 3 ");
+	   CompiledExpression third = cache.get("2 + 7 * 3");
+
+	   assertNotSame(first, second);
+	   assertSame(first, third);
+	   assertEquals(new BigDecimal(23), third.evaluate());
+	   assertEquals(1, cache.getHitCount());
+	   assertEquals(2, cache.getMissCount());
+	   assertEquals(2, cache.size());
+   }
+
+   /**
+    * The same text with other variables is another expression.
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void variablesAreKeyedTest() throws InfixQueueIllegalStateException
+   {
+	   ExpressionCache cache = new ExpressionCache(10);
+
+	   CompiledExpression ab = cache.get("a - b", "a", "b");
+	   CompiledExpression ba = cache.get("a - b", "b", "a");
+
+	   assertEquals(new BigDecimal(1), ab.evaluate(new double[] {3, 2}));
+	   assertEquals(new BigDecimal(-1), ba.evaluate(new double[] {3, 2}));
+   }
+
+   /**
+    * A full cache evicts its least recently used expression.
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void leastRecentlyUsedEvictionTest() throws InfixQueueIllegalStateException
+   {
+	   ExpressionCache cache = new ExpressionCache(2);
+
+	   CompiledExpression one = cache.get("1");
+	   cache.get("2");
+	   cache.get("1");
+	   cache.get("3");
+
+	   assertEquals(2, cache.size());
+	   assertEquals(1, cache.getEvictionCount());
+	   assertSame(one, cache.get("1"));
+   }
+
+   /**
+    * Expressions seen only once do not push out a popular one.
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void tinyLfuAdmissionTest() throws InfixQueueIllegalStateException
+   {
+	   ExpressionCache cache = new ExpressionCache(1, ExpressionCache.EvictionPolicy.TINY_LFU);
+
+	   CompiledExpression popular = cache.get("1 + 1");
+	   for(int i = 0; i < 5; i++)
+	   {
+		   cache.get("1 + 1");
+	   }
+	   for(int i = 0; i < 20; i++)
+	   {
+		   cache.get(i + " * 2");
+	   }
+
+	   assertSame(popular, cache.get("1 + 1"));
+	   assertEquals(0, cache.getEvictionCount());
+   }
+
+   /**
+    * Invalid expressions are reported and not cached.
+    * @throws InfixQueueIllegalStateException
+    */
+   @Test(expected = InfixQueueIllegalStateException.class)
+   public void invalidExpressionTest() throws InfixQueueIllegalStateException
+   {
+	   new ExpressionCache(10).get("2 + + 7");
+   }
+
+   /**
+    * Expressions are compiled by the evaluator of the cache, so they can
+    * call its functions and are measured by its metrics.
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void evaluatorTest() throws InfixQueueIllegalStateException
+   {
+	   MetricsRecorder metrics = new MetricsRecorder();
+	   ExpressionEvaluator evaluator = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT,
+			   FunctionRegistry.DEFAULT.withFunction("biggest", FunctionRegistry.MAX), metrics);
+	   ExpressionCache cache = new ExpressionCache(10, ExpressionCache.EvictionPolicy.LRU, evaluator);
+
+	   assertSame(evaluator, cache.getEvaluator());
+	   assertEquals(new BigDecimal(7), cache.get("biggest(x, 7)", "x").evaluate(new double[] {3}));
+	   assertSame(cache.get("biggest(x, 7)", "x"), cache.get("biggest(x, 7)", "x"));
+	   assertEquals(1, metrics.getPhaseCount(EvaluationMetrics.Phase.COMPILE_TEXT));
+   }
+
+   /**
+    * Many threads can share the cache.
+    * @throws Exception - needs this to compile.
+    */
+   @Test
+   public void concurrentLookupTest() throws Exception
+   {
+	   final ExpressionCache cache = new ExpressionCache(8);
+	   ExecutorService executor = Executors.newFixedThreadPool(8);
+	   try
+	   {
+		   List<Future<BigDecimal>> results = new ArrayList<>();
+		   for(int i = 0; i < 2000; i++)
+		   {
+			   final int value = i % 16;
+			   results.add(executor.submit(new Callable<BigDecimal>()
+			   {
+				   @Override
+				   public BigDecimal call() throws Exception
+				   {
+					   return cache.get(value + " * 2 + 1").evaluate();
+				   }
+			   }));
+		   }
+		   for(int i = 0; i < results.size(); i++)
+		   {
+			   assertEquals(new BigDecimal((i % 16) * 2 + 1), results.get(i).get());
+		   }
+	   }
+	   finally
+	   {
+		   executor.shutdown();
+	   }
+	   assertEquals(2000, cache.getHitCount() + cache.getMissCount());
+   }
+}
@@ -0,0 +1,133 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.ExpressionCodec;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.FunctionRegistry;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+@RunWith(Parameterized.class)
+public class ExpressionCodecTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String[] VARIABLES = {"price", "qty", "fee"};
+	private static final BigDecimal[] ROW = {new BigDecimal("19.99"), new BigDecimal(3), new BigDecimal("1.25")};
+
+	private CompiledExpression compiled;
+
+   public ExpressionCodecTest(String infix, boolean optimized) throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression compiled = new ExpressionEvaluator().compile(infix, VARIABLES);
+	   this.compiled = optimized ? compiled.optimize() : compiled;
+   }
+
+   /**
+    * Expressions and if they are optimized before they are written.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"price * qty + fee", false},
+		   {"( price + 0.50 ) * qty - -fee / 3", false},
+		   {"2 ^ qty % 5 + 100000000000000000000.000001", false},
+		   {"max(price, sqrt(qty)) - min(fee, 1.0) + min(fee, 1.00)", false},
+		   {"( price * qty + fee ) / ( price * qty + fee ) + price * qty", true},
+		   {"1 + 2 * 3", true}
+	   });
+   }
+
+   /**
+    * An expression read back must have the same program and give the same answer.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to evaluate.
+    */
+   @Test
+   public void roundTripTest() throws InfixQueueIllegalStateException
+   {
+	   byte[] encoded = ExpressionCodec.encode(Collections.singletonList(compiled));
+	   ByteBuffer buffer = ByteBuffer.wrap(encoded);
+	   CompiledExpression decoded = ExpressionCodec.decode(buffer, FunctionRegistry.DEFAULT).get(0);
+
+	   assertEquals(encoded.length, buffer.position());
+	   assertEquals(compiled.toString(), decoded.toString());
+	   assertArrayEquals(compiled.getVariables(), decoded.getVariables());
+	   assertEquals(compiled.getMaxStackDepth(), decoded.getMaxStackDepth());
+	   assertEquals(compiled.evaluate(ROW), decoded.evaluate(ROW));
+   }
+
+   /**
+    * Many expressions written to a file are read back in order
+    * through a memory mapping.
+    *
+    * @throws IOException - needs this to write the file.
+    * @throws InfixQueueIllegalStateException - needs this to evaluate.
+    */
+   @Test
+   public void fileTest() throws IOException, InfixQueueIllegalStateException
+   {
+	   List<CompiledExpression> expressions = new ArrayList<CompiledExpression>();
+	   for (int i = 0; i < 100; i++)
+	   {
+		   expressions.add(i % 2 == 0 ? compiled : new ExpressionEvaluator().compile("price * " + i, VARIABLES));
+	   }
+	   Path file = folder.getRoot().toPath().resolve("formulas.rpnx");
+	   ExpressionCodec.write(file, expressions);
+
+	   List<CompiledExpression> read = ExpressionCodec.read(file, FunctionRegistry.DEFAULT);
+	   assertEquals(expressions.size(), read.size());
+	   for (int i = 0; i < read.size(); i++)
+	   {
+		   assertEquals(expressions.get(i).toString(), read.get(i).toString());
+		   assertEquals(expressions.get(i).evaluate(ROW), read.get(i).evaluate(ROW));
+	   }
+   }
+
+   /**
+    * A buffer from a newer version cannot be read.
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void newerVersionTest()
+   {
+	   byte[] encoded = ExpressionCodec.encode(Collections.singletonList(compiled));
+	   encoded[4] = ExpressionCodec.VERSION + 1;
+	   ExpressionCodec.decode(ByteBuffer.wrap(encoded), FunctionRegistry.DEFAULT);
+   }
+
+   /**
+    * A function is only found again if the registry has it with the same arity.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void wrongArityTest() throws InfixQueueIllegalStateException
+   {
+	   byte[] encoded = ExpressionCodec.encode(Collections.singletonList(new ExpressionEvaluator().compile("sqrt(2)")));
+	   ExpressionCodec.decode(ByteBuffer.wrap(encoded), FunctionRegistry.DEFAULT.withFunction("sqrt", FunctionRegistry.MIN));
+   }
+}
@@ -0,0 +1,88 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+
+@RunWith(Parameterized.class)
+public class ExpressionEvaluatorTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private static final ExpressionEvaluator PRECISE = new ExpressionEvaluator();
+	private static final ExpressionEvaluator FAST = new ExpressionEvaluator(EvaluationMode.FAST);
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(8);
+
+	private Queue<String> infixQueue;
+	private BigDecimal expectedResult;
+
+   public ExpressionEvaluatorTest(String infix, String expectedPostfix, BigDecimal expectedResult)
+   {
+	   this.infixQueue = new LinkedList<>(Arrays.asList(infix.split(" ")));
+	   this.expectedResult = expectedResult;
+   }
+
+   /**
+    * Uses the same valid expressions as the calculator test.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return CalculatorTest.Expressions();
+   }
+
+   @AfterClass
+   public static void shutdown()
+   {
+	   EXECUTOR.shutdown();
+   }
+
+   /**
+    * A single evaluator used by many threads at the same time must
+    * give every thread the right answer.
+    *
+    * @throws Exception - needs this to compile.
+    */
+   @Test
+   public void sharedEvaluatorTest() throws Exception
+   {
+	   List<Future<BigDecimal>> results = new ArrayList<>();
+	   for(int i = 0; i < 200; i++)
+	   {
+		   final ExpressionEvaluator evaluator = i % 2 == 0 ? PRECISE : FAST;
+		   results.add(EXECUTOR.submit(new Callable<BigDecimal>()
+		   {
+			   @Override
+			   public BigDecimal call() throws Exception
+			   {
+				   return evaluator.evaluate(infixQueue);
+			   }
+		   }));
+	   }
+	   for(Future<BigDecimal> result : results)
+	   {
+		   assertEquals(expectedResult.toPlainString(), result.get().toPlainString());
+	   }
+   }
+}
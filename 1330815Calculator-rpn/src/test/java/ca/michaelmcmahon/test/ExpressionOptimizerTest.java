@@ -0,0 +1,123 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.BytecodeCompiler;
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+@RunWith(Parameterized.class)
+public class ExpressionOptimizerTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private static final BigDecimal[][] ROWS = {
+		{new BigDecimal("3"), new BigDecimal("4")},
+		{new BigDecimal("2.5"), new BigDecimal("-1.25")},
+		{new BigDecimal("0"), new BigDecimal("7")}
+	};
+
+	private CompiledExpression compiled;
+	private String expectedPostfix;
+
+   public ExpressionOptimizerTest(String infix, String expectedPostfix) throws InfixQueueIllegalStateException
+   {
+	   this.compiled = new ExpressionEvaluator().compile(infix, "x", "y");
+	   this.expectedPostfix = expectedPostfix;
+   }
+
+   /**
+    * Expressions with the program expected after optimizing them.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"( 2 * 3 ) / 4 + x", "1.50 x +"},
+		   {"x * 1 + 0 - 0", "x"},
+		   {"1 * ( 0 + y ) * 1", "y"},
+		   {"x / 1", "x 1 /"},
+		   {"x * 0", "x 0 *"},
+		   {"( x + y ) * ( x + y )", "x y + $0= $0 *"},
+		   {"( x * y + 1 ) / 2 - ( x * y + 1 ) / 2 + x * y", "x y * $0= 1 + 2 / $1= $1 - $0 +"},
+		   {"x + 2 * 3 - 6 / 3", "x 6 + 2 -"},
+		   {"2 + 7 * 3 - ( 4 / 2 )", "21"},
+		   {"x / ( 4 - 4 )", "x 0 /"}
+	   });
+   }
+
+   /**
+    * The optimizer must fold constants, remove identities and share
+    * subexpressions as expected.
+    */
+   @Test
+   public void optimizedProgramTest()
+   {
+	   assertEquals(expectedPostfix, compiled.optimize().toString());
+   }
+
+   /**
+    * The optimized expression must give the same answers in every way
+    * of evaluating it.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void sameAnswerTest() throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression optimized = compiled.optimize();
+	   for(BigDecimal[] row : ROWS)
+	   {
+		   String expected;
+		   try
+		   {
+			   expected = compiled.evaluate(row).toPlainString();
+		   }
+		   catch(InfixQueueIllegalStateException e)
+		   {
+			   expected = e.getMessage();
+		   }
+
+		   assertEquals(expected, answer(optimized, EvaluationMode.PRECISE, row));
+		   assertEquals(expected, answer(optimized, EvaluationMode.FAST, row));
+		   assertEquals(expected, answer(optimized, null, row));
+	   }
+
+	   double[][] columns = {{3, 2.5, 0}, {4, -1.25, 7}};
+	   double[] expected = new double[3];
+	   double[] results = new double[3];
+	   compiled.evaluateBatch(columns, expected);
+	   optimized.evaluateBatch(columns, results);
+	   assertEquals(Arrays.toString(expected), Arrays.toString(results));
+   }
+
+   /**
+    * Evaluates in a mode, or with generated bytecode if the mode is null.
+    */
+   private static String answer(CompiledExpression expression, EvaluationMode mode, BigDecimal[] row)
+   {
+	   try
+	   {
+		   if(mode == null)
+			   return BytecodeCompiler.compile(expression).evaluate(row).toPlainString();
+		   return expression.evaluate(mode, row).toPlainString();
+	   }
+	   catch(InfixQueueIllegalStateException e)
+	   {
+		   return e.getMessage();
+	   }
+   }
+}
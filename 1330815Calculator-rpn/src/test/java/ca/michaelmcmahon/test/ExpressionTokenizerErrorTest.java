@@ -0,0 +1,68 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+@RunWith(Parameterized.class)
+public class ExpressionTokenizerErrorTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private String infix;
+	private int expectedPosition;
+
+   public ExpressionTokenizerErrorTest(String infix, int expectedPosition)
+   {
+	   this.infix = infix;
+	   this.expectedPosition = expectedPosition;
+   }
+
+   /**
+    * Invalid expressions and the offset of the character that is wrong.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"+2 + 7", 0},
+		   {"2 + 7 + * 5", 8},
+		   {"2 / 2 +  + 7", 9},
+		   {"2 + 7 # 1", 6},
+		   {"2 + a * c", 4},
+		   {".22 + 7", 0},
+		   {"2 + 1.", 4},
+		   {"2.2.2 + 7", 0},
+		   {"4 * ( 2 + )", 10}
+	   });
+   }
+
+   /**
+    * The exception must tell where the expression is wrong.
+    */
+   @Test
+   public void errorPositionTest()
+   {
+	   try
+	   {
+		   new ExpressionEvaluator().compile(infix);
+		   fail("The expression " + infix + " is not valid");
+	   }
+	   catch(InfixQueueIllegalStateException e)
+	   {
+		   assertEquals(e.getMessage(), expectedPosition, e.getPosition());
+	   }
+   }
+}
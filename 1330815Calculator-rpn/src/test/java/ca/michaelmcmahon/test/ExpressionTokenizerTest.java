@@ -0,0 +1,78 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+@RunWith(Parameterized.class)
+public class ExpressionTokenizerTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+	private String infix;
+	private String expectedPostfix;
+	private BigDecimal expectedResult;
+
+   public ExpressionTokenizerTest(String infix, String expectedPostfix, BigDecimal expectedResult)
+   {
+	   this.infix = infix;
+	   this.expectedPostfix = expectedPostfix;
+	   this.expectedResult = expectedResult;
+   }
+
+   /**
+    * Uses the same valid expressions as the calculator test.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return CalculatorTest.Expressions();
+   }
+
+   /**
+    * Reading the text directly must give the same postfix form and answer
+    * as splitting it into a queue, whatever the source of the characters.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void textExpressionTest() throws InfixQueueIllegalStateException
+   {
+	   ByteBuffer bytes = ByteBuffer.wrap(("  " + infix + "  ").getBytes(StandardCharsets.US_ASCII));
+	   bytes.position(2);
+	   bytes.limit(bytes.limit() - 2);
+
+	   assertEquals(expectedResult.toPlainString(), evaluator.evaluate(infix).toPlainString());
+	   assertEquals(expectedPostfix, evaluator.compile(infix).toString());
+	   assertEquals(expectedPostfix, evaluator.compile(infix.toCharArray()).toString());
+	   assertEquals(expectedPostfix, evaluator.compile(bytes).toString());
+	   assertEquals(2, bytes.position());
+   }
+
+   /**
+    * Spaces are not needed between the items of an expression.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void withoutSpacesTest() throws InfixQueueIllegalStateException
+   {
+	   String compact = infix.replace(" ", "");
+
+	   assertEquals(expectedResult.toPlainString(), evaluator.evaluate(compact).toPlainString());
+   }
+}
@@ -0,0 +1,213 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.ExpressionTree;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+import ca.michaelmcmahon.PrecisionPolicy;
+
+public class ExpressionTreeTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+	private static final String[] OPERATORS = {" + ", " - ", " * ", " / "};
+
+	private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+
+	@AfterClass
+	public static void shutdown()
+	{
+		POOL.shutdown();
+	}
+
+	/**
+	 * Builds a balanced expression with 2 to the power of depth numbers,
+	 * every division is by a number that is not zero.
+	 */
+	private static void balanced(StringBuilder expression, Random random, int depth)
+	{
+		if(depth == 0)
+		{
+			expression.append(1 + random.nextInt(9));
+			return;
+		}
+		int operator = random.nextInt(OPERATORS.length);
+		expression.append("( ");
+		balanced(expression, random, depth - 1);
+		expression.append(OPERATORS[operator]);
+		if(operator == 3)
+			expression.append(1 + random.nextInt(9));
+		else
+			balanced(expression, random, depth - 1);
+		expression.append(" )");
+	}
+
+	/**
+	 * Splitting the expressions of the calculator test into the
+	 * smallest chunks must not change their answers.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void smallExpressionTest() throws InfixQueueIllegalStateException
+	{
+		for(Object[] parameters : CalculatorTest.Expressions())
+		{
+			CompiledExpression compiled = evaluator.compile((String) parameters[0]);
+			ExpressionTree tree = new ExpressionTree(compiled, 1);
+
+			assertEquals(((BigDecimal) parameters[2]).toPlainString(), tree.evaluate(new BigDecimal[0], POOL).toPlainString());
+		}
+	}
+
+	/**
+	 * A large balanced expression is cut into many chunks and
+	 * gives the same answer as the sequential evaluation.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void largeBalancedExpressionTest() throws InfixQueueIllegalStateException
+	{
+		StringBuilder expression = new StringBuilder();
+		balanced(expression, new Random(42), 16);
+		CompiledExpression compiled = evaluator.compile(expression);
+		ExpressionTree tree = new ExpressionTree(compiled, 256);
+
+		assertTrue(tree.getChunkCount() > 100);
+		assertEquals(compiled.evaluate().toPlainString(), tree.evaluate(new BigDecimal[0], POOL).toPlainString());
+	}
+
+	/**
+	 * A long chain of terms is balanced before it is cut, so its chunks hold
+	 * many terms rather than one each, and it still gives the same answer.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void largeChainExpressionTest() throws InfixQueueIllegalStateException
+	{
+		StringBuilder expression = new StringBuilder("x");
+		Random random = new Random(7);
+		for(int i = 0; i < 100000; i++)
+		{
+			expression.append(i % 2 == 0 ? " + " : " - ").append(1 + random.nextInt(9)).append(" * ( x / 4 )");
+		}
+		CompiledExpression compiled = evaluator.compile(expression, "x");
+		ExpressionTree tree = new ExpressionTree(compiled, 1000);
+		BigDecimal[] row = {new BigDecimal("3.5")};
+
+		assertTrue(tree.getChunkCount() < 4 * compiled.getLength() / 1000);
+		assertEquals(compiled.evaluate(row).toPlainString(), tree.evaluate(row, POOL).toPlainString());
+	}
+
+	/**
+	 * A sum of a million variables leaning to the left is cut into chunks of
+	 * about half the threshold, not into a chunk per variable.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void leftDeepChainTest() throws InfixQueueIllegalStateException
+	{
+		CompiledExpression compiled = evaluator.compile(chain(1000000), "x");
+		ExpressionTree tree = new ExpressionTree(compiled, 4096);
+		BigDecimal[] row = {new BigDecimal("0.25")};
+
+		assertTrue(tree.getChunkCount() > compiled.getLength() / 4096);
+		assertTrue(tree.getChunkCount() < 4 * compiled.getLength() / 4096);
+		assertEquals("250000", tree.evaluate(row, POOL).toPlainString());
+	}
+
+	/**
+	 * Chains of additions, subtractions and multiplications nested in each other
+	 * give the same answer balanced, and as written with a policy that rounds.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void mixedChainTest() throws InfixQueueIllegalStateException
+	{
+		String expression = "x - ( 1 - x * 2 * x * 3 - 4 ) + 5 * ( x + 1 + x ) * 2 - 7 / ( x - 1 - 1 ) * x * x - - x + 1.5";
+		CompiledExpression compiled = evaluator.compile(expression, "x");
+		ExpressionTree tree = new ExpressionTree(compiled, 1);
+		PrecisionPolicy rounding = new PrecisionPolicy(2, RoundingMode.HALF_UP, new MathContext(3));
+
+		for(String x : new String[] {"3", "0.7", "-12.25"})
+		{
+			BigDecimal[] row = {new BigDecimal(x)};
+			assertEquals(compiled.evaluate(row).toPlainString(), tree.evaluate(row, POOL).toPlainString());
+			assertEquals(compiled.evaluate(row, rounding).toPlainString(), tree.evaluate(row, rounding, POOL).toPlainString());
+		}
+	}
+
+	/**
+	 * A sum leaning to the left is evaluated faster on four threads than on
+	 * one, only run with -Dscaling.full=true since it measures time.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void leftDeepChainSpeedupTest() throws InfixQueueIllegalStateException
+	{
+		assumeTrue(Boolean.getBoolean("scaling.full") && Runtime.getRuntime().availableProcessors() >= 4);
+		CompiledExpression compiled = evaluator.compile(chain(2000000), "x");
+		ExpressionTree tree = new ExpressionTree(compiled);
+		BigDecimal[] row = {new BigDecimal("0.25")};
+
+		long sequential = Long.MAX_VALUE;
+		long parallel = Long.MAX_VALUE;
+		for(int i = 0; i < 5; i++)
+		{
+			long start = System.nanoTime();
+			compiled.evaluate(row);
+			sequential = Math.min(sequential, System.nanoTime() - start);
+			start = System.nanoTime();
+			tree.evaluate(row, POOL);
+			parallel = Math.min(parallel, System.nanoTime() - start);
+		}
+		assertTrue(sequential + " ns on one thread but " + parallel + " on four", parallel * 3 < sequential * 2);
+	}
+
+	/**
+	 * Builds x + x + ... + x with an amount of terms.
+	 */
+	private static StringBuilder chain(int terms)
+	{
+		StringBuilder expression = new StringBuilder(terms * 4).append('x');
+		for(int i = 1; i < terms; i++)
+		{
+			expression.append(" + x");
+		}
+		return expression;
+	}
+
+	/**
+	 * Dividing by zero in a chunk evaluated on another thread
+	 * is thrown by the evaluation.
+	 *
+	 * @throws InfixQueueIllegalStateException - expected.
+	 */
+	@Test(expected = InfixQueueIllegalStateException.class)
+	public void divideByZeroTest() throws InfixQueueIllegalStateException
+	{
+		CompiledExpression compiled = evaluator.compile("( 1 + 2 ) * 3 / ( ( 4 - 4 ) * 7 )");
+		new ExpressionTree(compiled, 2).evaluate(new BigDecimal[0], POOL);
+	}
+}
@@ -0,0 +1,193 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.BytecodeCompiler;
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.ExpressionParser;
+import ca.michaelmcmahon.ExpressionTree;
+import ca.michaelmcmahon.FunctionRegistry;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+import ca.michaelmcmahon.MathFunction;
+import ca.michaelmcmahon.PrecisionPolicy;
+
+@RunWith(Parameterized.class)
+public class FunctionRegistryTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	/**
+	 * Keeps a value between two bounds, a function of three arguments.
+	 */
+	private static final MathFunction CLAMP = new MathFunction()
+	{
+		@Override
+		public int getArity()
+		{
+			return 3;
+		}
+
+		@Override
+		public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy)
+		{
+			return arguments[0].max(arguments[1]).min(arguments[2]);
+		}
+	};
+
+	/**
+	 * Doubles a value by evaluating another expression, then clears the
+	 * array of its arguments, which must not change the expression calling it.
+	 */
+	private static final MathFunction TWICE = new MathFunction()
+	{
+		@Override
+		public int getArity()
+		{
+			return 1;
+		}
+
+		@Override
+		public BigDecimal apply(BigDecimal[] arguments, PrecisionPolicy policy) throws InfixQueueIllegalStateException
+		{
+			BigDecimal answer = new ExpressionEvaluator().compile("y + y", "y").evaluate(new BigDecimal[] {arguments[0]}, policy);
+			Arrays.fill(arguments, null);
+			return answer;
+		}
+	};
+
+	private static final FunctionRegistry FUNCTIONS = FunctionRegistry.DEFAULT.withFunction("clamp", CLAMP).withFunction("twice", TWICE);
+	private static final BigDecimal[] ROW = {new BigDecimal("12.5")};
+
+	private String infix;
+	private String expectedPostfix;
+	private String expectedResult;
+
+   public FunctionRegistryTest(String infix, String expectedPostfix, String expectedResult)
+   {
+	   this.infix = infix;
+	   this.expectedPostfix = expectedPostfix;
+	   this.expectedResult = expectedResult;
+   }
+
+   /**
+    * Expressions with unary minus, powers, remainders and functions, with the
+    * postfix they are converted to and their answer when x is 12.5.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"- 2 + 3", "2 ~ 3 +", "1"},
+		   {"2 * - 3", "2 3 ~ *", "-6"},
+		   {"- ( 2 + 3 )", "2 3 + ~", "-5"},
+		   {"- - 4", "4 ~ ~", "4"},
+		   {"- 2 ^ 2", "2 2 ^ ~", "-4"},
+		   {"2 ^ 3 ^ 2", "2 3 2 ^ ^", "512"},
+		   {"2 ^ - 2", "2 2 ~ ^", "0.25"},
+		   {"1.5 ^ 2 - x", "1.5 2 ^ x -", "-10.25"},
+		   {"2 ^ 10 % 1000", "2 10 ^ 1000 %", "24"},
+		   {"7 % 3 * 2", "7 3 % 2 *", "2"},
+		   {"- 7 % 3", "7 ~ 3 %", "-1"},
+		   {"x % 5", "x 5 %", "2.5"},
+		   {"max ( 2 , 3 ) * min ( 4 , - 1 )", "2 3 max 4 1 ~ min *", "-3"},
+		   {"sqrt ( 2 )", "2 sqrt", "1.41"},
+		   {"sqrt ( 1.0100249 )", "1.0100249 sqrt", "1"},
+		   {"sqrt ( 0.000025 ) * 100", "0.000025 sqrt 100 *", "1"},
+		   {"sqrt ( 16 ) + max ( 1 + 2 , 2 * 2 )", "16 sqrt 1 2 + 2 2 * max +", "8"},
+		   {"max ( min ( 1 , 2 ) , sqrt ( x * 2 ) )", "1 2 min x 2 * sqrt max", "5"},
+		   {"clamp ( x , 0 , 10 ) * 2", "x 0 10 clamp 2 *", "20"},
+		   {"clamp ( - x , 0 , 10 ) + clamp ( x , 0 , 10 )", "x ~ 0 10 clamp x 0 10 clamp +", "10"},
+		   {"x + twice ( x ) * 2", "x x twice 2 * +", "62.5"},
+		   {"1 + twice ( twice ( x - 0.5 ) + 1 )", "1 x 0.5 - twice 1 + twice +", "51"}
+	   });
+   }
+
+   /**
+    * An infix queue and the same expression as text are converted
+    * to the expected postfix.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void postfixTest() throws InfixQueueIllegalStateException
+   {
+	   ExpressionParser parser = new ExpressionParser(new LinkedList<>(Arrays.asList(infix.split(" "))));
+	   parser.setFunctionRegistry(FUNCTIONS);
+	   assertEquals(expectedPostfix, parser.compile("x").toString());
+	   assertEquals(expectedPostfix, String.join(" ", parser.getPostFixQueue()));
+
+	   ExpressionEvaluator evaluator = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT, FUNCTIONS);
+	   assertEquals(expectedPostfix, evaluator.compile(infix.replace(" ", ""), "x").toString());
+   }
+
+   /**
+    * Every way of evaluating the expression gives the same answer, the
+    * functions given by the test are called like the built in ones.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void sameAnswerTest() throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression compiled = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT, FUNCTIONS).compile(infix, "x");
+
+	   assertEquals(expectedResult, compiled.evaluate(ROW).toPlainString());
+	   assertEquals(expectedResult, compiled.evaluate(EvaluationMode.FAST, ROW).toPlainString());
+	   assertEquals(expectedResult, compiled.evaluate(EvaluationMode.FIXED_POINT, ROW).toPlainString());
+	   assertEquals(expectedResult, BytecodeCompiler.compile(compiled).evaluate(ROW).toPlainString());
+	   assertEquals(expectedResult, compiled.optimize().evaluate(ROW).toPlainString());
+	   assertEquals(expectedResult, new ExpressionTree(compiled, 1).evaluate(ROW, ForkJoinPool.commonPool()).toPlainString());
+
+	   double[] results = new double[1];
+	   compiled.evaluateBatch(new double[][] {{12.5}}, results);
+	   assertEquals(Double.parseDouble(expectedResult), results[0], 0.0);
+   }
+
+   /**
+    * Whole numbers are evaluated on the long stack and give the same answers.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void wholeNumberTest() throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression compiled = new ExpressionEvaluator(EvaluationMode.PRECISE, PrecisionPolicy.DEFAULT, FUNCTIONS).compile(infix, "x");
+	   BigDecimal[] row = {new BigDecimal("-3")};
+	   String expected;
+	   try
+	   {
+		   expected = compiled.evaluate(row).toPlainString();
+	   }
+	   catch(InfixQueueIllegalStateException e)
+	   {
+		   expected = e.getMessage();
+	   }
+
+	   for(EvaluationMode mode : EvaluationMode.values())
+	   {
+		   try
+		   {
+			   assertEquals(expected, compiled.evaluate(mode, row).toPlainString());
+		   }
+		   catch(InfixQueueIllegalStateException e)
+		   {
+			   assertEquals(expected, e.getMessage());
+		   }
+	   }
+   }
+}
@@ -0,0 +1,153 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.ErrorCode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.IncrementalExpression;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+public class IncrementalExpressionTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private static final int LEVELS = 8;
+	private static final String[] OPERATORS = {" + ", " * ", " - "};
+
+	/**
+	 * Changing one variable of a balanced expression evaluates only the path
+	 * from the variable to the root, and gives the same answer as evaluating
+	 * the whole expression.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void pathOnlyTest() throws InfixQueueIllegalStateException
+	{
+		int count = 1 << LEVELS;
+		String[] names = new String[count];
+		BigDecimal[] row = new BigDecimal[count];
+		for (int i = 0; i < count; i++)
+		{
+			names[i] = "x" + i;
+			row[i] = BigDecimal.valueOf(i + 1);
+		}
+		CompiledExpression compiled = new ExpressionEvaluator().compile(balanced(0, count, 0), names);
+		IncrementalExpression incremental = new IncrementalExpression(compiled, row);
+		assertEquals(compiled.evaluate(row), incremental.evaluate());
+
+		Random random = new Random(42);
+		for (int update = 0; update < 500; update++)
+		{
+			int slot = random.nextInt(count);
+			row[slot] = BigDecimal.valueOf(random.nextInt(1000) + 1, random.nextInt(3));
+			incremental.set(slot, row[slot]);
+
+			assertEquals(compiled.evaluate(row), incremental.evaluate());
+			assertTrue(incremental.getRecomputedCount() <= LEVELS + 1);
+		}
+	}
+
+	/**
+	 * A subexpression shared by an optimized expression is updated
+	 * once for every place it is used.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void sharedSubexpressionTest() throws InfixQueueIllegalStateException
+	{
+		CompiledExpression compiled = new ExpressionEvaluator().compile("(a + b) * (a + b) - (a + b) / c", "a", "b", "c").optimize();
+		assertTrue(compiled.toString().contains("$"));
+
+		BigDecimal[] row = {new BigDecimal(2), new BigDecimal(3), new BigDecimal(4)};
+		IncrementalExpression incremental = new IncrementalExpression(compiled, row);
+		assertEquals(new BigDecimal("23.75"), incremental.evaluate());
+
+		row[0] = new BigDecimal(6);
+		assertEquals(compiled.evaluate(row), incremental.evaluate(row));
+		row[2] = new BigDecimal(8);
+		assertEquals(compiled.evaluate(row), incremental.evaluate(row));
+		assertEquals(3, incremental.getRecomputedCount());
+	}
+
+	/**
+	 * A node whose answer does not change does not make the
+	 * nodes above it dirty.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void unchangedAnswerTest() throws InfixQueueIllegalStateException
+	{
+		CompiledExpression compiled = new ExpressionEvaluator().compile("min(a, b) * 2 + c", "a", "b", "c");
+		IncrementalExpression incremental = new IncrementalExpression(compiled,
+				new BigDecimal[] {new BigDecimal(1), new BigDecimal(5), new BigDecimal(10)});
+
+		incremental.set(1, new BigDecimal(6));
+		assertEquals(2, incremental.getRecomputedCount());
+		incremental.set(1, new BigDecimal(6));
+		assertEquals(0, incremental.getRecomputedCount());
+		incremental.set(0, new BigDecimal(3));
+		assertEquals(new BigDecimal(16), incremental.evaluate());
+	}
+
+	/**
+	 * An error is remembered until the variable that causes it changes.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test
+	public void errorTest() throws InfixQueueIllegalStateException
+	{
+		CompiledExpression compiled = new ExpressionEvaluator().compile("a / b + c", "a", "b", "c");
+		IncrementalExpression incremental = new IncrementalExpression(compiled,
+				new BigDecimal[] {new BigDecimal(1), BigDecimal.ZERO, new BigDecimal(10)});
+
+		incremental.set(2, new BigDecimal(20));
+		try
+		{
+			incremental.evaluate();
+			fail("dividing by zero");
+		}
+		catch(InfixQueueIllegalStateException e)
+		{
+			assertEquals(ErrorCode.DIVISION_BY_ZERO, e.getErrorCode());
+		}
+
+		incremental.set(1, new BigDecimal(4));
+		assertEquals(new BigDecimal("20.25"), incremental.evaluate());
+	}
+
+	/**
+	 * A row with the wrong amount of values is refused.
+	 *
+	 * @throws InfixQueueIllegalStateException - needs this to compile.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongRowTest() throws InfixQueueIllegalStateException
+	{
+		new IncrementalExpression(new ExpressionEvaluator().compile("a + b", "a", "b"), new BigDecimal[] {BigDecimal.ONE});
+	}
+
+	/**
+	 * Builds a balanced expression of the variables from start to end.
+	 */
+	private static String balanced(int start, int end, int level)
+	{
+		if(end - start == 1)
+			return "x" + start;
+		int middle = (start + end) >>> 1;
+		return "(" + balanced(start, middle, level + 1) + OPERATORS[level % OPERATORS.length] + balanced(middle, end, level + 1) + ")";
+	}
+}
@@ -0,0 +1,80 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.ExpressionTree;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+import ca.michaelmcmahon.PrecisionPolicy;
+
+@RunWith(Parameterized.class)
+public class PrecisionPolicyTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private static final BigDecimal[] NO_VALUES = new BigDecimal[0];
+
+	private String infix;
+	private PrecisionPolicy policy;
+	private String expectedResult;
+
+   public PrecisionPolicyTest(String infix, PrecisionPolicy policy, String expectedResult)
+   {
+	   this.infix = infix;
+	   this.policy = policy;
+	   this.expectedResult = expectedResult;
+   }
+
+   /**
+    * Expressions with a policy and the answer expected with it.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"1 / 3", PrecisionPolicy.DEFAULT, "0.33"},
+		   {"1 / 3", new PrecisionPolicy(5, RoundingMode.HALF_UP), "0.33333"},
+		   {"2 / 3", new PrecisionPolicy(0, RoundingMode.DOWN), "0"},
+		   {"1 / 3 * 3", new PrecisionPolicy(4, RoundingMode.HALF_EVEN), "0.9999"},
+		   {"10 / 3 * 10 / 3 * 10 / 3", new PrecisionPolicy(10, RoundingMode.HALF_UP, new MathContext(4)), "37.03"},
+		   {"123456 * 1000 + 1", new PrecisionPolicy(2, RoundingMode.HALF_UP, new MathContext(3)), "123000000"},
+		   {"6 / 2 * 7 - 1", new PrecisionPolicy(0, RoundingMode.UP), "20"},
+		   {"99999 * 99999 + 2 ^ 3", PrecisionPolicy.DEFAULT.withMaxDigits(10), "9999800009"},
+		   {"sqrt ( 150 )", new PrecisionPolicy(2, RoundingMode.HALF_UP, new MathContext(3)), "12.2"},
+		   {"sqrt ( 99.9 )", new PrecisionPolicy(4, RoundingMode.DOWN, new MathContext(2)), "9.9"}
+	   });
+   }
+
+   /**
+    * Every way of evaluating an expression must follow the policy.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void precisionPolicyTest() throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression compiled = new ExpressionEvaluator().compile(infix);
+
+	   assertEquals(expectedResult, compiled.evaluate(NO_VALUES, policy).toPlainString());
+	   assertEquals(expectedResult, compiled.evaluate(EvaluationMode.FAST, NO_VALUES, policy).toPlainString());
+	   assertEquals(expectedResult, compiled.optimize(policy).evaluate(NO_VALUES, policy).toPlainString());
+	   assertEquals(expectedResult, new ExpressionTree(compiled, 1).evaluate(NO_VALUES, policy, ForkJoinPool.commonPool()).toPlainString());
+	   assertEquals(expectedResult, new ExpressionEvaluator(EvaluationMode.FAST, policy).evaluate(infix).toPlainString());
+   }
+}
@@ -0,0 +1,207 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+/***
+ *
+ * @author Michael McMahon
+ * @version 1.0
+ *
+ * Converts and evaluates very long and very deeply nested expressions and checks
+ * that the memory they use grows linearly with their length. The time taken is only
+ * measured when run with -Dscaling.full=true, up to ten million items.
+ */
+@RunWith(Parameterized.class)
+public class ScalingTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	// the largest expression is sixteen times the smallest, its time per item may be
+	// a few times more for the garbage collector and the caches, but not sixteen.
+	// Its memory per item is only more for the arrays that double.
+	private static final int SMALL = 62500;
+	private static final int LARGE = 1000000;
+	private static final int FULL = 10000000;
+	private static final double MAX_SLOWDOWN = 4;
+	private static final double MAX_GROWTH = 2;
+
+	private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+	private String shape;
+	private int itemsPerOperand;
+
+   public ScalingTest(String shape, int itemsPerOperand)
+   {
+	   this.shape = shape;
+	   this.itemsPerOperand = itemsPerOperand;
+   }
+
+   /**
+    * The shape of the expressions and the amount of items for each operand.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"flat", 2},
+		   {"left nested", 4},
+		   {"right nested", 4},
+		   {"functions", 4}
+	   });
+   }
+
+   /**
+    * A hundred thousand parentheses nested in each other are converted and
+    * evaluated, and only the expressions that keep every operand waiting need
+    * a deep stack.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void deepNestingTest() throws InfixQueueIllegalStateException
+   {
+	   int operands = 100001;
+	   CompiledExpression compiled = evaluator.compile(expression(operands));
+
+	   assertEquals(new BigDecimal(operands), compiled.evaluate());
+	   assertEquals(shape.equals("right nested") || shape.equals("functions") ? operands : 2, compiled.getMaxStackDepth());
+   }
+
+   /**
+    * Compiling and evaluating an expression sixteen times longer allocates
+    * about sixteen times more memory.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to evaluate.
+    */
+   @Test
+   public void linearMemoryTest() throws InfixQueueIllegalStateException
+   {
+	   java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	   assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+	   com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+	   assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+	   String small = expression(SMALL / itemsPerOperand);
+	   String large = expression(LARGE / itemsPerOperand);
+	   evaluator.evaluate(small);
+
+	   long thread = Thread.currentThread().getId();
+	   long start = allocations.getThreadAllocatedBytes(thread);
+	   evaluator.evaluate(small);
+	   double smallBytes = (double) (allocations.getThreadAllocatedBytes(thread) - start) / SMALL;
+	   start = allocations.getThreadAllocatedBytes(thread);
+	   evaluator.evaluate(large);
+	   double largeBytes = (double) (allocations.getThreadAllocatedBytes(thread) - start) / LARGE;
+
+	   assertTrue(shape + ": " + smallBytes + " bytes per item for " + SMALL + " items but " + largeBytes + " for " + LARGE,
+			   largeBytes < smallBytes * MAX_GROWTH);
+   }
+
+   /**
+    * An expression sixteen times longer takes about sixteen times longer,
+    * only run when asked for since it measures time.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to evaluate.
+    */
+   @Test
+   public void linearTest() throws InfixQueueIllegalStateException
+   {
+	   assumeTrue(Boolean.getBoolean("scaling.full"));
+	   assertLinear(LARGE);
+   }
+
+   /**
+    * An expression of ten million items takes about a hundred and sixty
+    * times longer than one of sixty two thousand, only run when asked for.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to evaluate.
+    */
+   @Test
+   public void fullLinearTest() throws InfixQueueIllegalStateException
+   {
+	   assumeTrue(Boolean.getBoolean("scaling.full"));
+	   assertLinear(FULL);
+   }
+
+   private void assertLinear(int largeItems) throws InfixQueueIllegalStateException
+   {
+	   String small = expression(SMALL / itemsPerOperand);
+	   String large = expression(largeItems / itemsPerOperand);
+	   for (int i = 0; i < 10; i++)
+	   {
+		   evaluator.evaluate(small);
+	   }
+
+	   double smallNanos = (double) fastest(small, 5) / SMALL;
+	   double largeNanos = (double) fastest(large, 3) / largeItems;
+	   assertTrue(shape + ": " + smallNanos + " ns per item for " + SMALL + " items but " + largeNanos + " for " + largeItems,
+			   largeNanos < smallNanos * MAX_SLOWDOWN);
+   }
+
+   private long fastest(String expression, int runs) throws InfixQueueIllegalStateException
+   {
+	   long fastest = Long.MAX_VALUE;
+	   for (int i = 0; i < runs; i++)
+	   {
+		   long start = System.nanoTime();
+		   evaluator.evaluate(expression);
+		   fastest = Math.min(fastest, System.nanoTime() - start);
+	   }
+	   return fastest;
+   }
+
+   /**
+    * Builds an expression whose answer is its amount of operands.
+    */
+   private String expression(int operands)
+   {
+	   StringBuilder builder = new StringBuilder(operands * 8);
+	   switch (shape)
+	   {
+	   case "flat":
+		   builder.append('1');
+		   for (int i = 1; i < operands; i++)
+			   builder.append("+1");
+		   break;
+	   case "left nested":
+		   for (int i = 1; i < operands; i++)
+			   builder.append('(');
+		   builder.append('1');
+		   for (int i = 1; i < operands; i++)
+			   builder.append("+1)");
+		   break;
+	   case "right nested":
+		   for (int i = 1; i < operands; i++)
+			   builder.append("1+(");
+		   builder.append('1');
+		   for (int i = 1; i < operands; i++)
+			   builder.append(')');
+		   break;
+	   default:
+		   for (int i = 1; i < operands; i++)
+			   builder.append("max(").append(i).append(',');
+		   builder.append(operands);
+		   for (int i = 1; i < operands; i++)
+			   builder.append(')');
+		   break;
+	   }
+	   return builder.toString();
+   }
+}
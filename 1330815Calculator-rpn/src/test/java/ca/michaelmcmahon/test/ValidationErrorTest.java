@@ -0,0 +1,126 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.ErrorCode;
+import ca.michaelmcmahon.ExpressionEvaluator;
+import ca.michaelmcmahon.ExpressionParser;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+@RunWith(Parameterized.class)
+public class ValidationErrorTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private String infix;
+	private ErrorCode expectedCode;
+	private int expectedItem;
+
+   public ValidationErrorTest(String infix, ErrorCode expectedCode, int expectedItem)
+   {
+	   this.infix = infix;
+	   this.expectedCode = expectedCode;
+	   this.expectedItem = expectedItem;
+   }
+
+   /**
+    * Invalid expressions with the code of their error and the
+    * index of the item that is wrong.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"", ErrorCode.EMPTY_EXPRESSION, 0},
+		   {"+ 2", ErrorCode.LEADING_OPERATOR, 0},
+		   {"2 +", ErrorCode.TRAILING_OPERATOR, 2},
+		   {"2 + * 5", ErrorCode.CONSECUTIVE_OPERATORS, 2},
+		   {"2 3 + 5", ErrorCode.CONSECUTIVE_OPERANDS, 1},
+		   {"2 x", ErrorCode.CONSECUTIVE_OPERANDS, 1},
+		   {"2 ( 3 )", ErrorCode.OPERAND_BEFORE_PARENTHESIS, 1},
+		   {"( * 3 )", ErrorCode.OPERATOR_AFTER_PARENTHESIS, 1},
+		   {"( 3 * )", ErrorCode.OPERATOR_BEFORE_PARENTHESIS, 3},
+		   {"( 3 ) 4", ErrorCode.OPERAND_AFTER_PARENTHESIS, 3},
+		   {"( 3 ) ( 4 )", ErrorCode.OPERAND_AFTER_PARENTHESIS, 3},
+		   {"2 + ( )", ErrorCode.EMPTY_PARENTHESES, 3},
+		   {") 2", ErrorCode.UNMATCHED_CLOSING_PARENTHESIS, 0},
+		   {"( 5 * 3 ) * 2 + 1 ) * 4", ErrorCode.UNMATCHED_CLOSING_PARENTHESIS, 9},
+		   {"( 5 * ( 3 + 2 ) * 4", ErrorCode.UNCLOSED_PARENTHESIS, 0},
+		   {"5 * ( 1 + ( 3 + 2 ) * 4", ErrorCode.UNCLOSED_PARENTHESIS, 2},
+		   {"2 + y", ErrorCode.UNDECLARED_VARIABLE, 2},
+		   {"2 + 1.", ErrorCode.INVALID_NUMBER, 2},
+		   {"2 + 7 / 0", ErrorCode.DIVISION_BY_ZERO, -1},
+		   {"5 % 0", ErrorCode.DIVISION_BY_ZERO, -1},
+		   {"max 2", ErrorCode.MISSING_FUNCTION_PARENTHESIS, 1},
+		   {"2 + max", ErrorCode.MISSING_FUNCTION_PARENTHESIS, 3},
+		   {"max ( 1 )", ErrorCode.WRONG_ARGUMENT_COUNT, 3},
+		   {"sqrt ( 1 , 2 )", ErrorCode.WRONG_ARGUMENT_COUNT, 5},
+		   {"( 1 , 2 )", ErrorCode.MISPLACED_COMMA, 2},
+		   {"max ( 1 , )", ErrorCode.MISPLACED_COMMA, 4},
+		   {"x max ( 1 , 2 )", ErrorCode.CONSECUTIVE_OPERANDS, 1},
+		   {"2 * - + 3", ErrorCode.CONSECUTIVE_OPERATORS, 3},
+		   {"sqrt ( - 4 )", ErrorCode.INVALID_OPERAND, -1},
+		   {"2 ^ 0.5", ErrorCode.INVALID_OPERAND, -1},
+		   {"2 ^ 10000", ErrorCode.INVALID_OPERAND, -1}
+	   });
+   }
+
+   /**
+    * An infix queue reports the index of the item that is wrong.
+    */
+   @Test
+   public void queueErrorTest()
+   {
+	   ExpressionParser parser = new ExpressionParser(new LinkedList<>(infix.isEmpty() ? Arrays.<String>asList() : Arrays.asList(infix.split(" "))));
+	   try
+	   {
+		   parser.compile("x").evaluate(new BigDecimal[] {BigDecimal.ONE});
+		   fail("The expression " + infix + " is not valid");
+	   }
+	   catch(InfixQueueIllegalStateException e)
+	   {
+		   assertEquals(e.getMessage(), expectedCode, e.getErrorCode());
+		   assertEquals(e.getMessage(), expectedItem, e.getPosition());
+	   }
+   }
+
+   /**
+    * Text reports the offset of the first character of the item that is wrong,
+    * every item here is followed by one space.
+    */
+   @Test
+   public void textErrorTest()
+   {
+	   String[] items = infix.split(" ");
+	   int expectedOffset = 0;
+	   for(int i = 0; i < expectedItem && i < items.length; i++)
+	   {
+		   expectedOffset += items[i].length() + 1;
+	   }
+	   expectedOffset = expectedItem < 0 ? -1 : Math.min(expectedOffset, infix.length());
+
+	   try
+	   {
+		   new ExpressionEvaluator().compile(infix, "x").evaluate(new BigDecimal[] {BigDecimal.ONE});
+		   fail("The expression " + infix + " is not valid");
+	   }
+	   catch(InfixQueueIllegalStateException e)
+	   {
+		   assertEquals(e.getMessage(), expectedCode, e.getErrorCode());
+		   assertEquals(e.getMessage(), expectedOffset, e.getPosition());
+	   }
+   }
+}
@@ -0,0 +1,126 @@
+package ca.michaelmcmahon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import ca.michaelmcmahon.CompiledExpression;
+import ca.michaelmcmahon.EvaluationMode;
+import ca.michaelmcmahon.ExpressionParser;
+import ca.michaelmcmahon.InfixQueueIllegalStateException;
+
+@RunWith(Parameterized.class)
+public class VariableExpressionTest
+{
+	@Rule
+	public MethodLogger methodLogger = new MethodLogger();
+
+	private Queue<String> infixQueue;
+	private String[] variables;
+	private double[] row;
+	private BigDecimal expectedResult;
+
+   public VariableExpressionTest(String infix, String variables, double[] row, BigDecimal expectedResult)
+   {
+	   this.infixQueue = new LinkedList<>(Arrays.asList(infix.split(" ")));
+	   this.variables = variables.split(" ");
+	   this.row = row;
+	   this.expectedResult = expectedResult;
+   }
+
+   /**
+    * Expressions with variables, the values of the variables
+    * and the answer.
+    * @return the collection of parameters
+    */
+   @Parameterized.Parameters
+   public static Collection<Object[]> Expressions()
+   {
+	   return Arrays.asList(new Object[][] {
+		   {"price * qty + fee", "price qty fee", new double[] {2.5, 4, 1.25}, new BigDecimal("11.25")},
+		   {"price * qty + fee", "price qty fee", new double[] {3, 4, 1}, new BigDecimal(13)},
+		   {"( a - b ) / c", "a b c", new double[] {1, 0, 3}, new BigDecimal("0.33")},
+		   {"x * x * x + 1", "x", new double[] {1000000}, new BigDecimal("1000000000000000001")},
+		   {"fee + 2", "price fee", new double[] {9, 0.1}, new BigDecimal("2.1")}
+	   });
+   }
+
+   /**
+    * Evaluating with a double row, a BigDecimal row or in the fast and
+    * fixed point modes must all give the expected answer.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void variableExpressionTest() throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression compiled = new ExpressionParser(infixQueue).compile(variables);
+	   BigDecimal[] bigDecimalRow = new BigDecimal[row.length];
+	   for(int i = 0; i < row.length; i++)
+	   {
+		   bigDecimalRow[i] = BigDecimal.valueOf(row[i]);
+	   }
+
+	   assertEquals(expectedResult.toPlainString(), compiled.evaluate(row).toPlainString());
+	   assertEquals(expectedResult.toPlainString(), compiled.evaluate(bigDecimalRow).toPlainString());
+	   assertEquals(expectedResult.toPlainString(), compiled.evaluate(EvaluationMode.FAST, row).toPlainString());
+	   assertEquals(expectedResult.toPlainString(), compiled.evaluate(EvaluationMode.FAST, bigDecimalRow).toPlainString());
+	   assertEquals(expectedResult.toPlainString(), compiled.evaluate(EvaluationMode.FIXED_POINT, row).toPlainString());
+	   assertEquals(expectedResult.toPlainString(), compiled.evaluate(EvaluationMode.FIXED_POINT, bigDecimalRow).toPlainString());
+   }
+
+   /**
+    * Evaluating a table one column at a time must give the
+    * answer of every row.
+    *
+    * @throws InfixQueueIllegalStateException - needs this to compile.
+    */
+   @Test
+   public void batchEvaluationTest() throws InfixQueueIllegalStateException
+   {
+	   CompiledExpression compiled = new ExpressionParser(infixQueue).compile(variables);
+	   int rows = 2500;
+	   double[][] columns = new double[row.length][rows];
+	   for(int i = 0; i < row.length; i++)
+	   {
+		   Arrays.fill(columns[i], row[i]);
+	   }
+	   double[] results = new double[rows];
+
+	   compiled.evaluateBatch(columns, results);
+
+	   for(double result : results)
+	   {
+		   assertEquals(expectedResult.doubleValue(), result, Math.ulp(expectedResult.doubleValue()));
+	   }
+   }
+
+   /**
+    * Variables that were not declared are not valid.
+    * @throws InfixQueueIllegalStateException
+    */
+   @Test(expected = InfixQueueIllegalStateException.class)
+   public void undeclaredVariableTest() throws InfixQueueIllegalStateException
+   {
+	   new ExpressionParser(infixQueue).compile(Arrays.copyOf(variables, variables.length - 1));
+   }
+
+   /**
+    * A row must have one value for every variable.
+    * @throws InfixQueueIllegalStateException
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void rowLengthTest() throws InfixQueueIllegalStateException
+   {
+	   new ExpressionParser(infixQueue).compile(variables).evaluate(new double[row.length + 1]);
+   }
+}